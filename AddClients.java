@@ -0,0 +1,96 @@
+import java.io.IOException;
+import java.nio.file.*;
+import java.util.*;
+
+// Seeds, loads and dumps warehouse tables in bulk (see BulkLoader and BulkExporter).
+// Usage: java AddClients generate out=<path> [clients=1000000] [products=10000] [wishlist=3] [format=csv] [seed=1]
+//        java AddClients import in=<path> [format=csv] [threads=<cores>] [dataDir=warehouse-data]
+//        java AddClients export out=<path> [format=csv] [dataDir=warehouse-data]
+// format csv is a directory holding clients.csv, products.csv and wishlists.csv; format bin is one
+// file. import and export work on the journaled warehouse in dataDir, the one the app opens.
+public class AddClients {
+
+    private static final String[] KINDS = { "red", "green", "organic", "premium", "spicy", "fresh", "smoked", "sweet" };
+    private static final String[] GOODS = { "apple", "tea", "milk", "sauce", "coffee", "rice", "honey", "bread", "cheese", "juice" };
+    private static final String[] SIZES = { "100g", "250g", "500g", "1kg", "1l", "6 pack", "12 pack", "jar", "box" };
+    private static final String[] STREETS = { "Main St", "Oak Ave", "Pine Rd", "Lake Dr", "Hill St", "Elm Ct" };
+
+    public static void main(String[] argv) throws Exception {
+        if (argv.length == 0){ usage(); return; }
+        Map<String, String> args = new HashMap<>();
+        for (int i = 1; i < argv.length; i++){
+            int eq = argv[i].indexOf('=');
+            if (eq > 0) args.put(argv[i].substring(0, eq), argv[i].substring(eq + 1));
+        }
+        boolean binary = args.getOrDefault("format", "csv").equals("bin");
+        switch (argv[0]){
+            case "generate": generate(args, binary); break;
+            case "import": load(args, binary); break;
+            case "export": dump(args, binary); break;
+            default: usage();
+        }
+    }
+
+    private static void usage(){
+        System.err.println("Usage: java AddClients generate|import|export key=value... (see AddClients.java)");
+    }
+
+    private static Path path(Map<String, String> args, String key){
+        String p = args.get(key);
+        if (p == null) throw new IllegalArgumentException("Missing " + key + "=<path>");
+        return Paths.get(p);
+    }
+
+    private static BulkExporter.Sink sink(Path out, boolean binary) throws IOException {
+        return binary ? BulkExporter.binary(out) : BulkExporter.csv(out);
+    }
+
+    // Synthetic tables: names that exercise product search, and wishlists over random products
+    private static void generate(Map<String, String> args, boolean binary) throws IOException {
+        int clients = Integer.parseInt(args.getOrDefault("clients", "1000000"));
+        int products = Integer.parseInt(args.getOrDefault("products", "10000"));
+        int wishlist = Integer.parseInt(args.getOrDefault("wishlist", "3"));
+        SplittableRandom r = new SplittableRandom(Long.parseLong(args.getOrDefault("seed", "1")));
+        long start = System.currentTimeMillis();
+        try (BulkExporter.Sink out = sink(path(args, "out"), binary)){
+            for (int i = 1; i <= products; i++){
+                String name = KINDS[r.nextInt(KINDS.length)] + " " + GOODS[r.nextInt(GOODS.length)] + " " + SIZES[r.nextInt(SIZES.length)];
+                out.product(i, name, r.nextInt(1000), 50 + r.nextInt(5000));
+            }
+            for (int i = 1; i <= clients; i++){
+                out.client(i, "Client " + i, (1 + r.nextInt(9999)) + " " + STREETS[r.nextInt(STREETS.length)]);
+                if (products > 0){
+                    for (int k = 0; k < wishlist; k++) out.wishlist(i, 1 + r.nextInt(products), 1 + r.nextInt(5));
+                }
+            }
+        }
+        System.out.printf("generated %d clients, %d products, %d wishlist lines in %d ms%n",
+                clients, products, (long) clients * (products > 0 ? wishlist : 0), System.currentTimeMillis() - start);
+    }
+
+    private static void load(Map<String, String> args, boolean binary) throws IOException {
+        Path in = path(args, "in");
+        int threads = Integer.parseInt(args.getOrDefault("threads", String.valueOf(Runtime.getRuntime().availableProcessors())));
+        withWarehouse(args, w -> {
+            BulkStats stats = binary ? BulkLoader.loadBinary(w, in, threads) : BulkLoader.loadCsv(w, in, threads);
+            System.out.println("imported " + stats);
+        });
+    }
+
+    private static void dump(Map<String, String> args, boolean binary) throws IOException {
+        Path out = path(args, "out");
+        withWarehouse(args, w -> System.out.println("exported " + BulkExporter.export(w, sink(out, binary))));
+    }
+
+    private interface WarehouseTask { void run(Warehouse w) throws IOException; }
+
+    // The warehouse recovered from dataDir; a load is snapshotted there before it returns
+    private static void withWarehouse(Map<String, String> args, WarehouseTask task) throws IOException {
+        Path dir = Paths.get(args.getOrDefault("dataDir", "warehouse-data"));
+        try (Warehouse w = new Warehouse()){
+            WarehouseJournal j = WarehouseJournal.open(dir, w, false, 0);
+            try { task.run(w); }
+            finally { j.close(); }
+        }
+    }
+}
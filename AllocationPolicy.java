@@ -0,0 +1,41 @@
+// How placeOrder splits an order between stock, the waitlist and the client's wishlist.
+// Only units that are not reserved (Product.getAvailable) can be allocated.
+public enum AllocationPolicy {
+    // fill what stock allows and waitlist the rest; every line leaves the wishlist
+    GREEDY,
+    // fill every line completely or nothing at all; a rejected order stays on the wishlist
+    ALL_OR_NOTHING,
+    // fill each line completely or skip it; skipped lines stay on the wishlist, nothing is waitlisted
+    FILL_OR_KILL;
+
+    private static final AllocationPolicy[] VALUES = values();
+
+    static AllocationPolicy of(int ordinal){ return VALUES[ordinal]; }
+
+    // Decides fill[i] for every line; returns false when the whole order is rejected
+    boolean allocate(int[] want, int[] available, int[] fill){
+        switch (this){
+            case ALL_OR_NOTHING:
+                for (int i = 0; i < want.length; i++) if (want[i] > available[i]) return false;
+                System.arraycopy(want, 0, fill, 0, want.length);
+                return true;
+            case FILL_OR_KILL:
+                for (int i = 0; i < want.length; i++) fill[i] = want[i] <= available[i] ? want[i] : 0;
+                return true;
+            default:
+                for (int i = 0; i < want.length; i++) fill[i] = Math.min(want[i], available[i]);
+                return true;
+        }
+    }
+
+    // whether a line leaves the wishlist once the order is decided
+    boolean consumesLine(boolean accepted, int fill){
+        switch (this){
+            case ALL_OR_NOTHING: return accepted;
+            case FILL_OR_KILL: return fill > 0;
+            default: return true;
+        }
+    }
+
+    boolean waitlistsShortfall(){ return this == GREEDY; }
+}
@@ -0,0 +1,57 @@
+import java.util.*;
+import java.util.concurrent.ConcurrentSkipListSet;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+// Clients that owe money, ordered by balance (largest first, then by client index).
+// Clients report every balance change here while holding their own stripe lock, so updates for
+// one client never interleave; readers may briefly miss a client that is being moved.
+public class BalanceIndex {
+
+    private static final class Entry implements Comparable<Entry> {
+        final long cents;
+        final int client;
+        Entry(long cents, int client){ this.cents = cents; this.client = client; }
+
+        @Override public int compareTo(Entry o){
+            if (cents != o.cents) return cents > o.cents ? -1 : 1;
+            return Integer.compare(client, o.client);
+        }
+        @Override public boolean equals(Object o){
+            return o instanceof Entry && ((Entry) o).cents == cents && ((Entry) o).client == client;
+        }
+        @Override public int hashCode(){ return Long.hashCode(cents) * 31 + client; }
+    }
+
+    private final ConcurrentSkipListSet<Entry> debtors = new ConcurrentSkipListSet<>();
+    private final AtomicLong receivableCents = new AtomicLong();
+    private final AtomicInteger count = new AtomicInteger();
+
+    // Moves a client from its old balance to the new one; only positive balances are indexed
+    void update(int client, long oldCents, long newCents){
+        long before = Math.max(0, oldCents);
+        long after = Math.max(0, newCents);
+        if (before == after) return;
+        if (before > 0){ debtors.remove(new Entry(before, client)); count.decrementAndGet(); }
+        if (after > 0){ debtors.add(new Entry(after, client)); count.incrementAndGet(); }
+        receivableCents.addAndGet(after - before);
+    }
+
+    public int size(){ return count.get(); }
+    public long totalReceivableCents(){ return receivableCents.get(); }
+
+    // Client indexes owing more than minCents, largest balance first, skipping `offset` of them
+    public int[] owingMoreThan(long minCents, int offset, int limit){
+        if (offset < 0 || limit < 0) throw new IllegalArgumentException("Offset and limit must be >= 0");
+        // every entry sorting before (minCents, MIN_VALUE) has a strictly larger balance
+        NavigableSet<Entry> over = minCents < 1 ? debtors : debtors.headSet(new Entry(minCents, Integer.MIN_VALUE), false);
+        int[] out = new int[Math.min(limit, count.get())];
+        int n = 0, skipped = 0;
+        for (Iterator<Entry> it = over.iterator(); it.hasNext() && n < out.length; ){
+            Entry e = it.next();
+            if (skipped < offset){ skipped++; continue; }
+            out[n++] = e.client;
+        }
+        return n == out.length ? out : Arrays.copyOf(out, n);
+    }
+}
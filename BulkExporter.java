@@ -0,0 +1,267 @@
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+
+// Writes clients, products (with their current stock) and wishlists in the formats BulkLoader
+// reads. Rows are encoded straight into a large buffer that is written to the file channel when
+// full. Each row reflects its entity at the moment it is written; rows for clients or products
+// added after the export started are left out, so the files always load back cleanly.
+public class BulkExporter {
+    private BulkExporter(){}
+
+    // Receives rows in any order; the binary sink keeps a block per kind, the CSV sink a file per table
+    public abstract static class Sink implements Closeable {
+        public abstract void client(int index, String name, String address) throws IOException;
+        public abstract void product(int index, String name, int stock, long priceCents) throws IOException;
+        public abstract void wishlist(int client, int product, int qty) throws IOException;
+    }
+
+    public static BulkStats export(Warehouse w, Sink out) throws IOException {
+        long start = System.currentTimeMillis();
+        int clientBound = w.clientUpperBound(), productBound = w.productUpperBound();
+        long clients = 0, products = 0, lines = 0;
+        for (int i = 1; i < productBound; i++){
+            Product p = w.product(i);
+            if (p == null) continue;
+            out.product(i, p.getName(), p.getStock(), p.getPriceCents());
+            products++;
+        }
+        for (int i = 1; i < clientBound; i++){
+            Client c = w.client(i);
+            if (c == null) continue;
+            out.client(i, c.getName(), c.getAddress());
+            clients++;
+        }
+        WishlistMap wl = new WishlistMap();
+        for (int i = 1; i < clientBound; i++){
+            Client c = w.client(i);
+            if (c == null) continue;
+            w.copyWishlist(c, wl);
+            for (int k = 0; k < wl.size(); k++){
+                if (wl.product(k) >= productBound) continue;
+                out.wishlist(i, wl.product(k), wl.quantity(k));
+                lines++;
+            }
+        }
+        out.close();
+        return new BulkStats(clients, products, lines, System.currentTimeMillis() - start);
+    }
+
+    // clients.csv, products.csv and wishlists.csv in dir, each with a header line
+    public static Sink csv(Path dir) throws IOException {
+        Files.createDirectories(dir);
+        return new CsvSink(dir);
+    }
+
+    public static Sink binary(Path file) throws IOException {
+        return new BinarySink(file);
+    }
+
+    // ====================== OUTPUT BUFFER ======================
+
+    private static final int BUFFER = 1 << 20;
+
+    private static final class Out implements Closeable {
+        private final FileChannel ch;
+        final ByteBuffer buf = ByteBuffer.allocate(BUFFER);
+
+        Out(Path file) throws IOException {
+            ch = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+        }
+
+        // makes room for n more bytes
+        void reserve(int n) throws IOException {
+            if (buf.remaining() < n) flush();
+            if (buf.remaining() < n) throw new IllegalArgumentException("Row too long to export");
+        }
+
+        void flush() throws IOException {
+            buf.flip();
+            while (buf.hasRemaining()) ch.write(buf);
+            buf.clear();
+        }
+
+        void ascii(String s){
+            for (int i = 0; i < s.length(); i++) buf.put((byte) s.charAt(i));
+        }
+
+        void number(long v){
+            if (v < 0){ buf.put((byte) '-'); v = -v; }
+            if (v >= 10) number(v / 10);
+            buf.put((byte) ('0' + v % 10));
+        }
+
+        void cents(long v){
+            if (v < 0){ buf.put((byte) '-'); v = -v; }
+            number(v / 100);
+            buf.put((byte) '.');
+            buf.put((byte) ('0' + v % 100 / 10));
+            buf.put((byte) ('0' + v % 10));
+        }
+
+        // UTF-8 without an intermediate byte[] for ASCII text
+        void utf8(String s){
+            for (int i = 0; i < s.length(); i++){
+                char c = s.charAt(i);
+                if (c >= 0x80){
+                    buf.put(s.substring(i).getBytes(StandardCharsets.UTF_8));
+                    return;
+                }
+                buf.put((byte) c);
+            }
+        }
+
+        @Override
+        public void close() throws IOException {
+            try { flush(); }
+            finally { ch.close(); }
+        }
+    }
+
+    // ====================== CSV ======================
+
+    private static final class CsvSink extends Sink {
+        private final Out clients, products, wishlists;
+
+        CsvSink(Path dir) throws IOException {
+            clients = new Out(dir.resolve(BulkLoader.CLIENTS_CSV));
+            products = new Out(dir.resolve(BulkLoader.PRODUCTS_CSV));
+            wishlists = new Out(dir.resolve(BulkLoader.WISHLISTS_CSV));
+            clients.ascii("id,name,address\n");
+            products.ascii("id,name,stock,price\n");
+            wishlists.ascii("clientId,productId,qty\n");
+        }
+
+        @Override
+        public void client(int index, String name, String address) throws IOException {
+            clients.reserve(16 + maxText(name) + maxText(address));
+            clients.buf.put((byte) 'C'); clients.number(index); clients.buf.put((byte) ',');
+            text(clients, name); clients.buf.put((byte) ',');
+            text(clients, address); clients.buf.put((byte) '\n');
+        }
+
+        @Override
+        public void product(int index, String name, int stock, long priceCents) throws IOException {
+            products.reserve(64 + maxText(name));
+            products.buf.put((byte) 'P'); products.number(index); products.buf.put((byte) ',');
+            text(products, name); products.buf.put((byte) ',');
+            products.number(stock); products.buf.put((byte) ',');
+            products.cents(priceCents); products.buf.put((byte) '\n');
+        }
+
+        @Override
+        public void wishlist(int client, int product, int qty) throws IOException {
+            wishlists.reserve(40);
+            wishlists.buf.put((byte) 'C'); wishlists.number(client); wishlists.buf.put((byte) ',');
+            wishlists.buf.put((byte) 'P'); wishlists.number(product); wishlists.buf.put((byte) ',');
+            wishlists.number(qty); wishlists.buf.put((byte) '\n');
+        }
+
+        private static int maxText(String s){ return 2 + s.length() * 6; } // every char a doubled quote, worst case
+
+        // quoted only when it has to be; records are one per line, so line breaks cannot be written
+        private static void text(Out out, String s){
+            boolean quote = !s.isEmpty() && (s.charAt(0) == ' ' || s.charAt(s.length() - 1) == ' ');
+            for (int i = 0; i < s.length(); i++){
+                char c = s.charAt(i);
+                if (c == '\n' || c == '\r') throw new IllegalArgumentException("Line break in exported text: " + s);
+                if (c == ',' || c == '"') quote = true;
+            }
+            if (!quote){ out.utf8(s); return; }
+            out.buf.put((byte) '"');
+            out.utf8(s.replace("\"", "\"\""));
+            out.buf.put((byte) '"');
+        }
+
+        @Override
+        public void close() throws IOException {
+            try { clients.close(); }
+            finally {
+                try { products.close(); }
+                finally { wishlists.close(); }
+            }
+        }
+    }
+
+    // ====================== BINARY ======================
+
+    // Layout: magic, version, then blocks of one kind each: kind byte, record count, payload
+    // bytes, payload. A kind 0 byte ends the file. Strings are an unsigned short byte length
+    // and UTF-8; ints and longs are big-endian.
+    private static final class BinarySink extends Sink {
+        private static final int BLOCK = 1 << 18;
+
+        private final Out out;
+        private final ByteBuffer[] blocks = new ByteBuffer[4]; // by kind
+        private final int[] counts = new int[4];
+
+        BinarySink(Path file) throws IOException {
+            out = new Out(file);
+            out.buf.putInt(BulkLoader.BINARY_MAGIC);
+            out.buf.putInt(BulkLoader.BINARY_VERSION);
+            for (int k = 1; k < blocks.length; k++) blocks[k] = ByteBuffer.allocate(BLOCK);
+        }
+
+        @Override
+        public void client(int index, String name, String address) throws IOException {
+            ByteBuffer b = block(BulkLoader.CLIENTS, 8 + 3 * name.length() + 3 * address.length());
+            b.putInt(index); string(b, name); string(b, address);
+        }
+
+        @Override
+        public void product(int index, String name, int stock, long priceCents) throws IOException {
+            ByteBuffer b = block(BulkLoader.PRODUCTS, 18 + 3 * name.length());
+            b.putInt(index); string(b, name); b.putInt(stock); b.putLong(priceCents);
+        }
+
+        @Override
+        public void wishlist(int client, int product, int qty) throws IOException {
+            block(BulkLoader.WISHLISTS, 12).putInt(client).putInt(product).putInt(qty);
+        }
+
+        // the block for kind with room for one more record of at most `need` bytes
+        private ByteBuffer block(byte kind, int need) throws IOException {
+            ByteBuffer b = blocks[kind];
+            if (b.remaining() < need) writeBlock(kind);
+            if (b.remaining() < need) throw new IllegalArgumentException("Row too long to export");
+            counts[kind]++;
+            return b;
+        }
+
+        private void writeBlock(byte kind) throws IOException {
+            ByteBuffer b = blocks[kind];
+            if (counts[kind] == 0) return;
+            b.flip();
+            out.reserve(9);
+            out.buf.put(kind).putInt(counts[kind]).putInt(b.remaining());
+            while (b.hasRemaining()){
+                if (!out.buf.hasRemaining()) out.flush();
+                int n = Math.min(b.remaining(), out.buf.remaining());
+                int limit = b.limit();
+                b.limit(b.position() + n);
+                out.buf.put(b);
+                b.limit(limit);
+            }
+            b.clear();
+            counts[kind] = 0;
+        }
+
+        private static void string(ByteBuffer b, String s){
+            byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+            if (bytes.length > 0xFFFF) throw new IllegalArgumentException("Text too long to export: " + s.substring(0, 40) + "...");
+            b.putShort((short) bytes.length);
+            b.put(bytes);
+        }
+
+        @Override
+        public void close() throws IOException {
+            try {
+                for (byte k = 1; k < blocks.length; k++) writeBlock(k);
+                out.reserve(1);
+                out.buf.put((byte) 0);
+            } finally { out.close(); }
+        }
+    }
+}
@@ -0,0 +1,505 @@
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.util.*;
+import java.util.concurrent.*;
+
+// Loads clients, products (with their initial stock) and wishlists from large files, in parallel
+// chunks. Two formats, both written by BulkExporter:
+//   CSV     clients.csv    id,name,address        C12,Ann Lee,"1 Main St, Springfield"
+//           products.csv   id,name,stock,price    P7,red apple,120,0.45
+//           wishlists.csv  clientId,productId,qty C12,P7,3
+//           One record per line. A header line, blank lines and lines starting with # are
+//           skipped; fields may be quoted ("" is a quote inside quotes) but never span lines.
+//   binary  one file of length-prefixed blocks of records (see BulkExporter.BinarySink)
+// The ids in the files are kept, so wishlists can refer to them; an id already in use is an error,
+// and so is one far past the highest in use (see DenseRegistry.FREE_INDICES).
+// CSV chunks are mapped and parsed in place, binary blocks are read with positional channel
+// reads; either way the entities themselves are the only per-row allocations.
+//
+// Clients and products load first, then wishlists. Everything runs with every stripe held and is
+// made durable by one journal snapshot rather than a record per row. A failed load keeps the rows
+// registered before the error.
+public class BulkLoader {
+    static final String CLIENTS_CSV = "clients.csv";
+    static final String PRODUCTS_CSV = "products.csv";
+    static final String WISHLISTS_CSV = "wishlists.csv";
+
+    static final int BINARY_MAGIC = 0x57484258; // "WHBX"
+    static final int BINARY_VERSION = 1;
+    static final byte CLIENTS = 1, PRODUCTS = 2, WISHLISTS = 3;
+
+    private static final int CHUNK = 8 << 20;   // CSV bytes per task
+    private static final int BATCH = 4096;      // entities registered per registry call
+
+    private final Warehouse warehouse;
+    private final int threads;
+    private final List<FileChannel> openChannels = new ArrayList<>(); // closed when the load ends
+    // one reusable buffer per pool thread for binary blocks
+    private final ThreadLocal<ByteBuffer> buffers = ThreadLocal.withInitial(() -> ByteBuffer.allocate(1 << 18));
+
+    private BulkLoader(Warehouse warehouse, int threads){
+        if (threads <= 0) throw new IllegalArgumentException("Bad thread count: " + threads);
+        this.warehouse = warehouse;
+        this.threads = threads;
+    }
+
+    // Loads whichever of clients.csv, products.csv and wishlists.csv exist in dir
+    public static BulkStats loadCsv(Warehouse w, Path dir, int threads) throws IOException {
+        return new BulkLoader(w, threads).csv(dir);
+    }
+
+    public static BulkStats loadBinary(Warehouse w, Path file, int threads) throws IOException {
+        return new BulkLoader(w, threads).binary(file);
+    }
+
+    // ====================== CSV ======================
+
+    private BulkStats csv(Path dir) throws IOException {
+        Path cf = dir.resolve(CLIENTS_CSV), pf = dir.resolve(PRODUCTS_CSV), wf = dir.resolve(WISHLISTS_CSV);
+        if (!Files.exists(cf) && !Files.exists(pf) && !Files.exists(wf)) throw new FileNotFoundException("No CSV tables in " + dir);
+        long start = System.currentTimeMillis();
+        long[] counts = new long[3];
+        run(pool -> {
+            List<Future<Long>> clients = new ArrayList<>(), products = new ArrayList<>();
+            if (Files.exists(cf)) forEachChunk(cf, (ch, from, to) -> clients.add(pool.submit(() -> clientChunk(csvChunk(ch, cf, from, to)))));
+            if (Files.exists(pf)) forEachChunk(pf, (ch, from, to) -> products.add(pool.submit(() -> productChunk(csvChunk(ch, pf, from, to)))));
+            counts[0] = sum(clients);
+            counts[1] = sum(products);
+            if (Files.exists(wf)){
+                List<Future<int[]>> parsed = new ArrayList<>();
+                forEachChunk(wf, (ch, from, to) -> parsed.add(pool.submit(() -> wishlistChunk(csvChunk(ch, wf, from, to)))));
+                counts[2] = applyWishlists(pool, parsed);
+            }
+        });
+        return new BulkStats(counts[0], counts[1], counts[2], System.currentTimeMillis() - start);
+    }
+
+    private interface ChunkVisitor { void visit(FileChannel ch, long from, long to) throws IOException; }
+
+    // Cuts the file into chunks of about CHUNK bytes that end just after a line break. The channel
+    // stays open until every task has run.
+    private void forEachChunk(Path file, ChunkVisitor v) throws IOException {
+        FileChannel ch = FileChannel.open(file, StandardOpenOption.READ);
+        openChannels.add(ch);
+        long size = ch.size();
+        ByteBuffer probe = ByteBuffer.allocate(4096);
+        long from = 0;
+        while (from < size){
+            long to = Math.min(size, from + CHUNK);
+            while (to < size){
+                probe.clear();
+                int n = ch.read(probe, to);
+                int i = 0;
+                while (i < n && probe.get(i) != '\n') i++;
+                to += i;
+                if (i < n){ to++; break; }
+            }
+            v.visit(ch, from, to);
+            from = to;
+        }
+    }
+
+    private static Csv csvChunk(FileChannel ch, Path file, long from, long to) throws IOException {
+        return new Csv(ch.map(FileChannel.MapMode.READ_ONLY, from, to - from), file.getFileName().toString(), from);
+    }
+
+    private long clientChunk(Csv in){
+        List<Client> batch = new ArrayList<>(BATCH);
+        long n = 0;
+        while (in.nextRecord('C')){
+            int index = in.id('C');
+            String name = in.text();
+            String address = in.text();
+            in.endRecord();
+            batch.add(new Client(Ids.clientId(index), name, address));
+            if (batch.size() == BATCH){ warehouse.registerClients(batch); n += batch.size(); batch.clear(); }
+        }
+        warehouse.registerClients(batch);
+        return n + batch.size();
+    }
+
+    private long productChunk(Csv in){
+        WaitlistPolicy policy = warehouse.getWaitlistPolicy();
+        List<Product> batch = new ArrayList<>(BATCH);
+        long n = 0;
+        while (in.nextRecord('P')){
+            int index = in.id('P');
+            String name = in.text();
+            int stock = in.integer();
+            long price = in.cents();
+            in.endRecord();
+            if (stock < 0) throw in.error("stock must be >= 0");
+            batch.add(new Product(Ids.productId(index), name, stock, price, policy.create()));
+            if (batch.size() == BATCH){ warehouse.registerProducts(batch); n += batch.size(); batch.clear(); }
+        }
+        warehouse.registerProducts(batch);
+        return n + batch.size();
+    }
+
+    // client, product, qty triples; applied later, once every chunk has been checked
+    private int[] wishlistChunk(Csv in){
+        int[] rows = new int[3 * 1024];
+        int n = 0;
+        while (in.nextRecord('C')){
+            int client = in.id('C');
+            int product = in.id('P');
+            int qty = in.integer();
+            in.endRecord();
+            if (warehouse.client(client) == null) throw in.error("unknown client C" + client);
+            if (warehouse.product(product) == null) throw in.error("unknown product P" + product);
+            if (qty <= 0) throw in.error("quantity must be > 0");
+            if (n == rows.length) rows = Arrays.copyOf(rows, n * 2);
+            rows[n++] = client; rows[n++] = product; rows[n++] = qty;
+        }
+        return Arrays.copyOf(rows, n);
+    }
+
+    // Every task applies the rows of its own share of clients, in file order, so no wishlist is
+    // touched by two threads and a later line for the same product wins as it would one by one
+    private long applyWishlists(ExecutorService pool, List<Future<int[]>> parsed) throws Exception {
+        List<int[]> chunks = new ArrayList<>();
+        long lines = 0;
+        for (Future<int[]> f : parsed){ int[] rows = get(f); chunks.add(rows); lines += rows.length / 3; }
+        List<Future<Long>> tasks = new ArrayList<>();
+        for (int t = 0; t < threads; t++){
+            int share = t;
+            tasks.add(pool.submit(() -> {
+                for (int[] rows : chunks){
+                    for (int i = 0; i < rows.length; i += 3){
+                        if (rows[i] % threads != share) continue;
+                        warehouse.client(rows[i]).addOrUpdateWishlistItem(rows[i + 1], rows[i + 2]);
+                    }
+                }
+                return 0L;
+            }));
+        }
+        sum(tasks);
+        return lines;
+    }
+
+    // Cursor over one chunk of CSV. Field readers consume the comma after the field.
+    private static final class Csv {
+        private final MappedByteBuffer b;
+        private final String file;
+        private final long base;     // file offset of the chunk, for error messages
+        private final int end;
+        private int pos;
+        private int record;          // where the current record starts
+        private boolean lastField;   // the field just read ended the record
+        private byte[] text = new byte[256];
+
+        Csv(MappedByteBuffer b, String file, long base){
+            this.b = b; this.file = file; this.base = base;
+            end = b.limit();
+        }
+
+        // Skips blank, comment and (at the start of the file) header lines; false at the end of the chunk
+        boolean nextRecord(char idPrefix){
+            while (pos < end){
+                byte c = b.get(pos);
+                if (c == '\n' || c == '\r' || c == '#'
+                        || (base == 0 && pos == 0 && !startsWithId(idPrefix))){
+                    skipLine();
+                    continue;
+                }
+                record = pos;
+                lastField = false;
+                return true;
+            }
+            return false;
+        }
+
+        private boolean startsWithId(char prefix){
+            int p = pos;
+            while (p < end && b.get(p) == ' ') p++;
+            return p + 1 < end && (b.get(p) | 0x20) == (prefix | 0x20) && isDigit(b.get(p + 1));
+        }
+
+        private void skipLine(){
+            while (pos < end && b.get(pos) != '\n') pos++;
+            if (pos < end) pos++;
+        }
+
+        int id(char prefix){
+            startField();
+            if (pos >= end || (b.get(pos) | 0x20) != (prefix | 0x20)) throw error("expected a " + prefix + " id");
+            pos++;
+            long v = digits();
+            if (v == 0 || v > Integer.MAX_VALUE) throw error("bad " + prefix + " id");
+            endField();
+            return (int) v;
+        }
+
+        int integer(){
+            startField();
+            boolean negative = pos < end && b.get(pos) == '-';
+            if (negative) pos++;
+            long v = digits();
+            if (v > Integer.MAX_VALUE) throw error("number too large");
+            endField();
+            return negative ? (int) -v : (int) v;
+        }
+
+        // "12", "12.5", "12.50", "$4.20"; like Money.parse, more than two decimals is an error
+        long cents(){
+            startField();
+            if (pos < end && b.get(pos) == '$') pos++;
+            int start = pos;
+            long whole = pos < end && isDigit(b.get(pos)) ? digits() : 0;
+            long cents = 0;
+            int decimals = 0;
+            if (pos < end && b.get(pos) == '.'){
+                for (pos++; pos < end && isDigit(b.get(pos)); pos++, decimals++){
+                    if (decimals == 2) throw error("at most two decimals");
+                    cents = cents * 10 + (b.get(pos) - '0');
+                }
+            }
+            if (pos == start) throw error("expected an amount");
+            if (decimals == 1) cents *= 10;
+            endField();
+            return Math.addExact(Math.multiplyExact(whole, 100), cents);
+        }
+
+        String text(){
+            startField();
+            int n = 0;
+            boolean ascii = true;
+            if (pos < end && b.get(pos) == '"'){
+                pos++;
+                while (true){
+                    if (pos >= end || b.get(pos) == '\n') throw error("unterminated quote");
+                    byte c = b.get(pos++);
+                    if (c == '"'){
+                        if (pos < end && b.get(pos) == '"') pos++;
+                        else break;
+                    }
+                    if (n == text.length) text = Arrays.copyOf(text, n * 2);
+                    text[n++] = c;
+                    ascii &= c >= 0;
+                }
+            } else {
+                while (pos < end){
+                    byte c = b.get(pos);
+                    if (c == ',' || c == '\n' || c == '\r') break;
+                    if (n == text.length) text = Arrays.copyOf(text, n * 2);
+                    text[n++] = c;
+                    ascii &= c >= 0;
+                    pos++;
+                }
+                while (n > 0 && text[n - 1] == ' ') n--;
+            }
+            endField();
+            return new String(text, 0, n, ascii ? StandardCharsets.ISO_8859_1 : StandardCharsets.UTF_8);
+        }
+
+        void endRecord(){
+            if (!lastField) throw error("too many fields");
+            if (pos < end && b.get(pos) == '\r') pos++;
+            if (pos < end && b.get(pos) != '\n') throw error("too many fields");
+            if (pos < end) pos++;
+        }
+
+        private long digits(){
+            int start = pos;
+            long v = 0;
+            while (pos < end && isDigit(b.get(pos))){
+                v = v * 10 + (b.get(pos++) - '0');
+                if (v > Integer.MAX_VALUE * 100L) throw error("number too large");
+            }
+            if (pos == start) throw error("expected a number");
+            return v;
+        }
+
+        private void startField(){
+            if (lastField) throw error("missing fields");
+            skipSpaces();
+        }
+
+        // after a field: spaces, then a comma (consumed) or the end of the record (left in place)
+        private void endField(){
+            skipSpaces();
+            byte c = pos < end ? b.get(pos) : (byte) '\n';
+            if (c == ',') pos++;
+            else if (c == '\n' || c == '\r') lastField = true;
+            else throw error("unexpected '" + (char) c + "'");
+        }
+
+        private void skipSpaces(){
+            while (pos < end && b.get(pos) == ' ') pos++;
+        }
+
+        private static boolean isDigit(byte c){ return c >= '0' && c <= '9'; }
+
+        IllegalArgumentException error(String what){
+            return new IllegalArgumentException(file + ", record at byte " + (base + record) + ": " + what);
+        }
+    }
+
+    // ====================== BINARY ======================
+
+    private BulkStats binary(Path file) throws IOException {
+        long start = System.currentTimeMillis();
+        long[] counts = new long[3];
+        FileChannel ch = FileChannel.open(file, StandardOpenOption.READ);
+        openChannels.add(ch);
+        List<long[]> blocks = blocks(ch, file); // {kind, payload offset, payload bytes, records}
+        run(pool -> {
+            List<Future<Long>> clients = new ArrayList<>(), products = new ArrayList<>();
+            List<Future<int[]>> wishlists = new ArrayList<>();
+            for (long[] blk : blocks){
+                if (blk[0] == CLIENTS) clients.add(pool.submit(() -> clientBlock(read(ch, blk), file, blk[1])));
+                else if (blk[0] == PRODUCTS) products.add(pool.submit(() -> productBlock(read(ch, blk), file, blk[1])));
+            }
+            counts[0] = sum(clients);
+            counts[1] = sum(products);
+            for (long[] blk : blocks){
+                if (blk[0] == WISHLISTS) wishlists.add(pool.submit(() -> wishlistBlock(read(ch, blk), file, blk[1])));
+            }
+            counts[2] = applyWishlists(pool, wishlists);
+        });
+        return new BulkStats(counts[0], counts[1], counts[2], System.currentTimeMillis() - start);
+    }
+
+    // Walks the block headers only; the payloads are read by the tasks
+    private static List<long[]> blocks(FileChannel ch, Path file) throws IOException {
+        ByteBuffer head = ByteBuffer.allocate(9);
+        readFully(ch, head.limit(8), 0);
+        if (head.getInt(0) != BINARY_MAGIC) throw new IOException("Not a warehouse bulk file: " + file);
+        if (head.getInt(4) != BINARY_VERSION) throw new IOException("Unsupported bulk file version " + head.getInt(4));
+        List<long[]> blocks = new ArrayList<>();
+        long pos = 8, size = ch.size();
+        while (true){
+            if (pos >= size) throw new IOException(file + " is truncated at byte " + pos);
+            head.clear();
+            byte kind = readFully(ch, head.limit(1), pos).get(0);
+            if (kind == 0) return blocks;
+            head.clear();
+            readFully(ch, head.limit(8), pos + 1);
+            int records = head.getInt(0), bytes = head.getInt(4);
+            if (kind < CLIENTS || kind > WISHLISTS || records < 0 || bytes < 0 || pos + 9 + bytes > size){
+                throw new IOException(file + ": bad block at byte " + pos);
+            }
+            blocks.add(new long[]{ kind, pos + 9, bytes, records });
+            pos += 9 + bytes;
+        }
+    }
+
+    private static ByteBuffer readFully(FileChannel ch, ByteBuffer b, long pos) throws IOException {
+        while (b.hasRemaining()){
+            int n = ch.read(b, pos + b.position());
+            if (n < 0) throw new EOFException();
+        }
+        return b;
+    }
+
+    private ByteBuffer read(FileChannel ch, long[] blk) throws IOException {
+        ByteBuffer b = buffers.get();
+        if (b.capacity() < blk[2]){ b = ByteBuffer.allocate((int) blk[2]); buffers.set(b); }
+        b.clear().limit((int) blk[2]);
+        readFully(ch, b, blk[1]);
+        return b.flip();
+    }
+
+    private long clientBlock(ByteBuffer b, Path file, long offset){
+        List<Client> batch = new ArrayList<>(BATCH);
+        long n = 0;
+        while (b.hasRemaining()){
+            int index = b.getInt();
+            if (index <= 0) throw new IllegalArgumentException(file + ": bad client id C" + index + " in the block at byte " + offset);
+            batch.add(new Client(Ids.clientId(index), string(b), string(b)));
+            if (batch.size() == BATCH){ warehouse.registerClients(batch); n += batch.size(); batch.clear(); }
+        }
+        warehouse.registerClients(batch);
+        return n + batch.size();
+    }
+
+    private long productBlock(ByteBuffer b, Path file, long offset){
+        WaitlistPolicy policy = warehouse.getWaitlistPolicy();
+        List<Product> batch = new ArrayList<>(BATCH);
+        long n = 0;
+        while (b.hasRemaining()){
+            int index = b.getInt();
+            if (index <= 0) throw new IllegalArgumentException(file + ": bad product id P" + index + " in the block at byte " + offset);
+            String name = string(b);
+            int stock = b.getInt();
+            long price = b.getLong();
+            if (stock < 0 || price < 0) throw new IllegalArgumentException("Bad stock or price for P" + index);
+            batch.add(new Product(Ids.productId(index), name, stock, price, policy.create()));
+            if (batch.size() == BATCH){ warehouse.registerProducts(batch); n += batch.size(); batch.clear(); }
+        }
+        warehouse.registerProducts(batch);
+        return n + batch.size();
+    }
+
+    private int[] wishlistBlock(ByteBuffer b, Path file, long offset){
+        if (b.remaining() % 12 != 0) throw new IllegalArgumentException(file + ": bad wishlist block at byte " + offset);
+        int[] rows = new int[b.remaining() / 4];
+        b.asIntBuffer().get(rows);
+        for (int i = 0; i < rows.length; i += 3){
+            if (warehouse.client(rows[i]) == null || warehouse.product(rows[i + 1]) == null || rows[i + 2] <= 0){
+                throw new IllegalArgumentException(file + ": bad wishlist line C" + rows[i] + ",P" + rows[i + 1] + "," + rows[i + 2]
+                        + " in the block at byte " + offset);
+            }
+        }
+        return rows;
+    }
+
+    private static String string(ByteBuffer b){
+        int n = b.getShort() & 0xFFFF;
+        String s = new String(b.array(), b.arrayOffset() + b.position(), n, StandardCharsets.UTF_8);
+        b.position(b.position() + n);
+        return s;
+    }
+
+    // ====================== TASKS ======================
+
+    private interface Load { void run(ExecutorService pool) throws Exception; }
+
+    // Runs the load inside Warehouse.bulkLoad on a pool of `threads`, rethrowing what a task threw.
+    // The stripes are released only after every task has stopped, failed load or not.
+    private void run(Load load) throws IOException {
+        ExecutorService pool = Executors.newFixedThreadPool(threads, r -> {
+            Thread t = new Thread(r, "bulk-loader");
+            t.setDaemon(true);
+            return t;
+        });
+        try {
+            warehouse.bulkLoad(() -> {
+                try { load.run(pool); }
+                catch (RuntimeException e){ throw e; }
+                catch (IOException e){ throw new UncheckedIOException(e); }
+                catch (Exception e){ throw new IllegalStateException(e); }
+                finally {
+                    pool.shutdownNow();
+                    try { pool.awaitTermination(Long.MAX_VALUE, TimeUnit.NANOSECONDS); }
+                    catch (InterruptedException e){ Thread.currentThread().interrupt(); }
+                }
+            });
+        } catch (UncheckedIOException e){
+            throw e.getCause();
+        } finally {
+            for (FileChannel ch : openChannels) ch.close();
+            openChannels.clear();
+        }
+    }
+
+    private static long sum(List<Future<Long>> futures) throws Exception {
+        long n = 0;
+        for (Future<Long> f : futures) n += get(f);
+        return n;
+    }
+
+    private static <T> T get(Future<T> f) throws Exception {
+        try {
+            return f.get();
+        } catch (ExecutionException e){
+            Throwable cause = e.getCause();
+            if (cause instanceof Exception) throw (Exception) cause;
+            throw (Error) cause;
+        }
+    }
+}
@@ -0,0 +1,24 @@
+// Outcome of a BulkLoader load or a BulkExporter export
+public class BulkStats {
+    private final long clients;
+    private final long products;
+    private final long wishlistLines;
+    private final long millis;
+
+    public BulkStats(long clients, long products, long wishlistLines, long millis){
+        this.clients = clients; this.products = products;
+        this.wishlistLines = wishlistLines; this.millis = millis;
+    }
+
+    public long getClients(){ return clients; }
+    public long getProducts(){ return products; }
+    public long getWishlistLines(){ return wishlistLines; }
+    public long getMillis(){ return millis; }
+    public long getRows(){ return clients + products + wishlistLines; }
+
+    @Override
+    public String toString(){
+        return clients + " clients | " + products + " products | " + wishlistLines + " wishlist lines | " +
+               millis + " ms" + (millis > 0 ? " | " + getRows() * 1000 / millis + " rows/s" : "");
+    }
+}
@@ -1,3 +1,5 @@
+import java.util.List;
+
 public class ClerkMenuState implements WarehouseState {
   private final WarehouseContext ctx;
 
@@ -8,15 +10,15 @@ public class ClerkMenuState implements WarehouseState {
   @Override
   public void run() {
     while (ctx.getCurrentStateIndex() == WarehouseContext.CLERK_STATE) {
-      System.out.println();
-      System.out.println("== Clerk Menu ==");
-      System.out.println("1) Add client");
-      System.out.println("2) Show list of products (qty + price)");
-      System.out.println("3) Show list of clients");
-      System.out.println("4) Show list of clients with outstanding balance");
-      System.out.println("5) Record payment");
-      System.out.println("6) Become client");
-      System.out.println("0) Logout");
+      ctx.out().println();
+      ctx.out().println("== Clerk Menu ==");
+      ctx.out().println("1) Add client");
+      ctx.out().println("2) Show list of products (qty + price)");
+      ctx.out().println("3) Show list of clients");
+      ctx.out().println("4) Show list of clients with outstanding balance");
+      ctx.out().println("5) Record payment");
+      ctx.out().println("6) Become client");
+      ctx.out().println("0) Logout");
 
       int choice = ctx.promptInt("> ");
       switch (choice) {
@@ -27,7 +29,7 @@ public class ClerkMenuState implements WarehouseState {
         case 4: showClients(true); break;
         case 5: recordPayment(); break;
         case 6: becomeClient(); break;
-        default: System.out.println("Invalid option.");
+        default: ctx.out().println("Invalid option.");
       }
     }
   }
@@ -37,44 +39,52 @@ public class ClerkMenuState implements WarehouseState {
     String addr = ctx.promptLine("Address: ");
     try {
       String id = ctx.warehouse().addClient(name, addr);
-      System.out.println("Added: " + id);
+      ctx.out().println("Added: " + id);
     } catch (Exception e) {
-      System.out.println("Failed to add client: " + e.getMessage());
+      ctx.out().println("Failed to add client: " + e.getMessage());
     }
   }
 
   private void showProducts() {
-    System.out.println("== All products ==");
+    ctx.out().println("== All products ==");
     for (Product p : ctx.warehouse().getAllProducts()) {
-      System.out.println(p); // rely on Product.toString()
+      ctx.out().println(p); // rely on Product.toString()
     }
   }
 
   private void showClients(boolean onlyWithBalance) {
-    System.out.println("== All clients ==");
-    for (Client c : ctx.warehouse().getAllClients()) {
-      if (!onlyWithBalance || c.getBalance() > 0.0) System.out.println(c);
+    if (onlyWithBalance) { showDebtors(); return; }
+    ctx.out().println("== All clients ==");
+    for (Client c : ctx.warehouse().getAllClients()) ctx.out().println(c);
+  }
+
+  // Debtors come from the balance index, largest balance first, a page at a time
+  private void showDebtors() {
+    Warehouse w = ctx.warehouse();
+    ctx.out().println("== Clients with balance (" + w.getDebtorCount() + ", total $" + Money.format(w.getTotalReceivablesCents()) + ") ==");
+    final int page = 50;
+    for (int offset = 0; ; offset += page) {
+      List<Client> rows = w.getClientsWithBalance(0.0, offset, page);
+      for (Client c : rows) ctx.out().println(c);
+      if (rows.size() < page) return;
+      if (!ctx.promptLine("More? (y/n): ").equalsIgnoreCase("y")) return;
     }
   }
 
   private void recordPayment() {
     String cid = ctx.promptLine("Client ID: ");
-    double amt = ctx.promptDouble("Amount: ");
+    long amt = ctx.promptMoney("Amount: ");
     try {
-      ctx.warehouse().recordPayment(cid, amt);
-      System.out.println("Payment recorded");
+      ctx.warehouse().recordPaymentCents(cid, amt);
+      ctx.out().println("Payment recorded");
     } catch (Exception e) {
-      System.out.println("Payment failed: " + e.getMessage());
+      ctx.out().println("Payment failed: " + e.getMessage());
     }
   }
 
   private void becomeClient() {
-    String cid = ctx.promptLine("Client ID to become: ");
-    boolean valid = false;
-    for (Client c : ctx.warehouse().getAllClients()) {
-      if (c.getId().equalsIgnoreCase(cid)) { valid = true; break; }
-    }
-    if (!valid) { System.out.println("Invalid client ID."); return; }
+    String cid = ctx.warehouse().resolveClientId(ctx.promptLine("Client ID to become: "));
+    if (cid == null) { ctx.out().println("Invalid client ID."); return; }
     ctx.setCurrentClient(cid);
     ctx.setPreviousState(WarehouseContext.CLERK_STATE);
     int ns = ctx.getNextState(WarehouseContext.CLERK_STATE, WarehouseContext.CMD_CLIENT);
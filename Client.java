@@ -1,54 +1,89 @@
-import java.util.*;
-
 public class Client {
     private final String id;
+    private final int index; // numeric part of id, the key in ClientList
     private String name;
     private String address;
+    private volatile int tier; // waitlist priority under WaitlistPolicy.PRIORITY; higher is served first
 
-    // Wishlist keyed by productId
-    private final Map<String, WishlistItem> wishlist = new LinkedHashMap<>();
+    // Wishlist: product index -> quantity, in the order the lines were added
+    private final WishlistMap wishlist = new WishlistMap();
+    // product index -> units set aside for this client by open reservations; null while there are none
+    private WishlistMap reserved;
 
     // Full version: balance & transactions
-    private double balance = 0.0;
-    private final List<Transaction> transactions = new ArrayList<>();
+    // mutated under the client's stripe lock in Warehouse; balance is volatile for lock-free readers
+    private volatile long balance = 0; // cents
+    // transactions live in the Warehouse's TransactionLedger; this is the newest record of the chain,
+    // whose skip links find any older one (TransactionLedger.seek)
+    private long lastTransaction = -1;
+    private int transactionCount = 0;
+    // running totals behind statements; created with the first invoice
+    private ClientStats stats;
+    // Warehouse-wide index of debtors, told about every balance change
+    private BalanceIndex balances;
 
     public Client(String id, String name, String address) {
         this.id = id; this.name = name; this.address = address;
+        this.index = Ids.clientIndex(id);
     }
 
     public String getId(){ return id; }
+    public int getIndex(){ return index; }
     public String getName(){ return name; }
     public String getAddress(){ return address; }
+    public int getTier(){ return tier; }
+    void setTier(int t){ tier = t; }
 
     // Wishlist operations
-    public void addOrUpdateWishlistItem(String productId, int qty){
-        if(qty <= 0) { wishlist.remove(productId); return; }
-        WishlistItem item = wishlist.get(productId);
-        if(item == null) wishlist.put(productId, new WishlistItem(productId, qty));
-        else item.setQuantity(qty);
-    }
-    public Collection<WishlistItem> getWishlist(){
-        return Collections.unmodifiableCollection(wishlist.values());
-    }
-    public void clearZeroQtyWishlist() {
-        wishlist.values().removeIf(wi -> wi.getQuantity() <= 0);
+    public void addOrUpdateWishlistItem(int product, int qty){ wishlist.put(product, qty); }
+    // read under the client's stripe lock; changes go through addOrUpdateWishlistItem
+    public WishlistMap getWishlist(){ return wishlist; }
+
+    // Units of a wishlist line already held by reservations; orders and further reservations only
+    // take what is left of the line. Guarded like the wishlist.
+    public int getReserved(int product){ return reserved == null ? 0 : reserved.get(product); }
+    void addReserved(int product, int delta){
+        if (reserved == null) reserved = new WishlistMap();
+        reserved.put(product, reserved.get(product) + delta);
     }
 
     // Full version accounting
-    public void addCharge(double amount) { balance += amount; }
-    public void applyPayment(double amount) { balance -= amount; }
-    public double getBalance() { return balance; }
+    public void addCharge(long cents) { setBalance(Money.add(balance, cents)); }
+    public void applyPayment(long cents) { setBalance(Money.add(balance, -cents)); }
+    public long getBalanceCents() { return balance; }
+    public double getBalance() { return Money.toDouble(balance); }
 
-    public void addTransaction(Transaction t) {
-        transactions.add(t);
-        addCharge(t.getTotal());
+    private void setBalance(long b) {
+        long old = balance;
+        balance = b;
+        if (balances != null) balances.update(index, old, b);
     }
-    public List<Transaction> getTransactions(){
-        return Collections.unmodifiableList(transactions);
+    void trackBalance(BalanceIndex index) {
+        balances = index;
+        if (index != null) index.update(this.index, 0, balance);
+    }
+
+    // ledger record just appended for this client, and the amount it charges
+    void recordTransaction(long record, int product, int qty, long totalCents, long time) {
+        restoreTransaction(record, product, qty, totalCents, time);
+        addCharge(totalCents);
+    }
+    public long getLastTransaction(){ return lastTransaction; }
+    public int getTransactionCount(){ return transactionCount; }
+    // null until the first invoice
+    ClientStats getStats(){ return stats; }
+
+    // Restore helpers for snapshot loading: no charges are applied
+    void restoreBalance(long cents) { setBalance(cents); }
+    void restoreTransaction(long record, int product, int qty, long totalCents, long time) {
+        lastTransaction = record;
+        transactionCount++;
+        if (stats == null) stats = new ClientStats();
+        stats.add(product, qty, totalCents, time);
     }
 
     @Override
     public String toString(){
-        return id + " | " + name + " | " + address + " | Balance:$" + String.format("%.2f", balance);
+        return id + " | " + name + " | " + address + " | Balance:$" + Money.format(balance);
     }
 }
@@ -1,8 +1,24 @@
 import java.util.*;
 
 public class ClientList {
-    private final Map<String, Client> clients = new LinkedHashMap<>();
-    public void addClient(Client c){ clients.put(c.getId(), c); }
-    public Client findClient(String id){ return clients.get(id); }
-    public Collection<Client> getAllClients(){ return Collections.unmodifiableCollection(clients.values()); }
+    // dense registry indexed by the client number ("C12" -> 12)
+    private final DenseRegistry<Client> clients;
+    public ClientList(){ this(1, 0); }
+    // a shard's list, holding only the numbers with number % shards == shard
+    ClientList(int shards, int shard){ clients = new DenseRegistry<>(shards, shard); }
+    public void addClient(Client c){ clients.add(c.getIndex(), c); }
+    // -1, or the position of the first client whose id was already taken (see DenseRegistry.addAll)
+    public int addClients(List<Client> batch){ return clients.addAll(batch, Client::getIndex); }
+    // ids with leading zeros do not parse, so "C012" finds nothing rather than C12
+    public Client findClient(String id){ return clients.get(Ids.clientIndex(id)); }
+    public Client findClient(int index){ return clients.get(index); }
+    // The id's number is the registry slot, so this is one parse and an array read at any size.
+    // Matches exactly what equalsIgnoreCase would: "c12" finds C12, "C012" finds nothing.
+    public Client findClientIgnoreCase(String id){
+        Client c = clients.get(Ids.clientIndexIgnoreCase(id));
+        return c != null && c.getId().equalsIgnoreCase(id) ? c : null;
+    }
+    public int size(){ return clients.size(); }
+    public int upperBound(){ return clients.upperBound(); }
+    public Collection<Client> getAllClients(){ return clients.values(); }
 }
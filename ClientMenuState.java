@@ -6,6 +6,8 @@ import java.util.List; // import List to handle collections
 // ClientMenuState converted to a simple GUI that delegates wishlist operations
 public class ClientMenuState implements WarehouseState {
   private final WarehouseContext ctx; // reference to shared application context
+  private static final int STATEMENT_MONTHS = 3; // months shown by "Show transactions"
+  private static final int STATEMENT_LATEST = 5; // latest transactions shown after them
 
   // constructor receives and stores the shared context
   public ClientMenuState(WarehouseContext ctx) { this.ctx = ctx; }
@@ -17,9 +19,7 @@ public class ClientMenuState implements WarehouseState {
     SwingUtilities.invokeLater(() -> showGui()); // schedule GUI construction on EDT
 
     // keep the state active until context state changes away from CLIENT_STATE
-    while (ctx.getCurrentStateIndex() == WarehouseContext.CLIENT_STATE) {
-      try { Thread.sleep(200); } catch (InterruptedException e) { break; } // small sleep to avoid busy loop
-    }
+    ctx.awaitLeaving(WarehouseContext.CLIENT_STATE); // blocks until the context signals a transition
   }
 
   // build and show the client menu GUI
@@ -67,21 +67,24 @@ public class ClientMenuState implements WarehouseState {
     switch (choice) {
       case 0: // show client details
         if (cid == null) { status.setText("No active client."); return; } // require client
-        for (Client c : ctx.warehouse().getAllClients()) if (c.getId().equalsIgnoreCase(cid)) { status.setText(c.toString()); return; } // display client
-        status.setText("Client not found."); // not found
+        Client c = ctx.warehouse().findClient(cid); // indexed lookup
+        status.setText(c != null ? c.toString() : "Client not found."); // display client or not found
         break;
       case 1: // show products list
         StringBuilder sb = new StringBuilder(); // build a display string
         for (Product p : ctx.warehouse().getAllProducts()) sb.append(p.toString()).append(" | "); // append products
         status.setText(sb.length() == 0 ? "(no products)" : sb.toString()); // set status with products
         break;
-      case 2: // show transactions
+      case 2: // show statement: totals, recent months and latest transactions
         if (cid == null) { status.setText("No active client."); return; } // require client
         try {
-          List<Transaction> txs = ctx.warehouse().getTransactionsForClient(cid); // fetch transactions
-          StringBuilder s = new StringBuilder(); // builder for transactions
-          for (Transaction t : txs) s.append(t.toString()).append(" | "); // append each
-          status.setText(s.length() == 0 ? "(no transactions)" : s.toString()); // display
+          ClientStatement st = ctx.warehouse().getStatement(cid, StatementGrouping.MONTH, 0, STATEMENT_MONTHS); // bounded summary
+          if (st.getInvoiceCount() == 0) { status.setText("(no transactions)"); return; } // nothing bought yet
+          StringBuilder s = new StringBuilder(st.toString()); // lifetime totals
+          for (int i = 0; i < st.size(); i++) s.append(" | ").append(st.getRow(i)); // one entry per month
+          List<Transaction> txs = ctx.warehouse().getTransactionsForClient(cid, 0, STATEMENT_LATEST); // newest page only
+          for (Transaction t : txs) s.append(" | ").append(t.toString()); // append each
+          status.setText(s.toString()); // display
         } catch (Exception e) { status.setText("Failed: " + e.getMessage()); } // show error
         break;
       case 3: // wishlist operations
@@ -0,0 +1,73 @@
+import java.time.LocalDate;
+
+// One page of a client's statement: lifetime totals plus rows grouped by day, month or product.
+// Built from ClientStats, so its cost depends on the number of rows, not of invoices.
+public class ClientStatement {
+    private final String clientId;
+    private final StatementGrouping grouping;
+    private final long spentCents;
+    private final long units;
+    private final int invoiceCount;
+    private final long balanceCents;
+    private final int rowCount;   // rows across all pages
+    private final int offset;
+
+    private final int size;
+    private final int[] keys;     // epoch day, year * 12 + month - 1, or product index
+    private final String[] names; // product names for PRODUCT rows
+    private final int[] invoices;
+    private final long[] rowUnits;
+    private final long[] rowCents;
+
+    ClientStatement(String clientId, StatementGrouping grouping, long spentCents, long units, int invoiceCount,
+                    long balanceCents, int rowCount, int offset, int size, int[] keys, String[] names,
+                    int[] invoices, long[] rowUnits, long[] rowCents){
+        this.clientId = clientId; this.grouping = grouping;
+        this.spentCents = spentCents; this.units = units; this.invoiceCount = invoiceCount;
+        this.balanceCents = balanceCents; this.rowCount = rowCount; this.offset = offset;
+        this.size = size; this.keys = keys; this.names = names;
+        this.invoices = invoices; this.rowUnits = rowUnits; this.rowCents = rowCents;
+    }
+
+    public String getClientId(){ return clientId; }
+    public StatementGrouping getGrouping(){ return grouping; }
+    public long getSpentCents(){ return spentCents; }
+    public long getUnits(){ return units; }
+    public int getInvoiceCount(){ return invoiceCount; }
+    public long getBalanceCents(){ return balanceCents; }
+    public int getRowCount(){ return rowCount; }
+    public int getOffset(){ return offset; }
+    public boolean hasMore(){ return offset + size < rowCount; }
+
+    // rows on this page
+    public int size(){ return size; }
+    public int getInvoices(int i){ return invoices[i]; }
+    public long getUnits(int i){ return rowUnits[i]; }
+    public long getCents(int i){ return rowCents[i]; }
+
+    // "2026-10-18", "2026-10" or "P12 widget"
+    public String getLabel(int i){
+        switch (grouping){
+            case DAY: return LocalDate.ofEpochDay(keys[i]).toString();
+            case MONTH: {
+                int m = keys[i] % 12 + 1;
+                return (keys[i] / 12) + (m < 10 ? "-0" : "-") + m;
+            }
+            default: return Ids.productId(keys[i]) + (names[i] == null ? "" : " " + names[i]);
+        }
+    }
+
+    public String getRow(int i){
+        StringBuilder sb = new StringBuilder(64).append(getLabel(i)).append(" | ").append(invoices[i])
+                .append(" invoices | ").append(rowUnits[i]).append(" units | $");
+        return Money.appendTo(sb, rowCents[i]).toString();
+    }
+
+    @Override
+    public String toString(){
+        StringBuilder sb = new StringBuilder(64).append(clientId).append(" | spent $");
+        Money.appendTo(sb, spentCents).append(" on ").append(invoiceCount).append(" invoices (")
+                .append(units).append(" units) | balance $");
+        return Money.appendTo(sb, balanceCents).toString();
+    }
+}
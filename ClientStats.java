@@ -0,0 +1,133 @@
+import java.time.LocalDate;
+import java.util.Arrays;
+
+// Running totals of one client's invoices, updated as each invoice is recorded so statements
+// never have to walk the ledger. Guarded by the client's stripe lock in Warehouse.
+public class ClientStats {
+    private long spentCents;
+    private long units;
+
+    private final Buckets products = new Buckets(); // keyed by product index, in order of first purchase
+    private final Buckets days = new Buckets();     // keyed by epoch day, kept sorted
+    private final Buckets months = new Buckets();   // keyed by year * 12 + month - 1, kept sorted
+    private final IntIntMap productSlot = new IntIntMap(8, -1);
+
+    // the month of the last day seen, so LocalDate is only consulted when the day changes
+    private int lastDay = Integer.MIN_VALUE;
+    private int lastMonth;
+
+    void add(int product, int qty, long totalCents, long time){
+        spentCents = Money.add(spentCents, totalCents);
+        units += qty;
+
+        int slot = productSlot.get(product);
+        if (slot < 0){
+            slot = products.append(product);
+            productSlot.put(product, slot);
+        }
+        products.add(slot, qty, totalCents);
+
+        int day = (int) Math.floorDiv(time, 86_400_000L);
+        if (day != lastDay){
+            LocalDate d = LocalDate.ofEpochDay(day);
+            lastDay = day;
+            lastMonth = d.getYear() * 12 + d.getMonthValue() - 1;
+        }
+        days.add(days.sortedSlot(day), qty, totalCents);
+        months.add(months.sortedSlot(lastMonth), qty, totalCents);
+    }
+
+    public long getSpentCents(){ return spentCents; }
+    public long getUnits(){ return units; }
+    public int getProductCount(){ return products.size; }
+
+    int count(StatementGrouping by){ return buckets(by).size; }
+
+    // Copies rows [offset, offset + limit) of the grouping into the statement's columns.
+    // Periods are read newest first straight from their sorted arrays; products are ranked by
+    // spend, which costs a sort over the products this client has bought.
+    int page(StatementGrouping by, int offset, int limit, int[] key, long[] qty, long[] cents, int[] invoices){
+        Buckets b = buckets(by);
+        int n = Math.max(0, Math.min(limit, b.size - offset));
+        int[] order = by == StatementGrouping.PRODUCT && n > 0 ? bySpend(b.cents, b.size) : null;
+        for (int i = 0; i < n; i++){
+            int s = order != null ? order[offset + i] : b.size - 1 - offset - i;
+            key[i] = b.keys[s];
+            qty[i] = b.units[s];
+            cents[i] = b.cents[s];
+            invoices[i] = b.invoices[s];
+        }
+        return n;
+    }
+
+    private Buckets buckets(StatementGrouping by){
+        switch (by){
+            case DAY: return days;
+            case MONTH: return months;
+            default: return products;
+        }
+    }
+
+    // Parallel columns of (key, invoices, units, spend)
+    private static final class Buckets {
+        int[] keys = new int[4];
+        int[] invoices = new int[4];
+        long[] units = new long[4];
+        long[] cents = new long[4];
+        int size;
+
+        int append(int key){ return insert(size, key); }
+
+        // slot of key in ascending key order, inserting it if new; appending is the common case
+        int sortedSlot(int key){
+            if (size > 0 && keys[size - 1] == key) return size - 1;
+            if (size == 0 || keys[size - 1] < key) return insert(size, key);
+            int at = Arrays.binarySearch(keys, 0, size, key);
+            return at >= 0 ? at : insert(-at - 1, key);
+        }
+
+        void add(int slot, int qty, long totalCents){
+            invoices[slot]++;
+            units[slot] += qty;
+            cents[slot] = Money.add(cents[slot], totalCents);
+        }
+
+        private int insert(int at, int key){
+            if (size == keys.length){
+                int n = size * 2;
+                keys = Arrays.copyOf(keys, n);
+                invoices = Arrays.copyOf(invoices, n);
+                units = Arrays.copyOf(units, n);
+                cents = Arrays.copyOf(cents, n);
+            }
+            int move = size - at;
+            System.arraycopy(keys, at, keys, at + 1, move);
+            System.arraycopy(invoices, at, invoices, at + 1, move);
+            System.arraycopy(units, at, units, at + 1, move);
+            System.arraycopy(cents, at, cents, at + 1, move);
+            keys[at] = key;
+            invoices[at] = 0;
+            units[at] = 0;
+            cents[at] = 0;
+            size++;
+            return at;
+        }
+    }
+
+    // Slots 0..n-1 by spend descending; a stable merge sort, so ties keep first-purchase order
+    private static int[] bySpend(long[] cents, int n){
+        int[] a = new int[n], tmp = new int[n];
+        for (int i = 0; i < n; i++) a[i] = i;
+        for (int width = 1; width < n; width <<= 1){
+            for (int lo = 0; lo < n - width; lo += width << 1){
+                int mid = lo + width, hi = Math.min(lo + (width << 1), n);
+                System.arraycopy(a, lo, tmp, lo, hi - lo);
+                int i = lo, j = mid, k = lo;
+                while (i < mid && j < hi) a[k++] = cents[tmp[j]] > cents[tmp[i]] ? tmp[j++] : tmp[i++];
+                while (i < mid) a[k++] = tmp[i++];
+                while (j < hi) a[k++] = tmp[j++];
+            }
+        }
+        return a;
+    }
+}
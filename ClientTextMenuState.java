@@ -0,0 +1,123 @@
+import java.util.List;
+
+// Text client menu for headless sessions; wishlist operations are part of this menu
+public class ClientTextMenuState implements WarehouseState {
+  private static final int STATEMENT_PAGE = 12;
+  private final WarehouseContext ctx;
+
+  public ClientTextMenuState(WarehouseContext ctx) { this.ctx = ctx; }
+
+  @Override public String getName() { return "ClientTextMenuState"; }
+
+  @Override
+  public void run() {
+    while (ctx.getCurrentStateIndex() == WarehouseContext.CLIENT_STATE) {
+      ctx.out().println();
+      ctx.out().println("== Client Menu (" + ctx.getCurrentClient() + ") ==");
+      ctx.out().println("1) Show client details");
+      ctx.out().println("2) Show list of products (qty + price)");
+      ctx.out().println("3) Show transactions");
+      ctx.out().println("4) Show wishlist");
+      ctx.out().println("5) Add/update wishlist item (qty 0 removes)");
+      ctx.out().println("6) Place order (buy wishlist)");
+      ctx.out().println("7) Show statement");
+      ctx.out().println("0) Logout");
+
+      int choice = ctx.promptInt("> ");
+      switch (choice) {
+        case 0: ctx.logout(); break;
+        case 1: showDetails(); break;
+        case 2: showProducts(); break;
+        case 3: showTransactions(); break;
+        case 4: showWishlist(); break;
+        case 5: updateWishlist(); break;
+        case 6: placeOrder(); break;
+        case 7: showStatement(); break;
+        default: ctx.out().println("Invalid option.");
+      }
+    }
+  }
+
+  private void showDetails() {
+    Client c = ctx.warehouse().findClient(ctx.getCurrentClient());
+    ctx.out().println(c != null ? c : "Client not found.");
+  }
+
+  private void showProducts() {
+    ctx.out().println("== All products ==");
+    for (Product p : ctx.warehouse().getAllProducts()) ctx.out().println(p);
+  }
+
+  private void showTransactions() {
+    try {
+      List<Transaction> txs = ctx.warehouse().getTransactionsForClient(ctx.getCurrentClient(), 0, 20);
+      if (txs.isEmpty()) { ctx.out().println("(no transactions)"); return; }
+      ctx.out().println("== Latest transactions ==");
+      for (Transaction t : txs) ctx.out().println(t);
+    } catch (Exception e) {
+      ctx.out().println("Failed: " + e.getMessage());
+    }
+  }
+
+  // totals per month, newest first, then the biggest products; each paged STATEMENT_PAGE rows at a time
+  private void showStatement() {
+    try {
+      ClientStatement st = ctx.warehouse().getStatement(ctx.getCurrentClient(), StatementGrouping.MONTH, 0, STATEMENT_PAGE);
+      ctx.out().println(st);
+      if (st.getInvoiceCount() == 0) return;
+      printRows("By month", st, StatementGrouping.MONTH);
+      printRows("By product", ctx.warehouse().getStatement(ctx.getCurrentClient(), StatementGrouping.PRODUCT, 0, STATEMENT_PAGE), StatementGrouping.PRODUCT);
+    } catch (Exception e) {
+      ctx.out().println("Failed: " + e.getMessage());
+    }
+  }
+
+  private void printRows(String title, ClientStatement st, StatementGrouping by) {
+    ctx.out().println("== " + title + " ==");
+    while (true) {
+      for (int i = 0; i < st.size(); i++) ctx.out().println(st.getRow(i));
+      if (!st.hasMore()) return;
+      if (!ctx.promptLine("More? (y/n): ").equalsIgnoreCase("y")) return;
+      st = ctx.warehouse().getStatement(ctx.getCurrentClient(), by, st.getOffset() + st.size(), STATEMENT_PAGE);
+    }
+  }
+
+  private void showWishlist() {
+    try {
+      WishlistMap lines = new WishlistMap();
+      ctx.warehouse().copyWishlist(ctx.getCurrentClient(), lines);
+      if (lines.isEmpty()) { ctx.out().println("(empty)"); return; }
+      for (int i = 0; i < lines.size(); i++) {
+        Product p = ctx.warehouse().product(lines.product(i));
+        ctx.out().print('P');
+        ctx.out().print(lines.product(i));
+        ctx.out().print(" | ");
+        ctx.out().print(p == null ? "(unknown)" : p.getName());
+        ctx.out().print(" | qty=");
+        ctx.out().println(lines.quantity(i));
+      }
+    } catch (Exception e) {
+      ctx.out().println("Failed: " + e.getMessage());
+    }
+  }
+
+  private void updateWishlist() {
+    String pid = ctx.promptLine("Product ID: ").toUpperCase();
+    int qty = ctx.promptInt("Quantity: ");
+    try {
+      ctx.warehouse().addOrUpdateWishlistItem(ctx.getCurrentClient(), pid, qty);
+      ctx.out().println(qty <= 0 ? "Removed " + pid : "Added/Updated " + pid + " x" + qty);
+    } catch (Exception e) {
+      ctx.out().println("Failed: " + e.getMessage());
+    }
+  }
+
+  private void placeOrder() {
+    try {
+      ctx.warehouse().placeOrder(ctx.getCurrentClient());
+      ctx.out().println("Order placed for " + ctx.getCurrentClient());
+    } catch (Exception e) {
+      ctx.out().println("Failed: " + e.getMessage());
+    }
+  }
+}
@@ -0,0 +1,119 @@
+import java.util.*;
+import java.util.function.ToIntFunction;
+
+// Array-backed registry for entities numbered 1, 2, 3, ... (the numeric part of their ids).
+// Lookups are a bounds check plus an array read; iteration follows the numbering.
+// Writers are serialized; readers never lock.
+// The array is as long as the highest index, and ids come from input files too, so the numbering
+// has to stay dense: an index may be at most FREE_INDICES plus four times the number of entries
+// ("C2000000000" must not allocate gigabytes). Bulk loads register chunks out of order, which
+// is why this is not measured from the highest index in use.
+// A shard of a ShardedWarehouse holds every stride-th index (those with index % stride == residue)
+// and keeps index / stride as the slot, so its array stays as dense as its own share of entries.
+public class DenseRegistry<T> {
+    static final int FREE_INDICES = 1 << 24;
+    private static final int MAX_INDEX = Integer.MAX_VALUE - 16; // largest array the VM allows, less one
+
+    private final int stride, residue;
+    private volatile Object[] slots = new Object[64];
+    private volatile int size;
+    private volatile int upper; // one past the highest index in use
+
+    public DenseRegistry(){ this(1, 0); }
+
+    public DenseRegistry(int stride, int residue){
+        if (stride <= 0 || residue < 0 || residue >= stride) throw new IllegalArgumentException("Bad stride " + stride + "/" + residue);
+        this.stride = stride;
+        this.residue = residue;
+    }
+
+    public synchronized boolean add(int index, T value){
+        checkIndex(index, 1);
+        int slot = index / stride;
+        Object[] s = grow(slot);
+        if (s[slot] != null) return false;
+        s[slot] = value;
+        size++;
+        if (index >= upper) upper = index + 1;
+        slots = s; // volatile write publishes the new element
+        return true;
+    }
+
+    // Adds a batch under one monitor; stops at the first taken slot and returns its position in
+    // values (the values before it stay added), or -1 once all of them are in. A bad index
+    // anywhere in the batch throws before anything is added.
+    public synchronized int addAll(List<T> values, ToIntFunction<T> indexOf){
+        int max = 0;
+        for (T v : values){
+            int index = indexOf.applyAsInt(v);
+            checkIndex(index, values.size());
+            max = Math.max(max, index / stride);
+        }
+        Object[] s = grow(max);
+        int failed = -1;
+        for (int i = 0; i < values.size(); i++){
+            T v = values.get(i);
+            int index = indexOf.applyAsInt(v);
+            if (s[index / stride] != null){ failed = i; break; }
+            s[index / stride] = v;
+            size++;
+            if (index >= upper) upper = index + 1;
+        }
+        slots = s;
+        return failed;
+    }
+
+    // n entries are about to be added, index among them; density is measured in slots
+    private void checkIndex(int index, int n){
+        if (index <= 0 || index > MAX_INDEX) throw new IllegalArgumentException("Bad index: " + index);
+        if (index % stride != residue) throw new IllegalArgumentException("Index " + index + " does not belong here (" + residue + " mod " + stride + ")");
+        if (index / stride >= FREE_INDICES + 4L * (size + n)){
+            throw new IllegalArgumentException("Index " + index + " is too sparse for " + (size + n) + " entries");
+        }
+    }
+
+    // the current array, or a longer copy (not yet published) that has room for slot
+    private Object[] grow(int slot){
+        Object[] s = slots;
+        if (slot < s.length) return s;
+        return Arrays.copyOf(s, (int) Math.min(MAX_INDEX + 1L, Math.max(s.length * 2L, slot + 1L)));
+    }
+
+    @SuppressWarnings("unchecked")
+    public T get(int index){
+        if (index <= 0 || index % stride != residue) return null;
+        Object[] s = slots;
+        int slot = index / stride;
+        return slot < s.length ? (T) s[slot] : null;
+    }
+
+    public int size(){ return size; }
+    public int upperBound(){ return upper; }
+
+    // Live, read-only view in index order
+    public Collection<T> values(){
+        return new AbstractCollection<T>(){
+            @Override public int size(){ return size; }
+            @Override public Iterator<T> iterator(){
+                return new Iterator<T>(){
+                    final Object[] s = slots;
+                    final int end = Math.min(upper == 0 ? 0 : (upper - 1) / stride + 1, s.length);
+                    int next = advance(0); // slot 0 is only ever filled when residue > 0
+
+                    int advance(int i){
+                        while (i < end && s[i] == null) i++;
+                        return i;
+                    }
+                    @Override public boolean hasNext(){ return next < end; }
+                    @SuppressWarnings("unchecked")
+                    @Override public T next(){
+                        if (next >= end) throw new NoSuchElementException();
+                        T v = (T) s[next];
+                        next = advance(next + 1);
+                        return v;
+                    }
+                };
+            }
+        };
+    }
+}
@@ -0,0 +1,54 @@
+import java.util.Arrays;
+
+// A run of events in parallel primitive arrays; read it with the index accessors.
+// Batches are pooled and reused: a listener must not keep one after onEvents returns.
+// Ids are numeric (client and product indexes); 0 means the field does not apply.
+public class EventBatch {
+    private byte[] types = new byte[32];
+    private int[] products = new int[32];
+    private int[] clients = new int[32];
+    private int[] quantities = new int[32];
+    private long[] values = new long[32];
+    private int size;
+
+    public int size(){ return size; }
+    public EventType type(int i){ return EventType.of(types[i]); }
+    public int product(int i){ return products[i]; }
+    public int client(int i){ return clients[i]; }
+    public int quantity(int i){ return quantities[i]; }
+    public long value(int i){ return values[i]; }
+
+    void add(EventType type, int product, int client, int quantity, long value){
+        if (size == types.length) grow();
+        types[size] = (byte) type.ordinal();
+        products[size] = product;
+        clients[size] = client;
+        quantities[size] = quantity;
+        values[size] = value;
+        size++;
+    }
+
+    void addFrom(EventBatch b, int i){
+        if (size == types.length) grow();
+        types[size] = b.types[i];
+        products[size] = b.products[i];
+        clients[size] = b.clients[i];
+        quantities[size] = b.quantities[i];
+        values[size] = b.values[i];
+        size++;
+    }
+
+    void addAll(EventBatch b){ for (int i = 0; i < b.size; i++) addFrom(b, i); }
+
+    int typeBit(int i){ return 1 << types[i]; }
+    void clear(){ size = 0; }
+
+    private void grow(){
+        int n = types.length * 2;
+        types = Arrays.copyOf(types, n);
+        products = Arrays.copyOf(products, n);
+        clients = Arrays.copyOf(clients, n);
+        quantities = Arrays.copyOf(quantities, n);
+        values = Arrays.copyOf(values, n);
+    }
+}
@@ -0,0 +1,21 @@
+// Kinds of change reported by WarehouseEvents. The meaning of each event's fields:
+//   STOCK_CHANGED        product, value = new stock level
+//   WAITLIST_CHANGED     product, value = units now waiting
+//   TRANSACTION_CREATED  client, product, quantity, value = invoice number
+//   BALANCE_CHANGED      client, value = new balance in cents
+//   WISHLIST_CHANGED     client, product, value = new quantity (0 = removed)
+public enum EventType {
+    STOCK_CHANGED, WAITLIST_CHANGED, TRANSACTION_CREATED, BALANCE_CHANGED, WISHLIST_CHANGED;
+
+    private static final EventType[] VALUES = values();
+
+    int bit(){ return 1 << ordinal(); }
+    static EventType of(int ordinal){ return VALUES[ordinal]; }
+
+    static int mask(EventType... types){
+        if (types.length == 0) return -1; // no types given: everything
+        int m = 0;
+        for (EventType t : types) m |= t.bit();
+        return m;
+    }
+}
@@ -0,0 +1,23 @@
+import java.util.Arrays;
+
+// (client, quantity) pairs produced by WaitlistScheduler.allocate, in serving order
+public class FillList {
+    private int[] clients = new int[16];
+    private int[] quantities = new int[16];
+    private int size;
+
+    public void add(int client, int qty){
+        if (size == clients.length){
+            clients = Arrays.copyOf(clients, size * 2);
+            quantities = Arrays.copyOf(quantities, size * 2);
+        }
+        clients[size] = client;
+        quantities[size] = qty;
+        size++;
+    }
+
+    public int size(){ return size; }
+    public int client(int i){ return clients[i]; }
+    public int quantity(int i){ return quantities[i]; }
+    public void clear(){ size = 0; }
+}
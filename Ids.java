@@ -0,0 +1,26 @@
+// Helpers for the "C<n>" / "P<n>" ids handed out by Warehouse; n is the registration sequence
+public final class Ids {
+    private Ids(){}
+
+    public static int clientIndex(String id){ return parse(id, 'C', false); }
+    public static int productIndex(String id){ return parse(id, 'P', false); }
+    // as clientIndex, but "c12" is accepted too
+    public static int clientIndexIgnoreCase(String id){ return parse(id, 'C', true); }
+    public static String clientId(int index){ return "C" + index; }
+    public static String productId(int index){ return "P" + index; }
+
+    // -1 for anything that is not the prefix followed by a positive int written the way clientId
+    // and productId write it: "C012" is not C12, so every index has exactly one id
+    private static int parse(String id, char prefix, boolean ignoreCase){
+        if (id == null || id.length() < 2 || id.length() > 11) return -1;
+        char first = ignoreCase ? Character.toUpperCase(id.charAt(0)) : id.charAt(0);
+        if (first != prefix || id.charAt(1) == '0') return -1;
+        long n = 0;
+        for (int i = 1; i < id.length(); i++){
+            char ch = id.charAt(i);
+            if (ch < '0' || ch > '9') return -1;
+            n = n * 10 + (ch - '0');
+        }
+        return (n == 0 || n > Integer.MAX_VALUE) ? -1 : (int) n;
+    }
+}
@@ -0,0 +1,109 @@
+import java.util.Arrays;
+
+// Open-addressing int -> int hash map with linear probing. Key 0 is reserved as the empty marker.
+public class IntIntMap {
+    private int[] keys;
+    private int[] values;
+    private int mask;
+    private int size;
+    private final int missing;
+
+    public IntIntMap(int expected, int missing){
+        int cap = 8;
+        while (cap * 3 < expected * 4) cap <<= 1;
+        keys = new int[cap];
+        values = new int[cap];
+        mask = cap - 1;
+        this.missing = missing;
+    }
+
+    public int size(){ return size; }
+
+    public int get(int key){
+        for (int i = slot(key); ; i = (i + 1) & mask){
+            int k = keys[i];
+            if (k == key) return values[i];
+            if (k == 0) return missing;
+        }
+    }
+
+    public void put(int key, int value){
+        if (key == 0) throw new IllegalArgumentException("Key 0 is reserved");
+        for (int i = slot(key); ; i = (i + 1) & mask){
+            int k = keys[i];
+            if (k == key) { values[i] = value; return; }
+            if (k == 0){
+                keys[i] = key;
+                values[i] = value;
+                if (++size * 4 > keys.length * 3) grow();
+                return;
+            }
+        }
+    }
+
+    // Adds delta to the key's value, starting from 0 when absent; returns the new value
+    public int add(int key, int delta){
+        if (key == 0) throw new IllegalArgumentException("Key 0 is reserved");
+        for (int i = slot(key); ; i = (i + 1) & mask){
+            int k = keys[i];
+            if (k == key) return values[i] += delta;
+            if (k == 0){
+                keys[i] = key;
+                values[i] = delta;
+                if (++size * 4 > keys.length * 3) grow();
+                return delta;
+            }
+        }
+    }
+
+    public int remove(int key){
+        for (int i = slot(key); ; i = (i + 1) & mask){
+            int k = keys[i];
+            if (k == 0) return missing;
+            if (k == key){
+                int old = values[i];
+                shiftBack(i);
+                size--;
+                return old;
+            }
+        }
+    }
+
+    public void clear(){
+        Arrays.fill(keys, 0);
+        size = 0;
+    }
+
+    // backward-shift deletion keeps probe chains intact without tombstones
+    private void shiftBack(int hole){
+        for (int i = (hole + 1) & mask; keys[i] != 0; i = (i + 1) & mask){
+            int home = slot(keys[i]);
+            // move the entry back if its home slot is not inside (hole, i]
+            if (((i - home) & mask) >= ((i - hole) & mask)){
+                keys[hole] = keys[i];
+                values[hole] = values[i];
+                hole = i;
+            }
+        }
+        keys[hole] = 0;
+    }
+
+    private void grow(){
+        int[] ok = keys, ov = values;
+        keys = new int[ok.length * 2];
+        values = new int[ok.length * 2];
+        mask = keys.length - 1;
+        for (int i = 0; i < ok.length; i++){
+            if (ok[i] == 0) continue;
+            int j = slot(ok[i]);
+            while (keys[j] != 0) j = (j + 1) & mask;
+            keys[j] = ok[i];
+            values[j] = ov[i];
+        }
+    }
+
+    private int slot(int key){
+        int h = key * 0x9E3779B9;
+        return (h ^ (h >>> 16)) & mask;
+    }
+}
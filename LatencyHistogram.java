@@ -0,0 +1,83 @@
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+// Log-linear latency histogram in the style of HdrHistogram. Values below 64 ns each get their own
+// bucket; every power of two above that is split into 32 equal buckets, so a reported value is
+// within ~3% of the recorded one. The buckets are fixed up front (anything past MAX_NANOS lands in
+// the top one), so recording is two lock-free adds and never allocates. Readers work on a Snapshot.
+public final class LatencyHistogram {
+    private static final int SUB_BITS = 5;
+    private static final int SUB = 1 << SUB_BITS;        // buckets per power of two
+    public static final long MAX_NANOS = (1L << 40) - 1;  // ~18 minutes
+    private static final int BUCKETS = bucket(MAX_NANOS) + 1;
+
+    private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+    private final LongAdder sum = new LongAdder(); // of recorded values, for the mean
+
+    public void record(long nanos){
+        if (nanos < 0) nanos = 0;
+        else if (nanos > MAX_NANOS) nanos = MAX_NANOS;
+        counts.incrementAndGet(bucket(nanos));
+        sum.add(nanos);
+    }
+
+    // Counts are read one bucket at a time while recording goes on, so a snapshot may be a few
+    // values off from any single instant; it never loses values it has seen
+    public Snapshot snapshot(){
+        long[] c = new long[BUCKETS];
+        long n = 0;
+        for (int i = 0; i < BUCKETS; i++) n += c[i] = counts.get(i);
+        return new Snapshot(c, n, sum.sum());
+    }
+
+    static int bucket(long v){
+        if (v < 2 * SUB) return (int) v;
+        int shift = 63 - Long.numberOfLeadingZeros(v) - SUB_BITS; // >= 1
+        return shift * SUB + (int) (v >>> shift);                  // v >>> shift is in [SUB, 2 * SUB)
+    }
+
+    // largest value that falls in bucket b
+    static long highest(int b){
+        if (b < 2 * SUB) return b;
+        int shift = b / SUB - 1;
+        long top = SUB + b % SUB;
+        return ((top + 1) << shift) - 1;
+    }
+
+    public static final class Snapshot {
+        private final long[] counts;
+        private final long count, sum;
+
+        private Snapshot(long[] counts, long count, long sum){
+            this.counts = counts; this.count = count; this.sum = sum;
+        }
+
+        public long getCount(){ return count; }
+        public double getMeanNanos(){ return count == 0 ? 0 : (double) sum / count; }
+        public long getMaxNanos(){ return valueAt(count); }
+
+        // Smallest bucket bound at or above `percent` of the values (0 < percent <= 100); 0 when empty
+        public long getPercentileNanos(double percent){
+            if (!(percent > 0 && percent <= 100)) throw new IllegalArgumentException("Bad percentile: " + percent);
+            return valueAt(Math.max(1, (long) Math.ceil(count * percent / 100)));
+        }
+
+        private long valueAt(long rank){
+            if (count == 0) return 0;
+            long seen = 0;
+            for (int i = 0; i < counts.length; i++){
+                seen += counts[i];
+                if (seen >= rank) return highest(i);
+            }
+            return highest(counts.length - 1);
+        }
+
+        // What was recorded after `earlier`, a snapshot of the same histogram
+        public Snapshot since(Snapshot earlier){
+            long[] c = new long[counts.length];
+            long n = 0;
+            for (int i = 0; i < c.length; i++) n += c[i] = Math.max(0, counts[i] - earlier.counts[i]);
+            return new Snapshot(c, n, Math.max(0, sum - earlier.sum));
+        }
+    }
+}
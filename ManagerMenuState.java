@@ -1,6 +1,8 @@
+import java.nio.file.Paths;
 import java.util.List;
 
 public class ManagerMenuState implements WarehouseState {
+  private static final int SEARCH_LIMIT = 20;
   private final WarehouseContext ctx;
 
   public ManagerMenuState(WarehouseContext ctx) { this.ctx = ctx; }
@@ -10,13 +12,15 @@ public class ManagerMenuState implements WarehouseState {
   @Override
   public void run() {
     while (ctx.getCurrentStateIndex() == WarehouseContext.MANAGER_STATE) {
-      System.out.println();
-      System.out.println("== Manager Menu ==");
-      System.out.println("1) Add product");
-      System.out.println("2) Display waitlist for a product");
-      System.out.println("3) Receive a shipment");
-      System.out.println("4) Become clerk");
-      System.out.println("0) Logout");
+      ctx.out().println();
+      ctx.out().println("== Manager Menu ==");
+      ctx.out().println("1) Add product");
+      ctx.out().println("2) Display waitlist for a product");
+      ctx.out().println("3) Receive a shipment");
+      ctx.out().println("4) Become clerk");
+      ctx.out().println("5) Receive a shipment manifest file");
+      ctx.out().println("6) Search products by name");
+      ctx.out().println("0) Logout");
 
       int choice = ctx.promptInt("> ");
       switch (choice) {
@@ -25,7 +29,9 @@ public class ManagerMenuState implements WarehouseState {
         case 2: displayWaitlist(); break;
         case 3: receiveShipment(); break;
         case 4: becomeClerk(); break;
-        default: System.out.println("Invalid option.");
+        case 5: receiveManifest(); break;
+        case 6: searchProducts(); break;
+        default: ctx.out().println("Invalid option.");
       }
     }
   }
@@ -33,24 +39,24 @@ public class ManagerMenuState implements WarehouseState {
   private void addProduct() {
     String name = ctx.promptLine("Product name: ");
     int qty = ctx.promptInt("Initial quantity: ");
-    double price = ctx.promptDouble("Unit price: ");
+    long price = ctx.promptMoney("Unit price: ");
     try {
-      String id = ctx.warehouse().addProduct(name, qty, price);
-      System.out.println("Added: " + id);
+      String id = ctx.warehouse().addProductCents(name, qty, price);
+      ctx.out().println("Added: " + id);
     } catch (Exception e) {
-      System.out.println("Failed to add product: " + e.getMessage());
+      ctx.out().println("Failed to add product: " + e.getMessage());
     }
   }
 
   private void displayWaitlist() {
     String pid = ctx.promptLine("Product ID: ");
-    System.out.println("== Waitlist for " + pid + " ==");
+    ctx.out().println("== Waitlist for " + pid + " ==");
     try {
       List<String> rows = ctx.warehouse().getWaitlistView(pid);
-      if (rows == null || rows.isEmpty()) { System.out.println("(empty)"); return; }
-      for (String row : rows) System.out.println(row);
+      if (rows == null || rows.isEmpty()) { ctx.out().println("(empty)"); return; }
+      for (String row : rows) ctx.out().println(row);
     } catch (Exception e) {
-      System.out.println("Failed: " + e.getMessage());
+      ctx.out().println("Failed: " + e.getMessage());
     }
   }
 
@@ -59,9 +65,30 @@ public class ManagerMenuState implements WarehouseState {
     int qty = ctx.promptInt("Quantity received: ");
     try {
       ctx.warehouse().receiveShipment(pid, qty);
-      System.out.println("Shipment processed");
+      ctx.out().println("Shipment processed");
     } catch (Exception e) {
-      System.out.println("Shipment failed: " + e.getMessage());
+      ctx.out().println("Shipment failed: " + e.getMessage());
+    }
+  }
+
+  private void receiveManifest() {
+    String path = ctx.promptLine("Manifest file (productId,quantity per line): ");
+    try {
+      ShipmentStats stats = ctx.warehouse().receiveShipments(ShipmentManifest.read(Paths.get(path)));
+      ctx.out().println("Manifest processed: " + stats);
+    } catch (Exception e) {
+      ctx.out().println("Manifest failed: " + e.getMessage());
+    }
+  }
+
+  private void searchProducts() {
+    String query = ctx.promptLine("Name words (the last one may be a prefix): ");
+    try {
+      List<Product> found = ctx.warehouse().searchProducts(query, SEARCH_LIMIT);
+      if (found.isEmpty()) { ctx.out().println("(no matches)"); return; }
+      for (Product p : found) ctx.out().println(p);
+    } catch (Exception e) {
+      ctx.out().println("Search failed: " + e.getMessage());
     }
   }
 
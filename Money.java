@@ -0,0 +1,63 @@
+// Money as a long count of cents. All arithmetic is exact and allocation-free; doubles only
+// appear at the edges (user input, legacy callers) and are rounded to the nearest cent there.
+public final class Money {
+    private Money(){}
+
+    public static long fromDouble(double amount){
+        if (Double.isNaN(amount) || Double.isInfinite(amount)) throw new IllegalArgumentException("Bad amount: " + amount);
+        return Math.round(amount * 100);
+    }
+
+    public static double toDouble(long cents){ return cents / 100.0; }
+
+    // Price times quantity; overflow is an error rather than a silently wrong total
+    public static long times(long cents, int qty){ return Math.multiplyExact(cents, (long) qty); }
+    public static long add(long a, long b){ return Math.addExact(a, b); }
+
+    // Parses "12", "12.5", "12.50", "-3.07", "$4.20" exactly; more than two decimals is an error
+    public static long parse(String s){
+        if (s == null) throw new IllegalArgumentException("Missing amount");
+        s = s.trim();
+        int i = 0, n = s.length();
+        boolean negative = false;
+        if (i < n && (s.charAt(i) == '-' || s.charAt(i) == '+')) negative = s.charAt(i++) == '-';
+        if (i < n && s.charAt(i) == '$') i++;
+        long whole = 0;
+        int digits = 0;
+        for (; i < n && isDigit(s.charAt(i)); i++, digits++){
+            whole = Math.addExact(Math.multiplyExact(whole, 10), s.charAt(i) - '0');
+        }
+        long cents = 0;
+        int decimals = 0;
+        if (i < n && s.charAt(i) == '.'){
+            for (i++; i < n && isDigit(s.charAt(i)); i++, decimals++){
+                if (decimals == 2) throw new IllegalArgumentException("At most two decimals: " + s);
+                cents = cents * 10 + (s.charAt(i) - '0');
+            }
+        }
+        if (i != n || digits + decimals == 0) throw new IllegalArgumentException("Bad amount: " + s);
+        if (decimals == 1) cents *= 10;
+        long total = Math.addExact(Math.multiplyExact(whole, 100), cents);
+        return negative ? -total : total;
+    }
+
+    // ASCII only: Character.isDigit also takes other scripts' digits, which '0' does not offset
+    private static boolean isDigit(char c){ return c >= '0' && c <= '9'; }
+
+    // "1234.50", "-0.07"; no grouping, always two decimals
+    public static String format(long cents){
+        return appendTo(new StringBuilder(24), cents).toString();
+    }
+
+    public static StringBuilder appendTo(StringBuilder sb, long cents){
+        if (cents < 0){
+            sb.append('-');
+            if (cents == Long.MIN_VALUE) return sb.append("92233720368547758.08");
+            cents = -cents;
+        }
+        long frac = cents % 100;
+        sb.append(cents / 100).append('.');
+        if (frac < 10) sb.append('0');
+        return sb.append(frac);
+    }
+}
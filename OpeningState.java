@@ -8,12 +8,12 @@ public class OpeningState implements WarehouseState {
   @Override
   public void run() {
     while (ctx.getCurrentStateIndex() == WarehouseContext.OPENING_STATE) {
-      System.out.println();
-      System.out.println("== Login ==");
-      System.out.println("1) Login as Client");
-      System.out.println("2) Login as Clerk");
-      System.out.println("3) Login as Manager");
-      System.out.println("0) Quit");
+      ctx.out().println();
+      ctx.out().println("== Login ==");
+      ctx.out().println("1) Login as Client");
+      ctx.out().println("2) Login as Clerk");
+      ctx.out().println("3) Login as Manager");
+      ctx.out().println("0) Quit");
 
       int choice = ctx.promptInt("> ");
       switch (choice) {
@@ -23,14 +23,14 @@ public class OpeningState implements WarehouseState {
           break;
         }
         case 1: {
-          String clientId = ctx.promptLine("Enter Client ID (e.g., C1): ");
-          if (isValidClient(clientId)) {
+          String clientId = ctx.warehouse().resolveClientId(ctx.promptLine("Enter Client ID (e.g., C1): "));
+          if (clientId != null) {
             ctx.setCurrentClient(clientId);
             ctx.setPreviousState(WarehouseContext.OPENING_STATE);
             int ns = ctx.getNextState(WarehouseContext.OPENING_STATE, WarehouseContext.CMD_CLIENT);
             ctx.setState(ns);
           } else {
-            System.out.println("Invalid client ID.");
+            ctx.out().println("Invalid client ID.");
           }
           break;
         }
@@ -45,15 +45,8 @@ public class OpeningState implements WarehouseState {
           break;
         }
         default:
-          System.out.println("Invalid option.");
+          ctx.out().println("Invalid option.");
       }
     }
   }
-
-  private boolean isValidClient(String clientId) {
-    for (Client c : ctx.warehouse().getAllClients()) {
-      if (c.getId().equalsIgnoreCase(clientId)) return true;
-    }
-    return false;
-  }
 }
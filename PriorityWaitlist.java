@@ -0,0 +1,115 @@
+// Waitlist served by client tier (higher first), then by age of the request (older first).
+// Entries live in a binary heap, so a shipment that makes k fills costs O(k log n).
+// Not thread-safe; Warehouse guards it with the product's stripe lock.
+public class PriorityWaitlist implements WaitlistScheduler {
+    // entry storage by slot
+    private int[] clients = new int[8];
+    private int[] quantities = new int[8];
+    private int[] tiers = new int[8];
+    private long[] ages = new long[8];   // order of first request
+    private int[] heap = new int[8];     // slots, best entry at 0
+    private int[] free = new int[8];     // recycled slots
+    private int freeCount;
+    private int used;                    // slots ever handed out
+    private int size;
+    private long demand;
+    private long nextAge;
+    private final IntIntMap slotOf = new IntIntMap(8, -1); // client index -> slot
+
+    @Override public int size(){ return size; }
+    @Override public long totalDemand(){ return demand; }
+
+    @Override
+    public void add(int client, int qty, int tier){
+        if (qty <= 0) return;
+        int slot = slotOf.get(client);
+        if (slot >= 0){
+            quantities[slot] += qty; // same key, so no sifting
+        } else {
+            slot = freeCount > 0 ? free[--freeCount] : newSlot();
+            clients[slot] = client;
+            quantities[slot] = qty;
+            tiers[slot] = tier;
+            ages[slot] = nextAge++;
+            slotOf.put(client, slot);
+            if (size == heap.length) heap = java.util.Arrays.copyOf(heap, size * 2);
+            heap[size] = slot;
+            siftUp(heap, size++);
+        }
+        demand += qty;
+    }
+
+    @Override
+    public int allocate(int units, FillList out){
+        int given = 0;
+        while (units > given && size > 0){
+            int s = heap[0];
+            int fill = Math.min(quantities[s], units - given);
+            out.add(clients[s], fill);
+            given += fill;
+            quantities[s] -= fill;
+            demand -= fill;
+            if (quantities[s] == 0){
+                slotOf.remove(clients[s]);
+                if (freeCount == free.length) free = java.util.Arrays.copyOf(free, freeCount * 2);
+                free[freeCount++] = s;
+                heap[0] = heap[--size];
+                if (size > 0) siftDown(heap, 0, size);
+            }
+        }
+        return given;
+    }
+
+    // Pops a copy of the heap, so the visit order is the serving order: O(n log n)
+    @Override
+    public void forEach(EntryVisitor v){
+        int[] h = java.util.Arrays.copyOf(heap, size);
+        for (int n = size; n > 0; ){
+            int s = h[0];
+            v.visit(clients[s], quantities[s], tiers[s]);
+            h[0] = h[--n];
+            if (n > 0) siftDown(h, 0, n);
+        }
+    }
+
+    private int newSlot(){
+        if (used == clients.length){
+            int n = used * 2;
+            clients = java.util.Arrays.copyOf(clients, n);
+            quantities = java.util.Arrays.copyOf(quantities, n);
+            tiers = java.util.Arrays.copyOf(tiers, n);
+            ages = java.util.Arrays.copyOf(ages, n);
+        }
+        return used++;
+    }
+
+    // true if slot a is served before slot b
+    private boolean before(int a, int b){
+        if (tiers[a] != tiers[b]) return tiers[a] > tiers[b];
+        return ages[a] < ages[b];
+    }
+
+    private void siftUp(int[] h, int i){
+        int s = h[i];
+        while (i > 0){
+            int parent = (i - 1) >>> 1;
+            if (!before(s, h[parent])) break;
+            h[i] = h[parent];
+            i = parent;
+        }
+        h[i] = s;
+    }
+
+    private void siftDown(int[] h, int i, int n){
+        int s = h[i];
+        while (true){
+            int child = 2 * i + 1;
+            if (child >= n) break;
+            if (child + 1 < n && before(h[child + 1], h[child])) child++;
+            if (!before(h[child], s)) break;
+            h[i] = h[child];
+            i = child;
+        }
+        h[i] = s;
+    }
+}
@@ -0,0 +1,26 @@
+// Waitlist that splits a shipment too small for everyone in proportion to what each client is
+// waiting for. Shares are rounded down; the leftover units go one each to the oldest entries
+// that are still short. A shipment that covers all demand is served First In, First Out.
+// Every allocation touches every entry, so it costs O(size).
+public class ProRataWaitlist extends Waitlist {
+
+    @Override
+    public int allocate(int units, FillList out){
+        if (units <= 0 || isEmpty()) return 0;
+        long demand = totalDemand();
+        if (units >= demand) return super.allocate(units, out);
+
+        int n = size();
+        int[] share = new int[n];
+        int given = 0;
+        for (int i = 0; i < n; i++){
+            share[i] = (int) (units * (long) quantityAt(i) / demand);
+            given += share[i];
+        }
+        for (int i = 0; i < n && given < units; i++){
+            if (share[i] < quantityAt(i)){ share[i]++; given++; }
+        }
+        serveEach(share, out);
+        return given;
+    }
+}
@@ -1,28 +1,46 @@
-import java.util.*;
-
 public class Product {
     private final String id;
+    private final int index; // numeric part of id, the key in ProductCatalog
     private final String name;
-    private int stock;
-    private final double price;
+    private volatile int stock; // written under the product's stripe lock in Warehouse
+    private volatile int reserved; // part of stock held by open reservations; same lock
+    private final long price; // cents
+
+    // Full version: waitlist of (client index, qty), First In, First Out unless the warehouse picks
+    // another WaitlistPolicy; guarded by the product's stripe lock
+    private WaitlistScheduler waitlist;
 
-    // Full version: First In, First Out waitlist of (clientId, qty)
-    private final LinkedList<AbstractMap.SimpleEntry<String,Integer>> waitlist = new LinkedList<>();
+    public Product(String id, String name, int stock, long price){
+        this(id, name, stock, price, new Waitlist());
+    }
 
-    public Product(String id, String name, int stock, double price){
-        this.id = id; this.name = name; this.stock = stock; this.price = price;
+    public Product(String id, String name, int stock, long price, WaitlistScheduler waitlist){
+        this.id = id; this.name = name; this.stock = stock; this.price = price; this.waitlist = waitlist;
+        this.index = Ids.productIndex(id);
     }
     public String getId(){ return id; }
+    public int getIndex(){ return index; }
     public String getName(){ return name; }
     public int getStock(){ return stock; }
     public void setStock(int s){ stock = s; }
-    public double getPrice(){ return price; }
+    public int getReserved(){ return reserved; }
+    // units an order can take right now
+    public int getAvailable(){ return stock - reserved; }
+    void addReserved(int delta){ reserved += delta; }
+    public long getPriceCents(){ return price; }
+    public double getPrice(){ return Money.toDouble(price); }
 
-    public List<AbstractMap.SimpleEntry<String,Integer>> getWaitlist(){ return waitlist; }
-    public void enqueueWait(String clientId, int qty){ waitlist.add(new AbstractMap.SimpleEntry<>(clientId, qty)); }
+    public WaitlistScheduler getWaitlist(){ return waitlist; }
+    public void enqueueWait(int client, int qty, int tier){ waitlist.add(client, qty, tier); }
+
+    // Moves the current entries, in serving order, into a new scheduler
+    void useWaitlist(WaitlistScheduler next){
+        waitlist.forEach(next::add);
+        waitlist = next;
+    }
 
     @Override
     public String toString(){
-        return id + " | " + name + " | stock=" + stock + " | $" + String.format("%.2f", price);
+        return id + " | " + name + " | stock=" + stock + " | $" + Money.format(price);
     }
 }
@@ -1,8 +1,30 @@
 import java.util.*;
 
 public class ProductCatalog {
-    private final Map<String, Product> products = new LinkedHashMap<>();
-    public void addProduct(Product p){ products.put(p.getId(), p); }
-    public Product findProduct(String id){ return products.get(id); }
-    public Collection<Product> getAllProducts(){ return Collections.unmodifiableCollection(products.values()); }
+    // dense registry indexed by the product number ("P7" -> 7)
+    private final DenseRegistry<Product> products;
+    // name lookups; a product becomes searchable right after it is registered
+    private final ProductSearchIndex names;
+    public ProductCatalog(){ this(1, 0); }
+    // a shard's catalog, holding only the numbers with number % shards == shard
+    ProductCatalog(int shards, int shard){
+        products = new DenseRegistry<>(shards, shard);
+        names = new ProductSearchIndex(products::get);
+    }
+    public void addProduct(Product p){ products.add(p.getIndex(), p); names.add(p); }
+    // -1, or the position of the first product whose id was already taken. The ones added are
+    // searchable right away; compactIndex brings queries back to full speed after a load.
+    public int addProducts(List<Product> batch){
+        int failed = products.addAll(batch, Product::getIndex);
+        names.addAll(failed < 0 ? batch : batch.subList(0, failed));
+        return failed;
+    }
+    public void compactIndex(){ names.compact(); }
+    // exact ids only: "P007" is not P7 (see Ids)
+    public Product findProduct(String id){ return products.get(Ids.productIndex(id)); }
+    public Product findProduct(int index){ return products.get(index); }
+    public int size(){ return products.size(); }
+    public int upperBound(){ return products.upperBound(); }
+    public Collection<Product> getAllProducts(){ return products.values(); }
+    public List<Product> search(String query, int limit){ return names.search(query, limit); }
 }
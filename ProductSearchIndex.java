@@ -0,0 +1,499 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.IntFunction;
+
+// Name search over the catalog. The lowercase words of every product name go into a trie; the
+// node that ends a word holds the products using it (the inverted index), and each product keeps
+// the ids of its own words (the forward index) so candidates are checked without re-reading names.
+// Busy nodes also keep their best CACHE_K products, so a one-word prefix query over a huge
+// catalog reads a short array instead of the whole subtree.
+//
+// Results are ranked by name length (the shorter the name, the more of it the query covers),
+// then by product index. Every word of the query must match; the last one may be a prefix
+// unless the query ends with a separator.
+public class ProductSearchIndex {
+    static final int CACHE_K = 32;                      // best products kept per busy node
+    private static final int CACHE_FROM = 2 * CACHE_K;  // postings below a node before it gets a cache
+    private static final int MAX_WORD = 32;             // longer words are cut here
+    private static final int MAX_WORDS = 127;           // words indexed per name
+    private static final int TAIL_MAX = 256;            // unsorted postings tolerated per word
+    private static final int PREFIX_WORDS = 1024;       // a prefix expanding to more words is checked per candidate
+    private static final int PREFIX_BIG_WORDS = 16;     // ... and so is one with more words this common
+    private static final int RARE = 64;                 // postings below which a word is merged with the other rare ones
+
+    private final IntFunction<Product> lookup;
+    private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+
+    // trie in parallel arrays (first child / next sibling); node 0 is the root
+    private char[] label = new char[1024];
+    private int[] firstChild = new int[1024];
+    private int[] nextSibling = new int[1024];
+    private int[] parent = new int[1024];
+    private byte[] depth = new byte[1024];
+    private int[] wordOf = new int[1024];        // word ending at the node, or -1
+    private int[] postingsBelow = new int[1024]; // postings in the node's subtree
+    private int[] cacheOf = new int[1024];       // slot in caches, or -1
+    private int nodes = 1;
+
+    // (parent, label) -> child, so descending never walks a long sibling chain. Open addressing;
+    // a key is never 0 because labels are letters or digits.
+    private long[] edgeKey = new long[2048];
+    private int[] edgeNode = new int[2048];
+
+    // per word: its trie node and the ranks of the products whose names contain it. The first
+    // sortedCount ranks are ascending; newer ones are appended and merged in once the tail grows.
+    private int[] nodeOf = new int[256];
+    private long[][] postings = new long[256][];
+    private int[] postingCount = new int[256];
+    private int[] sortedCount = new int[256];
+    private int words;
+
+    // per product index: its word ids, at forward[forwardStart[i] .. + forwardLength[i])
+    private int[] forward = new int[1024];
+    private int forwardSize;
+    private int[] forwardStart = new int[1024];
+    private byte[] forwardLength = new byte[1024];
+
+    // per busy node, its best ranks in ascending order
+    private long[][] caches = new long[64][];
+    private int[] cacheCount = new int[64];
+    private int cacheSlots;
+
+    public ProductSearchIndex(IntFunction<Product> lookup){
+        this.lookup = lookup;
+        wordOf[0] = -1;
+        cacheOf[0] = -1;
+    }
+
+    // Product names never change, so a product is indexed once, when it joins the catalog
+    public void add(Product p){
+        int[] path = new int[MAX_WORD];
+        lock.writeLock().lock();
+        try { insert(p, path, TAIL_MAX); }
+        finally { lock.writeLock().unlock(); }
+    }
+
+    // Bulk form of add for loaders: one lock per batch, and a word's tail is merged only once it
+    // is a fair share of the word, so n adds cost O(n log n) moves rather than O(n^2 / TAIL_MAX).
+    // Queries stay correct meanwhile, just slower; call compact() when the load is done.
+    public void addAll(List<Product> ps){
+        int[] path = new int[MAX_WORD];
+        lock.writeLock().lock();
+        try { for (Product p : ps) insert(p, path, -1); }
+        finally { lock.writeLock().unlock(); }
+    }
+
+    // Merges every tail longer than a plain add would leave it
+    public void compact(){
+        lock.writeLock().lock();
+        try {
+            for (int w = 0; w < words; w++) if (postingCount[w] - sortedCount[w] > TAIL_MAX) mergeTail(w);
+        } finally { lock.writeLock().unlock(); }
+    }
+
+    // tailMax < 0 lets the tail grow to an eighth of the word; caller holds the write lock
+    private void insert(Product p, int[] path, int tailMax){
+        long rank = rank(p);
+        Set<String> ws = new LinkedHashSet<>(words(p.getName()));
+        int index = p.getIndex();
+        if (index >= forwardStart.length){
+            int n = Math.max(forwardStart.length * 2, index + 1);
+            forwardStart = Arrays.copyOf(forwardStart, n);
+            forwardLength = Arrays.copyOf(forwardLength, n);
+        }
+        int count = Math.min(ws.size(), MAX_WORDS);
+        if (forwardSize + count > forward.length) forward = Arrays.copyOf(forward, Math.max(forward.length * 2, forwardSize + count));
+        forwardStart[index] = forwardSize;
+        forwardLength[index] = (byte) count;
+
+        int k = 0;
+        for (String w : ws){
+            if (k++ == count) break;
+            int d = 0, node = 0;
+            for (int i = 0; i < w.length(); i++){
+                node = child(node, w.charAt(i), true);
+                path[d++] = node;
+            }
+            int word = wordOf[node];
+            if (word < 0) word = wordOf[node] = newWord(node);
+            forward[forwardSize++] = word;
+            addPosting(word, rank, tailMax < 0 ? Math.max(TAIL_MAX, sortedCount[word] >> 3) : tailMax);
+
+            for (int i = 0; i < d; i++){
+                int n = path[i];
+                postingsBelow[n]++;
+                if (cacheOf[n] >= 0) offerToCache(cacheOf[n], rank);
+                else if (postingsBelow[n] >= CACHE_FROM) buildCache(n);
+            }
+        }
+    }
+
+    // Up to limit products matching every word of the query, best first
+    public List<Product> search(String query, int limit){
+        if (limit <= 0 || query == null) return Collections.emptyList();
+        List<String> qs = words(query);
+        if (qs.isEmpty()) return Collections.emptyList();
+        // a query still being typed treats its last word as a prefix
+        boolean typing = Character.isLetterOrDigit(query.charAt(query.length() - 1));
+        String prefix = typing ? qs.get(qs.size() - 1) : null;
+        List<String> exact = new ArrayList<>(new LinkedHashSet<>(typing ? qs.subList(0, qs.size() - 1) : qs));
+
+        long[] top = new long[limit];
+        int n = 0;
+        lock.readLock().lock();
+        try {
+            int prefixNode = prefix == null ? -1 : find(prefix);
+            if (prefix != null && prefixNode < 0) return Collections.emptyList();
+            int[] needed = new int[exact.size()];
+            int rarest = -1;
+            for (int i = 0; i < needed.length; i++){
+                int node = find(exact.get(i));
+                if (node < 0 || wordOf[node] < 0) return Collections.emptyList();
+                needed[i] = wordOf[node];
+                // the rarest exact word gives the smallest candidate set
+                if (rarest < 0 || postingCount[needed[i]] < postingCount[rarest]) rarest = needed[i];
+            }
+
+            if (needed.length == 0){
+                int c = cacheOf[prefixNode];
+                if (c >= 0 && (limit <= CACHE_K || cacheCount[c] < CACHE_K)){
+                    n = Math.min(limit, cacheCount[c]);
+                    System.arraycopy(caches[c], 0, top, 0, n);
+                } else {
+                    n = collect(prefixNode, top, n, limit);
+                }
+            } else if (prefixNode >= 0 && postingsBelow[prefixNode] < postingCount[rarest]){
+                n = collectMatching(prefixNode, top, n, limit, needed);
+            } else if (needed.length == 1 && prefixNode < 0){
+                n = offerAll(rarest, top, n, limit, null, -1);
+            } else {
+                n = intersect(needed, prefixNode, top, n, limit);
+            }
+        } finally { lock.readLock().unlock(); }
+
+        List<Product> out = new ArrayList<>(n);
+        for (int i = 0; i < n; i++){
+            Product p = lookup.apply((int) top[i]);
+            if (p != null) out.add(p);
+        }
+        return out;
+    }
+
+    // Lowercase words of s in order, each cut at MAX_WORD chars
+    static List<String> words(String s){
+        List<String> out = new ArrayList<>(4);
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i <= s.length(); i++){
+            char c = i < s.length() ? s.charAt(i) : ' ';
+            if (Character.isLetterOrDigit(c)){
+                if (sb.length() < MAX_WORD) sb.append(Character.toLowerCase(c));
+            } else if (sb.length() > 0){
+                out.add(sb.toString());
+                sb.setLength(0);
+            }
+        }
+        return out;
+    }
+
+    private static long rank(Product p){ return ((long) p.getName().length() << 32) | p.getIndex(); }
+
+    // ====================== TRIE ======================
+
+    private int find(String w){
+        int node = 0;
+        for (int i = 0; i < w.length() && node >= 0; i++) node = child(node, w.charAt(i), false);
+        return node;
+    }
+
+    private int child(int node, char c, boolean create){
+        long key = (long) node << 16 | c;
+        int mask = edgeKey.length - 1;
+        int h = (int) (key * 0x9E3779B97F4A7C15L >>> 32) & mask;
+        for (; edgeKey[h] != 0; h = (h + 1) & mask) if (edgeKey[h] == key) return edgeNode[h];
+        if (!create) return -1;
+        if (nodes == label.length){
+            int n = nodes * 2;
+            label = Arrays.copyOf(label, n);
+            firstChild = Arrays.copyOf(firstChild, n);
+            nextSibling = Arrays.copyOf(nextSibling, n);
+            parent = Arrays.copyOf(parent, n);
+            depth = Arrays.copyOf(depth, n);
+            wordOf = Arrays.copyOf(wordOf, n);
+            postingsBelow = Arrays.copyOf(postingsBelow, n);
+            cacheOf = Arrays.copyOf(cacheOf, n);
+        }
+        int k = nodes++;
+        label[k] = c;
+        parent[k] = node;
+        depth[k] = (byte) (depth[node] + 1);
+        wordOf[k] = -1;
+        cacheOf[k] = -1;
+        nextSibling[k] = firstChild[node];
+        firstChild[node] = k;
+        edgeKey[h] = key;
+        edgeNode[h] = k;
+        if (2 * nodes > edgeKey.length) growEdges();
+        return k;
+    }
+
+    private void growEdges(){
+        long[] keys = new long[edgeKey.length * 2];
+        int[] targets = new int[keys.length];
+        int mask = keys.length - 1;
+        for (int i = 0; i < edgeKey.length; i++){
+            long key = edgeKey[i];
+            if (key == 0) continue;
+            int h = (int) (key * 0x9E3779B97F4A7C15L >>> 32) & mask;
+            while (keys[h] != 0) h = (h + 1) & mask;
+            keys[h] = key;
+            targets[h] = edgeNode[i];
+        }
+        edgeKey = keys;
+        edgeNode = targets;
+    }
+
+    // true if node is ancestor or the node itself
+    private boolean under(int node, int ancestor){
+        for (int up = depth[node] - depth[ancestor]; up > 0; up--) node = parent[node];
+        return node == ancestor;
+    }
+
+    private int newWord(int node){
+        if (words == postings.length){
+            int n = words * 2;
+            nodeOf = Arrays.copyOf(nodeOf, n);
+            postings = Arrays.copyOf(postings, n);
+            postingCount = Arrays.copyOf(postingCount, n);
+            sortedCount = Arrays.copyOf(sortedCount, n);
+        }
+        nodeOf[words] = node;
+        postings[words] = new long[1];
+        return words++;
+    }
+
+    // Appends rank; once the unsorted tail passes TAIL_MAX it is sorted and merged in, so queries
+    // can walk nearly every list in rank order
+    private void addPosting(int word, long rank, int tailMax){
+        long[] ps = postings[word];
+        int m = postingCount[word];
+        if (m == ps.length) ps = postings[word] = Arrays.copyOf(ps, m * 2);
+        ps[m++] = rank;
+        postingCount[word] = m;
+        if (m - sortedCount[word] > tailMax) mergeTail(word);
+    }
+
+    private void mergeTail(int word){
+        long[] ps = postings[word];
+        int m = postingCount[word];
+        int sorted = sortedCount[word];
+        // merge the sorted tail in from the back, so only the tail needs a copy
+        long[] tail = Arrays.copyOfRange(ps, sorted, m);
+        Arrays.sort(tail);
+        int i = sorted - 1, j = tail.length - 1, k = m - 1;
+        while (j >= 0) ps[k--] = i >= 0 && ps[i] > tail[j] ? ps[i--] : tail[j--];
+        sortedCount[word] = m;
+    }
+
+    // ====================== RANKING ======================
+
+    private void buildCache(int node){
+        if (cacheSlots == caches.length){
+            caches = Arrays.copyOf(caches, cacheSlots * 2);
+            cacheCount = Arrays.copyOf(cacheCount, cacheSlots * 2);
+        }
+        int c = cacheSlots++;
+        caches[c] = new long[CACHE_K];
+        cacheCount[c] = collect(node, caches[c], 0, CACHE_K);
+        cacheOf[node] = c;
+    }
+
+    private void offerToCache(int c, long rank){
+        cacheCount[c] = offer(caches[c], cacheCount[c], CACHE_K, rank);
+    }
+
+    // Offers every posting in the subtree of node
+    private int collect(int node, long[] top, int n, int limit){
+        if (wordOf[node] >= 0) n = offerAll(wordOf[node], top, n, limit, null, -1);
+        for (int k = firstChild[node]; k != 0; k = nextSibling[k]) n = collect(k, top, n, limit);
+        return n;
+    }
+
+    // Offers the postings in the subtree of node whose names also have every needed word
+    private int collectMatching(int node, long[] top, int n, int limit, int[] needed){
+        if (wordOf[node] >= 0) n = offerAll(wordOf[node], top, n, limit, needed, -1);
+        for (int k = firstChild[node]; k != 0; k = nextSibling[k]) n = collectMatching(k, top, n, limit, needed);
+        return n;
+    }
+
+    // Offers the postings of one word, keeping those whose names also have the needed words (if
+    // given) and a word under prefixNode (if >= 0). The sorted part is read in rank order, so it
+    // stops at the first rank that can no longer make the cut.
+    private int offerAll(int word, long[] top, int n, int limit, int[] needed, int prefixNode){
+        long[] ps = postings[word];
+        int sorted = sortedCount[word];
+        for (int i = sorted, m = postingCount[word]; i < m; i++){
+            long r = ps[i];
+            if (n == limit && r > top[n - 1]) continue;
+            if (matches((int) r, needed, prefixNode)) n = offer(top, n, limit, r);
+        }
+        for (int i = 0; i < sorted; i++){
+            long r = ps[i];
+            if (n == limit && r > top[n - 1]) break;
+            if (matches((int) r, needed, prefixNode)) n = offer(top, n, limit, r);
+        }
+        return n;
+    }
+
+    // Leapfrog join over the query words in rank order: each word's postings are galloped forward
+    // to the current candidate, and any word that skips past it moves the candidate up, so only
+    // the neighbourhood of the common ranks is read. Stops once nothing later can make the cut.
+    private int intersect(int[] needed, int prefixNode, long[] top, int n, int limit){
+        List<Term> terms = new ArrayList<>(needed.length + 1);
+        for (int w : needed) terms.add(new Term(new int[]{ w }, null));
+        boolean checkPrefix = prefixNode >= 0;
+        if (checkPrefix){
+            Term t = prefixTerm(prefixNode);
+            if (t != null){ terms.add(t); checkPrefix = false; }
+        }
+        terms.sort((a, b) -> Integer.compare(a.size, b.size)); // rarest first moves the candidate furthest
+
+        long r = 0;
+        while (r != Long.MAX_VALUE && (n < limit || r < top[n - 1])){
+            boolean all = true;
+            for (Term t : terms){
+                long x = t.seek(r);
+                if (x != r){ r = x; all = false; break; }
+            }
+            if (!all) continue;
+            if (!checkPrefix || matches((int) r, null, prefixNode)) n = offer(top, n, limit, r);
+            r++;
+        }
+        return n;
+    }
+
+    // The words a prefix expands to as one term: common words keep their own postings, the rare
+    // ones are merged into a single sorted array. Null if the prefix is too broad for that.
+    private Term prefixTerm(int node){
+        int[] ws = new int[PREFIX_WORDS];
+        int k = wordsUnder(node, ws, 0);
+        if (k > PREFIX_WORDS) return null;
+        int big = 0, rare = 0;
+        for (int i = 0; i < k; i++){
+            if (postingCount[ws[i]] >= RARE) ws[big++] = ws[i]; // compacts in place: big <= i
+            else rare += postingCount[ws[i]];
+        }
+        if (big > PREFIX_BIG_WORDS) return null;
+        long[] merged = new long[rare];
+        int m = 0;
+        int[] again = new int[PREFIX_WORDS];
+        int k2 = wordsUnder(node, again, 0);
+        for (int i = 0; i < k2; i++){
+            int w = again[i];
+            if (postingCount[w] < RARE){
+                System.arraycopy(postings[w], 0, merged, m, postingCount[w]);
+                m += postingCount[w];
+            }
+        }
+        Arrays.sort(merged);
+        return new Term(Arrays.copyOf(ws, big), merged);
+    }
+
+    // Word ids in the subtree of node; stops counting past PREFIX_WORDS
+    private int wordsUnder(int node, int[] out, int k){
+        if (wordOf[node] >= 0){
+            if (k < out.length) out[k] = wordOf[node];
+            if (++k > out.length) return k;
+        }
+        for (int c = firstChild[node]; c != 0 && k <= out.length; c = nextSibling[c]) k = wordsUnder(c, out, k);
+        return k;
+    }
+
+    // One query word as the index words it stands for (several for a prefix), plus optionally a
+    // sorted array of more ranks. seek must be asked for ascending ranks: the cursors only move forward.
+    private final class Term {
+        private final int[] ws;
+        private final int[] at;
+        private final long[][] tails; // each word's unsorted tail sorted for this query, then extra
+        private final int[] tailAt;
+        final int size;
+
+        Term(int[] ws, long[] extra){
+            this.ws = ws;
+            at = new int[ws.length];
+            int lists = ws.length + (extra == null ? 0 : 1);
+            tailAt = new int[lists];
+            tails = new long[lists][];
+            int total = 0;
+            for (int i = 0; i < ws.length; i++){
+                tails[i] = Arrays.copyOfRange(postings[ws[i]], sortedCount[ws[i]], postingCount[ws[i]]);
+                Arrays.sort(tails[i]);
+                total += postingCount[ws[i]];
+            }
+            if (extra != null){
+                tails[ws.length] = extra;
+                total += extra.length;
+            }
+            size = total;
+        }
+
+        // smallest rank >= r listed by any of the words, or Long.MAX_VALUE
+        long seek(long r){
+            long best = Long.MAX_VALUE;
+            for (int i = 0; i < ws.length; i++){
+                long[] ps = postings[ws[i]];
+                int sorted = sortedCount[ws[i]];
+                at[i] = gallop(ps, at[i], sorted, r);
+                if (at[i] < sorted) best = Math.min(best, ps[at[i]]);
+            }
+            for (int i = 0; i < tails.length; i++){
+                long[] tail = tails[i];
+                tailAt[i] = gallop(tail, tailAt[i], tail.length, r);
+                if (tailAt[i] < tail.length) best = Math.min(best, tail[tailAt[i]]);
+            }
+            return best;
+        }
+    }
+
+    // First position in a[from..to) holding a value >= key; steps double before the binary search
+    private static int gallop(long[] a, int from, int to, long key){
+        int step = 1, hi = from;
+        while (hi < to && a[hi] < key){
+            from = hi + 1;
+            hi += step;
+            step <<= 1;
+        }
+        int at = Arrays.binarySearch(a, from, Math.min(hi + 1, to), key);
+        return at >= 0 ? at : -at - 1;
+    }
+
+    private boolean matches(int product, int[] needed, int prefixNode){
+        int from = forwardStart[product], to = from + forwardLength[product];
+        if (needed != null){
+            for (int w : needed){
+                int i = from;
+                while (i < to && forward[i] != w) i++;
+                if (i == to) return false;
+            }
+        }
+        if (prefixNode < 0) return true;
+        for (int i = from; i < to; i++) if (under(nodeOf[forward[i]], prefixNode)) return true;
+        return false;
+    }
+
+    // Inserts rank into the ascending array top[0..n), dropping duplicates and anything past limit
+    private static int offer(long[] top, int n, int limit, long rank){
+        int at = Arrays.binarySearch(top, 0, n, rank);
+        if (at >= 0) return n;
+        at = -at - 1;
+        if (at >= limit) return n;
+        int keep = Math.min(n, limit - 1);
+        System.arraycopy(top, at, top, at + 1, keep - at);
+        top[at] = rank;
+        return keep + 1;
+    }
+}
@@ -0,0 +1,269 @@
+import java.io.*;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.*;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+import java.util.zip.CRC32;
+
+// Hot standby fed by a ReplicationLeader. The leader's snapshot, ledger and journal bytes are written
+// to a mirror directory laid out like the leader's own (so a restarted follower recovers from it and
+// resumes where it stopped) and every complete record is applied to a local Warehouse, which
+// answers read-only queries meanwhile. Mutations only happen on the leader; ids, invoice numbers
+// and times all come from its records.
+//
+// On failover, promote() stops following and starts journaling into the mirror directory, after
+// which the warehouse can be served like any other.
+// Usage: java ReplicationFollower host:port [mirrorDir]   (default mirror is warehouse-replica)
+public class ReplicationFollower implements Closeable {
+    private static final long RETRY_MILLIS = 1000;
+
+    private final Path dir;
+    private final String host;
+    private final int port;
+    private final Thread thread;
+    private volatile Warehouse warehouse;
+    private volatile long position;   // end of the last record applied (and acknowledged)
+    private volatile boolean closed;
+    private volatile Socket socket;
+
+    // owned by the follower thread
+    private FileChannel segmentFile;
+    private int openSegment = -1;
+    private byte[] partial = new byte[1 << 16]; // received bytes past `position`, short of a record
+    private int partialLen;
+    private byte[] rec = new byte[256];
+    private final CRC32 crc = new CRC32();
+
+    // Recovers whatever the mirror directory holds, then follows the leader at host:port
+    public static ReplicationFollower start(Path dir, String host, int port) throws IOException {
+        Files.createDirectories(dir);
+        Warehouse w = new Warehouse();
+        long pos = WarehouseJournal.recover(dir, w);
+        return new ReplicationFollower(dir, host, port, w, pos);
+    }
+
+    private ReplicationFollower(Path dir, String host, int port, Warehouse warehouse, long position){
+        this.dir = dir;
+        this.host = host;
+        this.port = port;
+        this.warehouse = warehouse;
+        this.position = position;
+        thread = new Thread(this::followLoop, "replication-follower");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    // ---------------------- read-only queries ----------------------
+
+    public Collection<Product> getAllProducts(){ return warehouse.getAllProducts(); }
+    public List<String> getWaitlistView(String productId){ return warehouse.getWaitlistView(productId); }
+    public List<Transaction> getTransactionsForClient(String clientId){ return warehouse.getTransactionsForClient(clientId); }
+    public List<Transaction> getTransactionsForClient(String clientId, int offset, int limit){
+        return warehouse.getTransactionsForClient(clientId, offset, limit);
+    }
+
+    // The journal position applied so far; WarehouseJournal.NO_POSITION before the first snapshot
+    public long getPosition(){ return position; }
+    public boolean isConnected(){ Socket s = socket; return s != null && !s.isClosed(); }
+
+    // ---------------------- following ----------------------
+
+    private void followLoop(){
+        while (!closed){
+            try (Socket s = new Socket(host, port)){
+                socket = s;
+                s.setTcpNoDelay(true);
+                DataInputStream in = new DataInputStream(new BufferedInputStream(s.getInputStream(), 1 << 16));
+                DataOutputStream out = new DataOutputStream(new BufferedOutputStream(s.getOutputStream()));
+                resume();
+                out.writeInt(ReplicationLeader.MAGIC);
+                out.writeLong(position);
+                out.flush();
+                while (!closed){
+                    byte kind = in.readByte();
+                    if (kind == ReplicationLeader.SNAPSHOT) receiveSnapshot(in);
+                    else if (kind == ReplicationLeader.JOURNAL) receiveJournal(in);
+                    else throw new IOException("Unknown replication frame " + kind);
+                    out.writeLong(position);
+                    out.flush();
+                }
+            } catch (IOException e){
+                if (closed) return;
+            } catch (RuntimeException e){
+                // a record that does not apply: start over from the leader's snapshot
+                System.err.println("Replica diverged at " + describe(position) + ", resyncing: " + e);
+                position = WarehouseJournal.NO_POSITION;
+            } finally {
+                socket = null;
+            }
+            if (closed) return;
+            try { Thread.sleep(RETRY_MILLIS); }
+            catch (InterruptedException e) { return; }
+        }
+    }
+
+    // Drops bytes past the last applied record, which the leader will send again
+    private void resume() throws IOException {
+        partialLen = 0;
+        if (position == WarehouseJournal.NO_POSITION) return;
+        FileChannel ch = segment(WarehouseJournal.segmentOf(position));
+        if (ch.size() > WarehouseJournal.offsetOf(position)) ch.truncate(WarehouseJournal.offsetOf(position));
+    }
+
+    private void receiveSnapshot(DataInputStream in) throws IOException {
+        int seg = in.readInt();
+        long size = in.readLong();
+        Path tmp = dir.resolve("snapshot-" + seg + ".tmp");
+        try (FileOutputStream fos = new FileOutputStream(tmp.toFile())){
+            byte[] buf = new byte[1 << 16];
+            for (long left = size; left > 0; ){
+                int r = in.read(buf, 0, (int) Math.min(buf.length, left));
+                if (r < 0) throw new EOFException("Snapshot cut short");
+                fos.write(buf, 0, r);
+                left -= r;
+            }
+            fos.getFD().sync();
+        }
+        long records = in.readLong();
+        TransactionLedger.receive(dir, records, in);
+
+        // everything else in the mirror belongs to the history being replaced, and goes before the
+        // new ledger is put in place: the replaced snapshots refer to records it overwrites. The
+        // warehouse still serving queries keeps its own (unlinked) ledger files until it is closed.
+        closeSegment();
+        try (DirectoryStream<Path> ds = Files.newDirectoryStream(dir, "{journal-*.log,snapshot-*.bin,ledger-*.dat}")){
+            for (Path p : ds) Files.deleteIfExists(p);
+        }
+        TransactionLedger.install(dir, records);
+        Path file = dir.resolve("snapshot-" + seg + ".bin");
+        Files.move(tmp, file, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        Warehouse fresh = new Warehouse();
+        WarehouseJournal.readSnapshot(file, fresh);
+        segment(seg);
+        partialLen = 0;
+        Warehouse old = warehouse;
+        warehouse = fresh;
+        position = WarehouseJournal.position(seg, 0);
+        old.close();
+    }
+
+    private void receiveJournal(DataInputStream in) throws IOException {
+        int seg = in.readInt();
+        long off = in.readLong();
+        int len = in.readInt();
+        int at = WarehouseJournal.segmentOf(position);
+        long end = WarehouseJournal.offsetOf(position) + partialLen;
+        if (position != WarehouseJournal.NO_POSITION && seg > at && off == 0 && partialLen == 0){
+            // the leader rolled to a new segment (skipping only empty ones); the state here is where it starts
+            WarehouseJournal.writeSnapshot(dir, seg, warehouse);
+            closeSegment();
+            position = WarehouseJournal.position(seg, 0);
+        } else if (position == WarehouseJournal.NO_POSITION || seg != at || off != end){
+            throw new IOException("Expected journal at " + describe(position) + "+" + partialLen + ", got " + seg + ":" + off);
+        }
+
+        if (partial.length < partialLen + len) partial = Arrays.copyOf(partial, Math.max(partial.length * 2, partialLen + len));
+        in.readFully(partial, partialLen, len);
+        FileChannel ch = segment(seg);
+        ByteBuffer data = ByteBuffer.wrap(partial, partialLen, len);
+        for (long p = off; data.hasRemaining(); ) p += ch.write(data, p);
+        ch.force(false);
+        partialLen += len;
+        applyRecords();
+    }
+
+    // Applies every complete record in `partial` and keeps the rest for the next frame
+    private void applyRecords() throws IOException {
+        Warehouse w = warehouse;
+        int done = 0;
+        while (partialLen - done >= 4){
+            int len = ByteBuffer.wrap(partial, done, 4).getInt();
+            if (len <= 0 || len > (1 << 24)) throw new IOException("Bad record length " + len + " at " + describe(position));
+            if (partialLen - done < 4 + len + 4) break;
+            if (rec.length < len + 4) rec = new byte[Math.max(rec.length * 2, len + 4)];
+            System.arraycopy(partial, done + 4, rec, 0, len + 4);
+            crc.reset();
+            crc.update(rec, 0, len);
+            ByteBuffer b = ByteBuffer.wrap(rec, 0, len + 4);
+            if (b.getInt(len) != (int) crc.getValue()) throw new IOException("Bad record checksum at " + describe(position));
+            WarehouseJournal.apply(b, w);
+            done += 4 + len + 4;
+            position += 4 + len + 4;
+        }
+        System.arraycopy(partial, done, partial, 0, partialLen - done);
+        partialLen -= done;
+    }
+
+    private FileChannel segment(int seg) throws IOException {
+        if (openSegment != seg){
+            closeSegment();
+            segmentFile = FileChannel.open(dir.resolve("journal-" + seg + ".log"), StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+            openSegment = seg;
+        }
+        return segmentFile;
+    }
+
+    private void closeSegment() throws IOException {
+        if (segmentFile != null) segmentFile.close();
+        segmentFile = null;
+        openSegment = -1;
+    }
+
+    private static String describe(long pos){
+        return pos == WarehouseJournal.NO_POSITION ? "start" : WarehouseJournal.segmentOf(pos) + ":" + WarehouseJournal.offsetOf(pos);
+    }
+
+    // ---------------------- failover ----------------------
+
+    // Stops following and turns the replica into a journaled warehouse of its own, continuing the
+    // mirror directory from a fresh segment; the follower is closed afterwards
+    public Warehouse promote(boolean syncCommit, long snapshotSeconds) throws IOException {
+        stop();
+        int next = position == WarehouseJournal.NO_POSITION ? 1 : WarehouseJournal.segmentOf(position) + 1;
+        WarehouseJournal.adopt(dir, warehouse, syncCommit, next, snapshotSeconds);
+        return warehouse;
+    }
+
+    private void stop() throws IOException {
+        closed = true;
+        Socket s = socket;
+        if (s != null) s.close();
+        thread.interrupt();
+        boolean interrupted = false;
+        while (thread.isAlive()){
+            try { thread.join(); }
+            catch (InterruptedException e) { interrupted = true; }
+        }
+        if (interrupted) Thread.currentThread().interrupt();
+        closeSegment();
+    }
+
+    @Override
+    public void close() throws IOException {
+        stop();
+        warehouse.close();
+    }
+
+    public static void main(String[] args) throws IOException, InterruptedException {
+        if (args.length < 1 || args[0].lastIndexOf(':') < 0){
+            System.err.println("Usage: java ReplicationFollower host:port [mirrorDir]");
+            return;
+        }
+        int colon = args[0].lastIndexOf(':');
+        Path dir = Paths.get(args.length > 1 ? args[1] : "warehouse-replica");
+        ReplicationFollower f = start(dir, args[0].substring(0, colon), Integer.parseInt(args[0].substring(colon + 1)));
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+            try { f.close(); }
+            catch (IOException e) { System.err.println("Shutdown failed: " + e.getMessage()); }
+        }));
+        System.out.println("Following " + args[0] + " into " + dir);
+        while (true){
+            Thread.sleep(10_000);
+            System.out.println("replica at " + describe(f.getPosition()) + (f.isConnected() ? "" : " (disconnected)")
+                    + ", " + f.getAllProducts().size() + " products");
+        }
+    }
+}
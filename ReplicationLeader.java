@@ -0,0 +1,311 @@
+import java.io.*;
+import java.net.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.*;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.LongAdder;
+
+// Ships the journal to hot-standby followers (ReplicationFollower) over TCP on the loopback
+// interface. Nothing is re-encoded: followers get the leader's own segment bytes, up to the durable
+// end of the journal, and keep a copy of the same files.
+//
+// A follower opens with the position it has applied up to. When that segment is gone (or the
+// follower has nothing) it first gets the newest snapshot and then every segment from there on.
+// Followers acknowledge positions as they apply them.
+//
+// With syncAcks > 0, a commit that waits for its record to be durable also waits until syncAcks
+// followers have acknowledged it. Only followers that have caught up with the leader count. When
+// fewer than syncAcks of them are connected, a degrading leader lets commits go on without waiting
+// (asynchronous) rather than stall the warehouse; it logs when that starts and stops and counts
+// every such commit (getDegradedCommits). A strict leader blocks commits until enough followers
+// have caught up instead. A follower that takes longer than ackTimeoutMillis to answer is logged,
+// counted (getDroppedFollowers), disconnected and has to catch up again.
+//
+// Frames, leader to follower:
+//   'S' int segment | long length | snapshot bytes | long records | ledger bytes
+//       (the follower restarts from this state; the ledger records are the ones the snapshot covers)
+//   'J' int segment | long offset | int length | journal bytes   (may split a record)
+// Follower to leader: int MAGIC | long position, then one long position per acknowledgement.
+public class ReplicationLeader implements Closeable {
+    static final int MAGIC = 0x57485250; // "WHRP"
+    static final byte SNAPSHOT = 'S';
+    static final byte JOURNAL = 'J';
+    private static final int CHUNK = 1 << 20;
+
+    private final WarehouseJournal journal;
+    private final Path dir;
+    private final int syncAcks;
+    private final long ackTimeoutMillis;
+    private final boolean degrade;
+    private final ServerSocket server;
+    private final List<Session> sessions = new CopyOnWriteArrayList<>();
+    private final Object acks = new Object(); // signalled when an acknowledgement arrives or a follower joins or leaves
+    private volatile boolean closed;
+    private volatile boolean degraded;         // written under `acks`
+    private final LongAdder degradedCommits = new LongAdder();
+    private final LongAdder droppedFollowers = new LongAdder();
+
+    private final class Session {
+        final Socket socket;
+        volatile long acked = WarehouseJournal.NO_POSITION;
+        volatile boolean caughtUp;
+
+        Session(Socket socket){ this.socket = socket; }
+    }
+
+    // Listens on the loopback interface (port 0 picks a free one) and attaches to the journal;
+    // synchronous commits degrade to asynchronous while too few followers are connected
+    public static ReplicationLeader start(WarehouseJournal journal, int port, int syncAcks, long ackTimeoutMillis) throws IOException {
+        return start(journal, port, syncAcks, ackTimeoutMillis, true);
+    }
+
+    // As above; with degrade false, synchronous commits wait for followers to catch up instead
+    public static ReplicationLeader start(WarehouseJournal journal, int port, int syncAcks, long ackTimeoutMillis, boolean degrade) throws IOException {
+        ReplicationLeader rl = new ReplicationLeader(journal, port, syncAcks, ackTimeoutMillis, degrade);
+        journal.attachReplication(rl);
+        return rl;
+    }
+
+    private ReplicationLeader(WarehouseJournal journal, int port, int syncAcks, long ackTimeoutMillis, boolean degrade) throws IOException {
+        if (syncAcks < 0) throw new IllegalArgumentException("Sync acks must be >= 0");
+        if (ackTimeoutMillis <= 0) throw new IllegalArgumentException("Ack timeout must be > 0");
+        this.journal = journal;
+        this.dir = journal.dir();
+        this.syncAcks = syncAcks;
+        this.ackTimeoutMillis = ackTimeoutMillis;
+        this.degrade = degrade;
+        server = new ServerSocket();
+        server.setReuseAddress(true); // a restarted leader takes its port back at once
+        server.bind(new InetSocketAddress(InetAddress.getLoopbackAddress(), port), 16);
+        Thread t = new Thread(this::acceptLoop, "replication-accept");
+        t.setDaemon(true);
+        t.start();
+    }
+
+    public int getPort(){ return server.getLocalPort(); }
+    public int getFollowerCount(){ return sessions.size(); }
+    boolean isSync(){ return syncAcks > 0; }
+
+    // True while synchronous commits are going through unacknowledged for lack of followers
+    public boolean isDegraded(){ return degraded; }
+    // Commits that went through without the acknowledgements syncAcks asks for
+    public long getDegradedCommits(){ return degradedCommits.sum(); }
+    // Followers disconnected for not acknowledging within ackTimeoutMillis
+    public long getDroppedFollowers(){ return droppedFollowers.sum(); }
+
+    // Positions the connected followers have acknowledged
+    public long[] getAckedPositions(){
+        return sessions.stream().mapToLong(s -> s.acked).toArray();
+    }
+
+    // Blocks until syncAcks caught-up followers have acknowledged pos. While fewer than that are
+    // connected, a degrading leader returns at once and a strict one waits for them. Called by the
+    // journal after the record is durable locally.
+    void awaitAcked(long pos){
+        long deadline = System.currentTimeMillis() + ackTimeoutMillis;
+        synchronized (acks){
+            while (!closed){
+                int live = 0, have = 0;
+                for (Session s : sessions){
+                    if (!s.caughtUp) continue;
+                    live++;
+                    if (s.acked >= pos) have++;
+                }
+                if (have >= syncAcks){
+                    if (degraded){
+                        degraded = false;
+                        System.err.println("Replication synchronous again: " + live + " followers caught up");
+                    }
+                    return;
+                }
+                if (live < syncAcks){
+                    if (degrade){
+                        degradedCommits.increment();
+                        if (!degraded){
+                            degraded = true;
+                            System.err.println("Replication degraded to asynchronous: " + live + " of " + syncAcks + " followers caught up");
+                        }
+                        return;
+                    }
+                    // strict: the timeout only applies once enough followers are there to answer
+                    deadline = System.currentTimeMillis() + ackTimeoutMillis;
+                    try { acks.wait(ackTimeoutMillis); }
+                    catch (InterruptedException e) { Thread.currentThread().interrupt(); return; }
+                    continue;
+                }
+                long left = deadline - System.currentTimeMillis();
+                if (left <= 0){
+                    // drop the laggards so this and later commits stop waiting on them
+                    for (Session s : sessions){
+                        if (s.caughtUp && s.acked < pos){
+                            System.err.println("Follower " + s.socket.getRemoteSocketAddress() + " dropped: no acknowledgement within " + ackTimeoutMillis + "ms");
+                            droppedFollowers.increment();
+                            disconnect(s);
+                        }
+                    }
+                    continue;
+                }
+                try { acks.wait(left); }
+                catch (InterruptedException e) { Thread.currentThread().interrupt(); return; }
+            }
+        }
+    }
+
+    private void acceptLoop(){
+        while (!closed){
+            Socket s;
+            try { s = server.accept(); }
+            catch (IOException e) {
+                if (closed) return;
+                System.err.println("Replication accept failed: " + e.getMessage());
+                continue;
+            }
+            Thread t = new Thread(() -> serve(s), "replication-" + s.getPort());
+            t.setDaemon(true);
+            t.start();
+        }
+    }
+
+    // ---------------------- one follower ----------------------
+
+    private void serve(Socket socket){
+        Session session = new Session(socket);
+        try {
+            socket.setTcpNoDelay(true);
+            DataInputStream in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream(), 1 << 16));
+            if (in.readInt() != MAGIC) throw new IOException("Not a warehouse follower");
+            long pos = in.readLong();
+            session.acked = pos;
+            sessions.add(session);
+            Thread reader = new Thread(() -> readAcks(session, in), "replication-acks-" + socket.getPort());
+            reader.setDaemon(true);
+            reader.start();
+            ship(session, pos, out);
+        } catch (IOException e){
+            if (!closed && !socket.isClosed()) System.err.println("Follower " + socket.getRemoteSocketAddress() + " dropped: " + e.getMessage());
+        } finally {
+            disconnect(session);
+        }
+    }
+
+    // Sends everything from pos on, then follows the journal as it grows
+    private void ship(Session session, long pos, DataOutputStream out) throws IOException {
+        while (!closed){
+            long durable = journal.durablePosition();
+            int seg = WarehouseJournal.segmentOf(pos);
+            long off = WarehouseJournal.offsetOf(pos);
+            if (pos == WarehouseJournal.NO_POSITION || pos > durable){
+                // nothing yet, or a history this leader does not have
+                pos = sendSnapshot(out);
+                continue;
+            }
+            if (pos == durable){
+                out.flush();
+                if (!session.caughtUp){
+                    synchronized (acks){
+                        session.caughtUp = true;
+                        acks.notifyAll();
+                    }
+                }
+                try { journal.awaitDurablePosition(durable, 1000); }
+                catch (InterruptedException e) { return; }
+                continue;
+            }
+            Path file = dir.resolve("journal-" + seg + ".log");
+            try (FileChannel ch = FileChannel.open(file, StandardOpenOption.READ)){
+                // a finished segment is shipped to its end, the current one up to the durable offset
+                long end = seg < WarehouseJournal.segmentOf(durable) ? ch.size() : WarehouseJournal.offsetOf(durable);
+                if (off > end){
+                    pos = sendSnapshot(out);
+                    continue;
+                }
+                sendRange(ch, seg, off, end, out);
+                out.flush();
+                pos = seg < WarehouseJournal.segmentOf(durable) ? WarehouseJournal.position(seg + 1, 0) : durable;
+            } catch (NoSuchFileException e){
+                // the follower is behind the newest snapshot
+                pos = sendSnapshot(out);
+            }
+        }
+    }
+
+    private void sendRange(FileChannel ch, int seg, long from, long to, DataOutputStream out) throws IOException {
+        ByteBuffer buf = ByteBuffer.allocate((int) Math.min(CHUNK, Math.max(0, to - from)));
+        for (long off = from; off < to; ){
+            buf.clear();
+            buf.limit((int) Math.min(buf.capacity(), to - off));
+            while (buf.hasRemaining()){
+                if (ch.read(buf, off + buf.position()) < 0) throw new EOFException("Segment " + seg + " ended early");
+            }
+            out.writeByte(JOURNAL);
+            out.writeInt(seg);
+            out.writeLong(off);
+            out.writeInt(buf.position());
+            out.write(buf.array(), 0, buf.position());
+            off += buf.position();
+        }
+    }
+
+    // Sends the newest snapshot with the ledger records it covers and returns the position it is
+    // the state at. Those records never change, so they are read from the ledger files as they are.
+    private long sendSnapshot(DataOutputStream out) throws IOException {
+        while (true){
+            int n = WarehouseJournal.latestSnapshot(dir);
+            if (n <= 0) throw new IOException("No snapshot to start a follower from");
+            try (InputStream in = Files.newInputStream(dir.resolve("snapshot-" + n + ".bin"))){
+                long size = Files.size(dir.resolve("snapshot-" + n + ".bin"));
+                long records = WarehouseJournal.snapshotLedgerRecords(dir.resolve("snapshot-" + n + ".bin"));
+                out.writeByte(SNAPSHOT);
+                out.writeInt(n);
+                out.writeLong(size);
+                byte[] buf = new byte[1 << 16];
+                for (long left = size; left > 0; ){
+                    int r = in.read(buf, 0, (int) Math.min(buf.length, left));
+                    if (r < 0) throw new EOFException("Snapshot " + n + " ended early");
+                    out.write(buf, 0, r);
+                    left -= r;
+                }
+                out.writeLong(records);
+                TransactionLedger.copyTo(dir, records, out);
+                out.flush();
+                return WarehouseJournal.position(n, 0);
+            } catch (NoSuchFileException e){
+                // replaced by a newer one in the meantime
+            }
+        }
+    }
+
+    private void readAcks(Session session, DataInputStream in){
+        try {
+            while (true){
+                long pos = in.readLong();
+                synchronized (acks){
+                    session.acked = pos;
+                    acks.notifyAll();
+                }
+            }
+        } catch (IOException e){
+            disconnect(session);
+        }
+    }
+
+    private void disconnect(Session session){
+        try { session.socket.close(); } catch (IOException e) { /* already closed */ }
+        synchronized (acks){
+            if (sessions.remove(session)) acks.notifyAll();
+        }
+    }
+
+    // Stops listening and drops every follower; commits no longer wait for acknowledgements
+    @Override
+    public void close() throws IOException {
+        closed = true;
+        journal.attachReplication(null);
+        server.close();
+        for (Session s : sessions) disconnect(s);
+        synchronized (acks){ acks.notifyAll(); }
+    }
+}
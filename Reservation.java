@@ -0,0 +1,33 @@
+// Units set aside for one client's checkout. They stay out of everyone else's reach until the
+// reservation is committed (sold), released, or expires.
+public class Reservation {
+    private final long id;
+    private final int client;
+    private final int[] products;
+    private final int[] quantities;
+    private final long expiresAt; // epoch millis
+
+    Reservation(long id, int client, int[] products, int[] quantities, long expiresAt){
+        this.id = id; this.client = client;
+        this.products = products; this.quantities = quantities;
+        this.expiresAt = expiresAt;
+    }
+
+    public long getId(){ return id; }
+    public String getClientId(){ return Ids.clientId(client); }
+    public int size(){ return products.length; }
+    public String getProductId(int i){ return Ids.productId(products[i]); }
+    public int getQuantity(int i){ return quantities[i]; }
+    public long getExpiresAt(){ return expiresAt; }
+    public boolean isExpired(long now){ return now >= expiresAt; }
+
+    int client(){ return client; }
+    int product(int i){ return products[i]; }
+
+    @Override
+    public String toString(){
+        StringBuilder sb = new StringBuilder("R").append(id).append(" | ").append(getClientId());
+        for (int i = 0; i < products.length; i++) sb.append(" | ").append(getProductId(i)).append(" x").append(quantities[i]);
+        return sb.toString();
+    }
+}
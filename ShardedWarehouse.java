@@ -0,0 +1,195 @@
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+// Splits clients and products across N in-process Warehouse shards, each with its own registries,
+// stripe locks, ledger and events. Ids are numbered here, across all shards, and an entity lives
+// on shard number % N, stored at slot number / N so each shard's registries stay dense. Operations on one entity go straight to its shard. Orders
+// always run as a two-phase reserve/commit, which stays on one shard when the client and its
+// products share it:
+//   1. hold the wanted units on every product shard involved, in shard order;
+//   2. let the allocation policy decide on what was held, bill the client on its shard (only if
+//      the wishlist is still what was read), then settle each product shard: held units are sold or
+//      released, shortfalls waitlisted. If the wishlist changed in between, everything is released
+//      and the order starts over.
+// Waitlist fills from a shipment are billed on the client's shard after the product is restocked.
+// Orders and shipments must go through this class: a shard's own placeOrder and receiveShipment
+// only know the clients and products on that shard.
+public class ShardedWarehouse implements Closeable {
+    private final Warehouse[] shards;
+    private final AtomicInteger clientSeq = new AtomicInteger(1);
+    private final AtomicInteger productSeq = new AtomicInteger(1);
+
+    public ShardedWarehouse(int shards){
+        if (shards <= 0) throw new IllegalArgumentException("Shard count must be > 0");
+        this.shards = new Warehouse[shards];
+        for (int i = 0; i < shards; i++) this.shards[i] = new Warehouse(shards, i);
+    }
+
+    public int shardCount(){ return shards.length; }
+    public Warehouse shard(int i){ return shards[i]; }
+
+    // the shard an id number lives on
+    public int shardOf(int index){
+        return Math.floorMod(index, shards.length);
+    }
+
+    // The shard holding a client or product, for the single-entity reads (statements, waitlist
+    // views, history) that Warehouse already offers
+    public Warehouse clientShard(String clientId){ return shardFor(Ids.clientIndex(clientId), clientId, "Client"); }
+    public Warehouse productShard(String productId){ return shardFor(Ids.productIndex(productId), productId, "Product"); }
+
+    private Warehouse shardFor(int index, String id, String kind){
+        if (index <= 0) throw new IllegalArgumentException(kind + " not found: " + id);
+        return shards[shardOf(index)];
+    }
+
+    public String addClient(String name, String address){
+        int index = clientSeq.getAndIncrement();
+        return shards[shardOf(index)].addClient(index, name, address);
+    }
+
+    public String addProduct(String name, int stock, double price){
+        return addProductCents(name, stock, Money.fromDouble(price));
+    }
+
+    public String addProductCents(String name, int stock, long price){
+        if (price < 0) throw new IllegalArgumentException("Price must be >= 0");
+        int index = productSeq.getAndIncrement();
+        return shards[shardOf(index)].addProductCents(index, name, stock, price);
+    }
+
+    public Client findClient(String clientId){
+        int index = Ids.clientIndexIgnoreCase(clientId == null ? null : clientId.trim());
+        return index <= 0 ? null : shards[shardOf(index)].findClient(clientId);
+    }
+
+    public Product findProduct(String productId){
+        int index = Ids.productIndex(productId);
+        return index <= 0 ? null : shards[shardOf(index)].product(index);
+    }
+
+    public void addOrUpdateWishlistItem(String clientId, String productId, int qty){
+        Warehouse home = clientShard(clientId);
+        Client c = home.requireClient(clientId);
+        Product p = productShard(productId).requireProduct(productId);
+        home.addOrUpdateWishlistItem(c, p.getIndex(), qty);
+    }
+
+    public void copyWishlist(String clientId, WishlistMap out){ clientShard(clientId).copyWishlist(clientId, out); }
+
+    public void recordPaymentCents(String clientId, long cents){ clientShard(clientId).recordPaymentCents(clientId, cents); }
+
+    public int placeOrder(String clientId){ return placeOrder(clientId, AllocationPolicy.GREEDY); }
+
+    // Returns the number of lines filled, as Warehouse.placeOrder does
+    public int placeOrder(String clientId, AllocationPolicy policy){
+        if (policy == null) throw new IllegalArgumentException("Missing allocation policy");
+        Warehouse home = clientShard(clientId);
+        Client c = home.requireClient(clientId);
+        WishlistMap lines = new WishlistMap();
+        while (true){
+            home.copyOrderLines(c, lines);
+            int n = lines.size();
+            if (n == 0) return 0;
+            int[] pidx = new int[n], want = new int[n], shardOfLine = new int[n];
+            for (int i = 0; i < n; i++){
+                pidx[i] = lines.product(i);
+                want[i] = lines.quantity(i);
+                shardOfLine[i] = shardOf(pidx[i]);
+            }
+
+            // phase one: hold what is available, shard by shard
+            int[] held = new int[n];
+            for (int s = 0; s < shards.length; s++){
+                int[] at = linesOn(shardOfLine, s);
+                if (at.length == 0) continue;
+                int[] got = shards[s].hold(pick(pidx, at), pick(want, at));
+                for (int k = 0; k < at.length; k++) held[at[k]] = got[k];
+            }
+
+            // the policy decides on the held units; missing products count as not wanted
+            int[] wanted = new int[n], available = new int[n], sold = new int[n], shortfall = new int[n];
+            long[] unitCents = new long[n];
+            for (int i = 0; i < n; i++){
+                if (held[i] < 0) continue;
+                wanted[i] = want[i];
+                available[i] = held[i];
+                unitCents[i] = shards[shardOfLine[i]].product(pidx[i]).getPriceCents();
+            }
+            boolean accepted = policy.allocate(wanted, available, sold);
+            int filled = 0;
+            for (int i = 0; i < n; i++){
+                if (!accepted){ sold[i] = 0; continue; }
+                if (sold[i] > 0) filled++;
+                if (policy.waitlistsShortfall()) shortfall[i] = wanted[i] - sold[i];
+            }
+
+            // phase two: the client first, so a changed wishlist aborts before anything is sold
+            boolean billed = home.billOrder(c, lines, pidx, sold, unitCents, policy, accepted, System.currentTimeMillis()) >= 0;
+            for (int s = 0; s < shards.length; s++){
+                int[] at = linesOn(shardOfLine, s);
+                if (at.length == 0) continue;
+                if (billed) shards[s].settle(pick(pidx, at), pick(held, at), pick(sold, at), c.getIndex(), pick(shortfall, at), c.getTier());
+                else shards[s].settle(pick(pidx, at), pick(held, at), null, 0, null, 0);
+            }
+            if (billed) return filled;
+        }
+    }
+
+    public void receiveShipment(String productId, int quantity){
+        if (quantity <= 0) throw new IllegalArgumentException("Quantity must be > 0");
+        Product p = productShard(productId).requireProduct(productId);
+        long time = System.currentTimeMillis();
+        FillList remote = shards[shardOf(p.getIndex())].ship(p, quantity, time);
+        for (int i = 0; i < remote.size(); i++){
+            Warehouse home = shards[shardOf(remote.client(i))];
+            Client c = home.client(remote.client(i));
+            if (c != null) home.billFill(c, p.getIndex(), p.getPriceCents(), remote.quantity(i), time);
+        }
+    }
+
+    public long getTotalReceivablesCents(){
+        long total = 0;
+        for (Warehouse w : shards) total += w.getTotalReceivablesCents();
+        return total;
+    }
+
+    public int getClientCount(){
+        int n = 0;
+        for (Warehouse w : shards) n += w.getAllClients().size();
+        return n;
+    }
+
+    public int getProductCount(){
+        int n = 0;
+        for (Warehouse w : shards) n += w.getAllProducts().size();
+        return n;
+    }
+
+    // positions of the lines on shard s
+    private static int[] linesOn(int[] shardOfLine, int s){
+        int n = 0;
+        for (int x : shardOfLine) if (x == s) n++;
+        int[] at = new int[n];
+        n = 0;
+        for (int i = 0; i < shardOfLine.length; i++) if (shardOfLine[i] == s) at[n++] = i;
+        return at;
+    }
+
+    private static int[] pick(int[] values, int[] at){
+        int[] out = new int[at.length];
+        for (int k = 0; k < at.length; k++) out[k] = values[at[k]];
+        return out;
+    }
+
+    @Override
+    public void close() throws IOException {
+        IOException first = null;
+        for (Warehouse w : shards){
+            try { w.close(); }
+            catch (IOException e) { if (first == null) first = e; }
+        }
+        if (first != null) throw first;
+    }
+}
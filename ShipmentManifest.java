@@ -0,0 +1,61 @@
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.util.Arrays;
+
+// Lines of one inbound shipment: product id and quantity received.
+// File format: one "productId,quantity" per line; blank lines and lines starting with # are skipped.
+public class ShipmentManifest {
+    private String[] productIds = new String[16];
+    private int[] quantities = new int[16];
+    private int size;
+
+    public void add(String productId, int qty){
+        if (productId == null || productId.isEmpty()) throw new IllegalArgumentException("Missing product id");
+        if (qty <= 0) throw new IllegalArgumentException("Quantity must be > 0 for " + productId);
+        if (size == productIds.length){
+            productIds = Arrays.copyOf(productIds, size * 2);
+            quantities = Arrays.copyOf(quantities, size * 2);
+        }
+        productIds[size] = productId;
+        quantities[size] = qty;
+        size++;
+    }
+
+    public int size(){ return size; }
+    public String productId(int i){ return productIds[i]; }
+    public int quantity(int i){ return quantities[i]; }
+
+    public long totalUnits(){
+        long n = 0;
+        for (int i = 0; i < size; i++) n += quantities[i];
+        return n;
+    }
+
+    public static ShipmentManifest read(Path file) throws IOException {
+        try (BufferedReader in = Files.newBufferedReader(file, StandardCharsets.UTF_8)){
+            return read(in);
+        }
+    }
+
+    public static ShipmentManifest read(BufferedReader in) throws IOException {
+        ShipmentManifest m = new ShipmentManifest();
+        String line;
+        int lineNo = 0;
+        while ((line = in.readLine()) != null){
+            lineNo++;
+            line = line.trim();
+            if (line.isEmpty() || line.startsWith("#")) continue;
+            int comma = line.indexOf(',');
+            if (comma < 0) throw new IllegalArgumentException("Line " + lineNo + ": expected productId,quantity");
+            try {
+                m.add(line.substring(0, comma).trim().toUpperCase(), Integer.parseInt(line.substring(comma + 1).trim()));
+            } catch (NumberFormatException e){
+                throw new IllegalArgumentException("Line " + lineNo + ": bad quantity");
+            } catch (IllegalArgumentException e){
+                throw new IllegalArgumentException("Line " + lineNo + ": " + e.getMessage());
+            }
+        }
+        return m;
+    }
+}
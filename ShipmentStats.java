@@ -0,0 +1,28 @@
+// Outcome of Warehouse.receiveShipments for one manifest
+public class ShipmentStats {
+    private final int lines;
+    private final int products;
+    private final long unitsToWaitlist;
+    private final long unitsToStock;
+    private final int clientsTouched;
+    private final int transactions;
+
+    public ShipmentStats(int lines, int products, long unitsToWaitlist, long unitsToStock, int clientsTouched, int transactions){
+        this.lines = lines; this.products = products;
+        this.unitsToWaitlist = unitsToWaitlist; this.unitsToStock = unitsToStock;
+        this.clientsTouched = clientsTouched; this.transactions = transactions;
+    }
+
+    public int getLines(){ return lines; }
+    public int getProducts(){ return products; }
+    public long getUnitsToWaitlist(){ return unitsToWaitlist; }
+    public long getUnitsToStock(){ return unitsToStock; }
+    public int getClientsTouched(){ return clientsTouched; }
+    public int getTransactions(){ return transactions; }
+
+    @Override
+    public String toString(){
+        return lines + " lines | " + products + " products | to waitlist=" + unitsToWaitlist +
+               " | to stock=" + unitsToStock + " | clients=" + clientsTouched + " | invoices=" + transactions;
+    }
+}
@@ -0,0 +1,6 @@
+// How a ClientStatement groups a client's purchases
+public enum StatementGrouping {
+    DAY,     // calendar days (UTC), newest first
+    MONTH,   // calendar months (UTC), newest first
+    PRODUCT  // products bought, biggest spend first
+}
@@ -0,0 +1,54 @@
+import java.util.Arrays;
+import java.util.concurrent.locks.ReentrantLock;
+
+// Fixed pool of locks shared by many keys; each key hashes onto one stripe
+public class StripedLocks {
+    private final ReentrantLock[] stripes;
+    private final int mask;
+
+    public StripedLocks(int minStripes){
+        int n = 1;
+        while (n < minStripes) n <<= 1;
+        stripes = new ReentrantLock[n];
+        for (int i = 0; i < n; i++) stripes[i] = new ReentrantLock();
+        mask = n - 1;
+    }
+
+    public int stripeFor(Object key){
+        int h = key.hashCode();
+        return (h ^ (h >>> 16)) & mask;
+    }
+
+    public int stripeFor(int key){
+        int h = key * 0x9E3779B9;
+        return (h ^ (h >>> 16)) & mask;
+    }
+
+    public ReentrantLock lockFor(Object key){ return stripes[stripeFor(key)]; }
+    public ReentrantLock lockFor(int key){ return stripes[stripeFor(key)]; }
+
+    // Locks every stripe once, lowest index first, so two callers can never deadlock.
+    // Returns the stripes actually held; pass it to unlockAll.
+    public int[] lockAll(int[] wanted){
+        int[] sorted = wanted.clone();
+        Arrays.sort(sorted);
+        int n = 0;
+        for (int i = 0; i < sorted.length; i++){
+            if (i == 0 || sorted[i] != sorted[i - 1]) sorted[n++] = sorted[i];
+        }
+        int[] held = Arrays.copyOf(sorted, n);
+        for (int i = 0; i < n; i++) stripes[held[i]].lock();
+        return held;
+    }
+
+    // Locks every stripe in the pool, for stop-the-world work like snapshots
+    public int[] lockEverything(){
+        int[] all = new int[stripes.length];
+        for (int i = 0; i < all.length; i++) all[i] = i;
+        return lockAll(all);
+    }
+
+    public void unlockAll(int[] held){
+        for (int i = held.length - 1; i >= 0; i--) stripes[held[i]].unlock();
+    }
+}
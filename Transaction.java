@@ -1,32 +1,49 @@
+import java.util.concurrent.atomic.AtomicInteger;
+
+// Read-only view of one invoice; the ledger holds the actual record
 public class Transaction {
-    private static int next = 1;
+    private static final AtomicInteger next = new AtomicInteger(1);
 
-    private final String id;         // T1, T2, ... (invoices)
-    private final String clientId;
-    private final String productId;
+    private final int number;        // T1, T2, ... (invoices)
+    private final int client;
+    private final int product;
     private final int quantity;
-    private final double unitPrice;
-    private final double total;
+    private final long unitPrice; // cents
+    private final long total;
+    private final long time; // epoch millis
 
-    public Transaction(String clientId, String productId, int quantity, double unitPrice){
-        this.id = "T" + (next++);
-        this.clientId = clientId;
-        this.productId = productId;
+    Transaction(int number, int client, int product, int quantity, long unitPrice, long time){
+        this.number = number;
+        this.client = client;
+        this.product = product;
         this.quantity = quantity;
         this.unitPrice = unitPrice;
-        this.total = unitPrice * quantity;
+        this.total = Money.times(unitPrice, quantity);
+        this.time = time;
     }
 
-    public String getId(){ return id; }
-    public String getClientId(){ return clientId; }
-    public String getProductId(){ return productId; }
+    // Reserves n consecutive invoice numbers and returns the first
+    static int reserveIds(int n){ return next.getAndAdd(n); }
+    // Keeps the counter ahead of numbers restored from disk
+    static void advancePast(int number){ next.accumulateAndGet(number + 1, Math::max); }
+    static int peekNext(){ return next.get(); }
+
+    public String getId(){ return "T" + number; }
+    public int getNumber(){ return number; }
+    public String getClientId(){ return Ids.clientId(client); }
+    public String getProductId(){ return Ids.productId(product); }
     public int getQuantity(){ return quantity; }
-    public double getUnitPrice(){ return unitPrice; }
-    public double getTotal(){ return total; }
+    public long getUnitPriceCents(){ return unitPrice; }
+    public long getTotalCents(){ return total; }
+    public double getUnitPrice(){ return Money.toDouble(unitPrice); }
+    public double getTotal(){ return Money.toDouble(total); }
+    public long getTime(){ return time; }
 
     @Override
     public String toString(){
-        return id + " | " + clientId + " | " + productId + " | qty=" + quantity +
-               " | $" + String.format("%.2f", unitPrice) + " | total=$" + String.format("%.2f", total);
+        StringBuilder sb = new StringBuilder(64).append(getId()).append(" | ").append(getClientId())
+                .append(" | ").append(getProductId()).append(" | qty=").append(quantity).append(" | $");
+        Money.appendTo(sb, unitPrice).append(" | total=$");
+        return Money.appendTo(sb, total).toString();
     }
 }
@@ -0,0 +1,228 @@
+import java.io.*;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.*;
+import java.util.*;
+import java.util.concurrent.atomic.AtomicLong;
+
+// Append-only store of invoice records in memory-mapped files, so transaction history
+// stays off the Java heap. Records are fixed width and addressed by record number:
+//   int invoice | int client | int product | int qty | long unit price in cents | long previous record of the same client
+//   | long time (epoch millis) | int position in the client's history | (unused int) | long skip record
+// Each record links to the client's previous one, so a chain can be walked from its newest record.
+// The skip links form a skew-binary jump list along the chain, so seek finds the record at any
+// position of a client's history in O(log n) reads, with nothing kept per client on the heap.
+// A journaled warehouse keeps its ledger next to the journal: records never change once written,
+// so a snapshot only notes how many records it covers, and recovery re-indexes those and replays
+// the journal on top (records past that count are simply overwritten).
+public class TransactionLedger implements Closeable {
+    static final int RECORD_BYTES = 56;
+    private static final int SEGMENT_SHIFT = 18; // 2^18 records = 14 MiB per segment file
+    private static final int SEGMENT_RECORDS = 1 << SEGMENT_SHIFT;
+    private static final long SEGMENT_BYTES = (long) SEGMENT_RECORDS * RECORD_BYTES;
+
+    private static final int NUMBER = 0, CLIENT = 4, PRODUCT = 8, QTY = 12, CENTS = 16, PREV = 24, TIME = 32, POS = 40, SKIP = 48;
+
+    // Callback for streaming reads; nothing is allocated per record
+    public interface Visitor {
+        // return false to stop
+        boolean visit(int number, int client, int product, int qty, long unitCents);
+    }
+
+    private final Path dir;
+    private final boolean deleteOnClose;
+    private final AtomicLong next = new AtomicLong();
+    private volatile MappedByteBuffer[] segments = new MappedByteBuffer[0];
+    private final List<FileChannel> channels = new ArrayList<>();
+
+    // A ledger in a fresh temporary directory that is removed again on close or exit
+    public static TransactionLedger temporary(){
+        try {
+            String base = System.getProperty("warehouse.ledgerDir");
+            Path dir = base == null ? Files.createTempDirectory("warehouse-ledger")
+                                    : Files.createTempDirectory(Files.createDirectories(Paths.get(base)), "ledger");
+            dir.toFile().deleteOnExit();
+            return new TransactionLedger(dir, true);
+        } catch (IOException e){
+            throw new UncheckedIOException("Cannot create transaction ledger", e);
+        }
+    }
+
+    // A ledger kept in dir across restarts; it starts empty until recovery calls restoreSize
+    public static TransactionLedger persistent(Path dir){
+        return new TransactionLedger(dir, false);
+    }
+
+    // Starts an empty ledger in dir; records already in its segment files are overwritten as it grows
+    public TransactionLedger(Path dir, boolean deleteOnClose){
+        this.dir = dir;
+        this.deleteOnClose = deleteOnClose;
+    }
+
+    Path dir(){ return dir; }
+
+    // Recovery: the first `records` records on disk are valid and appends continue after them
+    void restoreSize(long records) throws IOException {
+        if (next.get() != 0) throw new IllegalStateException("Ledger already has records");
+        for (long seg = 0; seg * SEGMENT_RECORDS < records; seg++){
+            Path file = dir.resolve("ledger-" + seg + ".dat");
+            long need = Math.min(SEGMENT_RECORDS, records - seg * SEGMENT_RECORDS) * RECORD_BYTES;
+            if (!Files.exists(file) || Files.size(file) < need) throw new IOException("Ledger " + file + " is missing records");
+        }
+        if (records > 0) segment(records - 1);
+        next.set(records);
+    }
+
+    // Makes the first `records` records durable
+    void force(long records){
+        MappedByteBuffer[] segs = segments;
+        for (int i = 0; i < segs.length && (long) i * SEGMENT_RECORDS < records; i++) segs[i].force();
+    }
+
+    // Appends one record and returns its record number; prevForClient is the client's newest record, or -1
+    public long append(int number, int client, int product, int qty, long unitCents, long time, long prevForClient){
+        // skip to where prev skips to when that would make two equal hops, else to prev itself
+        long skip = prevForClient;
+        if (prevForClient >= 0){
+            long s1 = skip(prevForClient);
+            if (s1 >= 0 && position(prevForClient) - position(s1) == position(s1) - positionOf(skip(s1))) skip = skip(s1);
+        }
+        int pos = prevForClient < 0 ? 0 : position(prevForClient) + 1;
+        long rec = next.getAndIncrement();
+        MappedByteBuffer seg = segment(rec);
+        int off = (int) (rec & (SEGMENT_RECORDS - 1)) * RECORD_BYTES;
+        seg.putInt(off + POS, pos);
+        seg.putLong(off + SKIP, skip);
+        seg.putInt(off + NUMBER, number);
+        seg.putInt(off + CLIENT, client);
+        seg.putInt(off + PRODUCT, product);
+        seg.putInt(off + QTY, qty);
+        seg.putLong(off + CENTS, unitCents);
+        seg.putLong(off + PREV, prevForClient);
+        seg.putLong(off + TIME, time);
+        return rec;
+    }
+
+    public long size(){ return next.get(); }
+
+    public int number(long rec){ return buf(rec).getInt(off(rec) + NUMBER); }
+    public int client(long rec){ return buf(rec).getInt(off(rec) + CLIENT); }
+    public int product(long rec){ return buf(rec).getInt(off(rec) + PRODUCT); }
+    public int quantity(long rec){ return buf(rec).getInt(off(rec) + QTY); }
+    public long unitCents(long rec){ return buf(rec).getLong(off(rec) + CENTS); }
+    public long previous(long rec){ return buf(rec).getLong(off(rec) + PREV); }
+    public long time(long rec){ return buf(rec).getLong(off(rec) + TIME); }
+    // 0 for a client's first record, 1 for the next, ...
+    public int position(long rec){ return buf(rec).getInt(off(rec) + POS); }
+    private long skip(long rec){ return buf(rec).getLong(off(rec) + SKIP); }
+    private int positionOf(long rec){ return rec < 0 ? -1 : position(rec); }
+
+    // The record at position pos of the chain ending at newest, or -1 if the chain is shorter
+    public long seek(long newest, int pos){
+        if (pos < 0 || newest < 0 || position(newest) < pos) return -1;
+        long rec = newest;
+        while (position(rec) > pos){
+            long s = skip(rec);
+            rec = positionOf(s) >= pos ? s : previous(rec);
+        }
+        return rec;
+    }
+
+    public Transaction read(long rec){
+        MappedByteBuffer b = buf(rec);
+        int o = off(rec);
+        return new Transaction(b.getInt(o + NUMBER), b.getInt(o + CLIENT), b.getInt(o + PRODUCT),
+                b.getInt(o + QTY), b.getLong(o + CENTS), b.getLong(o + TIME));
+    }
+
+    // Walks a client's chain from its newest record backwards
+    public void walk(long newest, Visitor v){
+        for (long rec = newest; rec >= 0; ){
+            MappedByteBuffer b = buf(rec);
+            int o = off(rec);
+            if (!v.visit(b.getInt(o + NUMBER), b.getInt(o + CLIENT), b.getInt(o + PRODUCT), b.getInt(o + QTY), b.getLong(o + CENTS))) return;
+            rec = b.getLong(o + PREV);
+        }
+    }
+
+    // ---------------------- replication ----------------------
+
+    // Writes the first `records` records of the ledger in dir as one byte stream
+    static void copyTo(Path dir, long records, DataOutputStream out) throws IOException {
+        byte[] buf = new byte[1 << 16];
+        for (long seg = 0; seg * SEGMENT_RECORDS < records; seg++){
+            long bytes = Math.min(SEGMENT_RECORDS, records - seg * SEGMENT_RECORDS) * RECORD_BYTES;
+            try (InputStream in = Files.newInputStream(dir.resolve("ledger-" + seg + ".dat"))){
+                for (long left = bytes; left > 0; ){
+                    int r = in.read(buf, 0, (int) Math.min(buf.length, left));
+                    if (r < 0) throw new EOFException("Ledger segment " + seg + " ended early");
+                    out.write(buf, 0, r);
+                    left -= r;
+                }
+            }
+        }
+    }
+
+    // Reads what copyTo wrote into temporary segment files in dir; install renames them into place,
+    // so a ledger still mapping the old files keeps reading those
+    static void receive(Path dir, long records, DataInputStream in) throws IOException {
+        byte[] buf = new byte[1 << 16];
+        for (long seg = 0; seg * SEGMENT_RECORDS < records; seg++){
+            long bytes = Math.min(SEGMENT_RECORDS, records - seg * SEGMENT_RECORDS) * RECORD_BYTES;
+            try (FileOutputStream fos = new FileOutputStream(dir.resolve("ledger-" + seg + ".tmp").toFile())){
+                for (long left = bytes; left > 0; ){
+                    int r = in.read(buf, 0, (int) Math.min(buf.length, left));
+                    if (r < 0) throw new EOFException("Ledger cut short");
+                    fos.write(buf, 0, r);
+                    left -= r;
+                }
+                fos.getFD().sync();
+            }
+        }
+    }
+
+    static void install(Path dir, long records) throws IOException {
+        for (long seg = 0; seg * SEGMENT_RECORDS < records; seg++){
+            Files.move(dir.resolve("ledger-" + seg + ".tmp"), dir.resolve("ledger-" + seg + ".dat"),
+                    StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        }
+    }
+
+    private MappedByteBuffer buf(long rec){ return segments[(int) (rec >>> SEGMENT_SHIFT)]; }
+    private static int off(long rec){ return (int) (rec & (SEGMENT_RECORDS - 1)) * RECORD_BYTES; }
+
+    private MappedByteBuffer segment(long rec){
+        int idx = (int) (rec >>> SEGMENT_SHIFT);
+        MappedByteBuffer[] segs = segments;
+        if (idx < segs.length) return segs[idx];
+        synchronized (this){
+            segs = segments;
+            while (idx >= segs.length){
+                try {
+                    FileChannel ch = FileChannel.open(dir.resolve("ledger-" + segs.length + ".dat"),
+                            StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+                    channels.add(ch);
+                    MappedByteBuffer m = ch.map(FileChannel.MapMode.READ_WRITE, 0, SEGMENT_BYTES);
+                    segs = Arrays.copyOf(segs, segs.length + 1);
+                    segs[segs.length - 1] = m;
+                    if (deleteOnClose) dir.resolve("ledger-" + (segs.length - 1) + ".dat").toFile().deleteOnExit();
+                } catch (IOException e){
+                    throw new UncheckedIOException("Cannot grow transaction ledger", e);
+                }
+            }
+            segments = segs;
+            return segs[idx];
+        }
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        for (FileChannel ch : channels) ch.close();
+        channels.clear();
+        if (deleteOnClose){
+            for (int i = 0; i < segments.length; i++) Files.deleteIfExists(dir.resolve("ledger-" + i + ".dat"));
+            Files.deleteIfExists(dir);
+        }
+        segments = new MappedByteBuffer[0];
+    }
+}
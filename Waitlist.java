@@ -0,0 +1,127 @@
+// First In, First Out queue of (client index, quantity, tier) kept in parallel int rings.
+// A client appears at most once: asking again adds to the existing entry and keeps its place.
+// The tier is carried along but does not affect the order.
+// Not thread-safe; Warehouse guards it with the product's stripe lock.
+public class Waitlist implements WaitlistScheduler {
+    private int[] clients;
+    private int[] quantities;
+    private int[] tiers;
+    private int mask;
+    private int head;   // slot of the oldest entry
+    private int size;
+    private long demand; // sum of outstanding quantities
+    private final IntIntMap slotOf = new IntIntMap(8, -1); // client index -> ring slot
+
+    public Waitlist(){
+        clients = new int[8];
+        quantities = new int[8];
+        tiers = new int[8];
+        mask = 7;
+    }
+
+    @Override public int size(){ return size; }
+    @Override public boolean isEmpty(){ return size == 0; }
+    @Override public long totalDemand(){ return demand; }
+
+    public void add(int client, int qty){ add(client, qty, 0); }
+
+    @Override
+    public void add(int client, int qty, int tier){
+        if (qty <= 0) return;
+        int slot = slotOf.get(client);
+        if (slot >= 0){
+            quantities[slot] += qty;
+        } else {
+            if (size == clients.length) grow();
+            slot = (head + size) & mask;
+            clients[slot] = client;
+            quantities[slot] = qty;
+            tiers[slot] = tier;
+            slotOf.put(client, slot);
+            size++;
+        }
+        demand += qty;
+    }
+
+    public int peekClient(){ return clients[head]; }
+    public int peekQuantity(){ return quantities[head]; }
+
+    // Serves units to the oldest entry, removing it once it is fully served
+    public void fillHead(int units){
+        if (size == 0 || units <= 0) return;
+        int left = quantities[head] - units;
+        demand -= Math.min(units, quantities[head]);
+        if (left > 0) { quantities[head] = left; return; }
+        slotOf.remove(clients[head]);
+        head = (head + 1) & mask;
+        size--;
+    }
+
+    @Override
+    public int allocate(int units, FillList out){
+        int used = 0;
+        while (units > used && size > 0){
+            int fill = Math.min(quantities[head], units - used);
+            out.add(clients[head], fill);
+            used += fill;
+            fillHead(fill); // partial fills stay at the front
+        }
+        return used;
+    }
+
+    // i-th entry from the front, 0 <= i < size()
+    public int clientAt(int i){ return clients[(head + i) & mask]; }
+    public int quantityAt(int i){ return quantities[(head + i) & mask]; }
+    public int tierAt(int i){ return tiers[(head + i) & mask]; }
+
+    @Override
+    public void forEach(EntryVisitor v){
+        for (int i = 0; i < size; i++){
+            int s = (head + i) & mask;
+            v.visit(clients[s], quantities[s], tiers[s]);
+        }
+    }
+
+    // Serves amounts[i] units to the i-th entry from the front (emitting a fill for every
+    // positive amount), then closes the gaps left by entries that were fully served. O(size).
+    protected void serveEach(int[] amounts, FillList out){
+        int kept = 0;
+        for (int i = 0; i < size; i++){
+            int s = (head + i) & mask;
+            int a = Math.min(amounts[i], quantities[s]);
+            if (a > 0){
+                out.add(clients[s], a);
+                quantities[s] -= a;
+                demand -= a;
+            }
+            if (quantities[s] == 0){ slotOf.remove(clients[s]); continue; }
+            int d = (head + kept) & mask;
+            if (d != s){
+                clients[d] = clients[s];
+                quantities[d] = quantities[s];
+                tiers[d] = tiers[s];
+                slotOf.put(clients[d], d);
+            }
+            kept++;
+        }
+        size = kept;
+    }
+
+    private void grow(){
+        int n = clients.length * 2;
+        int[] nc = new int[n], nq = new int[n], nt = new int[n];
+        for (int i = 0; i < size; i++){
+            int s = (head + i) & mask;
+            nc[i] = clients[s];
+            nq[i] = quantities[s];
+            nt[i] = tiers[s];
+        }
+        clients = nc;
+        quantities = nq;
+        tiers = nt;
+        mask = n - 1;
+        head = 0;
+        slotOf.clear();
+        for (int i = 0; i < size; i++) slotOf.put(clients[i], i);
+    }
+}
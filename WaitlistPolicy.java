@@ -0,0 +1,16 @@
+// Which WaitlistScheduler a warehouse gives its products
+public enum WaitlistPolicy {
+    FIFO, PRIORITY, PRO_RATA;
+
+    private static final WaitlistPolicy[] VALUES = values();
+
+    static WaitlistPolicy of(int ordinal){ return VALUES[ordinal]; }
+
+    WaitlistScheduler create(){
+        switch (this){
+            case PRIORITY: return new PriorityWaitlist();
+            case PRO_RATA: return new ProRataWaitlist();
+            default: return new Waitlist();
+        }
+    }
+}
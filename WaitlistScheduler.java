@@ -0,0 +1,19 @@
+// Outstanding demand for one product and the order in which arriving units serve it.
+// A client has at most one entry: asking again adds to it and keeps its place (and its tier).
+// Not thread-safe; Warehouse guards each product's scheduler with that product's stripe lock.
+public interface WaitlistScheduler {
+
+    interface EntryVisitor { void visit(int client, int qty, int tier); }
+
+    void add(int client, int qty, int tier);
+    int size();
+    default boolean isEmpty(){ return size() == 0; }
+    long totalDemand();
+
+    // Hands out up to `units`, appending one (client, qty) fill per served entry to out in
+    // serving order; fully served entries leave. Returns the units handed out.
+    int allocate(int units, FillList out);
+
+    // Entries in the order they would be served; used for views, snapshots and migration
+    void forEach(EntryVisitor v);
+}
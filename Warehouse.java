@@ -1,136 +1,1143 @@
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.file.Path;
 import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.IntConsumer;
+import java.util.concurrent.locks.ReentrantLock;
 
-public class Warehouse {
-    private final ClientList clients = new ClientList();
-    private final ProductCatalog products = new ProductCatalog();
+public class Warehouse implements Closeable {
+    private final ClientList clients;
+    private final ProductCatalog products;
 
     // IDs automatically go in order
     private final AtomicInteger clientSeq = new AtomicInteger(1);
     private final AtomicInteger productSeq = new AtomicInteger(1);
 
+    // Per-product and per-client state is guarded by striped locks.
+    // Lock order: product stripes (ascending) before a client stripe, never the reverse.
+    private final StripedLocks productLocks = new StripedLocks(256);
+    private final StripedLocks clientLocks = new StripedLocks(256);
+
+    // Optional write-ahead journal; records are appended while the touched stripes are held
+    private volatile WarehouseJournal journal;
+
+    // Invoice history, kept off-heap; each client chains its own records. Replaced only by
+    // keepLedgerIn, before the warehouse is shared.
+    private TransactionLedger ledger;
+
+    // Clients with an outstanding balance, kept sorted as charges and payments land
+    private final BalanceIndex balances = new BalanceIndex();
+
+    // Change notifications; events are published before the stripes that ordered them are released
+    private final WarehouseEvents events = new WarehouseEvents();
+
+    // Open checkout reservations; their units are counted in Product.getReserved
+    private final ConcurrentHashMap<Long, Reservation> reservations = new ConcurrentHashMap<>();
+    private final AtomicLong reservationSeq = new AtomicLong(1);
+    private ScheduledExecutorService expirer; // guarded by this
+
+    // How waitlisted demand is served; changed only while every stripe is held
+    private volatile WaitlistPolicy waitlistPolicy = WaitlistPolicy.FIFO;
+
+    // Latency and call counts for the public operations; replay and bulk loads are not timed
+    private final WarehouseMetrics metrics = new WarehouseMetrics(this);
+
+    // Optional single-writer mode: while set, the hot mutations below are applied by its writer thread
+    private volatile WarehousePipeline pipeline;
+
+    public Warehouse(){ this(TransactionLedger.temporary()); }
+    public Warehouse(TransactionLedger ledger){ this(ledger, 1, 0); }
+    // shard number shard of a ShardedWarehouse with that many shards
+    Warehouse(int shards, int shard){ this(TransactionLedger.temporary(), shards, shard); }
+    private Warehouse(TransactionLedger ledger, int shards, int shard){
+        this.ledger = ledger;
+        clients = new ClientList(shards, shard);
+        products = new ProductCatalog(shards, shard);
+    }
+
     public String addClient(String name, String address){
-        String id = "C" + clientSeq.getAndIncrement();
-        Client c = new Client(id, name, address);
-        clients.addClient(c);
+        return addClient(clientSeq.getAndIncrement(), name, address);
+    }
+
+    // index is chosen by the caller here (ShardedWarehouse numbers clients across its shards)
+    String addClient(int index, String name, String address){
+        clientSeq.accumulateAndGet(index + 1, Math::max);
+        String id = Ids.clientId(index);
+        WarehouseJournal j = journal;
+        long seq = 0;
+        ReentrantLock cl = clientLocks.lockFor(index);
+        cl.lock();
+        try {
+            Client c = new Client(id, name, address);
+            c.trackBalance(balances);
+            // journaled before it is visible, so no record that refers to it can come first
+            if (j != null) seq = j.logAddClient(index, name, address);
+            clients.addClient(c);
+        } finally { cl.unlock(); }
+        if (j != null) j.awaitDurable(seq);
         return id;
     }
 
     public String addProduct(String name, int stock, double price){
-        String id = "P" + productSeq.getAndIncrement();
-        Product p = new Product(id, name, stock, price);
-        products.addProduct(p);
+        return addProductCents(name, stock, Money.fromDouble(price));
+    }
+
+    public String addProductCents(String name, int stock, long price){
+        if (price < 0) throw new IllegalArgumentException("Price must be >= 0");
+        return addProductCents(productSeq.getAndIncrement(), name, stock, price);
+    }
+
+    String addProductCents(int index, String name, int stock, long price){
+        productSeq.accumulateAndGet(index + 1, Math::max);
+        String id = Ids.productId(index);
+        WarehouseJournal j = journal;
+        long seq = 0;
+        ReentrantLock pl = productLocks.lockFor(index);
+        pl.lock();
+        try {
+            Product p = new Product(id, name, stock, price, waitlistPolicy.create());
+            // wishlist updates only lock the client, so they may refer to the product as soon as
+            // it is registered; its own record has to be in the journal by then
+            if (j != null) seq = j.logAddProduct(index, name, stock, price);
+            products.addProduct(p);
+        } finally { pl.unlock(); }
+        if (j != null) j.awaitDurable(seq);
         return id;
     }
 
     public void addOrUpdateWishlistItem(String clientId, String productId, int qty){
+        long t0 = WarehouseMetrics.start();
+        try {
+            Client c = requireClient(clientId);
+            Product p = requireProduct(productId);
+            WarehousePipeline pl = pipeline;
+            CompletableFuture<Integer> queued = pl == null ? null : pl.addOrUpdateWishlistItem(c, p, qty);
+            if (queued != null) WarehousePipeline.await(queued);
+            else addOrUpdateWishlistItem(c, p, qty);
+        } finally { metrics.record(WarehouseOp.WISHLIST_UPDATE, t0); }
+    }
+
+    void addOrUpdateWishlistItem(Client c, Product p, int qty){ addOrUpdateWishlistItem(c, p.getIndex(), qty); }
+
+    // the product may live on another shard; the caller has checked it exists
+    void addOrUpdateWishlistItem(Client c, int product, int qty){
+        WarehouseJournal j = journal;
+        long seq = 0;
+        ReentrantLock cl = clientLocks.lockFor(c.getIndex());
+        cl.lock();
+        try {
+            c.addOrUpdateWishlistItem(product, qty);
+            events.record(EventType.WISHLIST_CHANGED, product, c.getIndex(), 0, Math.max(qty, 0));
+            if (j != null) seq = j.logWishlist(c.getIndex(), product, qty);
+        } finally { events.publish(); cl.unlock(); }
+        if (j != null) j.awaitDurable(seq);
+    }
+
+    // String ids are resolved to registry entries once, here at the API boundary
+    Client requireClient(String clientId){
         Client c = clients.findClient(clientId);
         if(c == null) throw new IllegalArgumentException("Client not found: " + clientId);
+        return c;
+    }
+
+    Product requireProduct(String productId){
         Product p = products.findProduct(productId);
         if(p == null) throw new IllegalArgumentException("Product not found: " + productId);
-        c.addOrUpdateWishlistItem(productId, qty);
+        return p;
     }
 
+    public WarehouseEvents events(){ return events; }
+    public WarehouseMetrics metrics(){ return metrics; }
+
+    Client client(int index){ return clients.findClient(index); }
+    Product product(int index){ return products.findProduct(index); }
+    // one past the highest id number handed out so far
+    int clientUpperBound(){ return clients.upperBound(); }
+    int productUpperBound(){ return products.upperBound(); }
+
     public Collection<Client> getAllClients(){ return clients.getAllClients(); }
+
+    // Client ids as people type them: surrounding blanks and the prefix's case are ignored.
+    // Logins resolve once and keep the canonical id, which the rest of the API expects.
+    public Client findClient(String clientId){
+        return clientId == null ? null : clients.findClientIgnoreCase(clientId.trim());
+    }
+    public boolean clientExists(String clientId){ return findClient(clientId) != null; }
+    // the canonical id ("C12" for " c12"), or null if there is no such client
+    public String resolveClientId(String clientId){
+        Client c = findClient(clientId);
+        return c == null ? null : c.getId();
+    }
     public Collection<Product> getAllProducts(){ return products.getAllProducts(); }
 
+    // Products whose names match every word of the query (the last one as a prefix while it is
+    // being typed), shortest names first
+    public List<Product> searchProducts(String query, int limit){
+        if (limit < 0) throw new IllegalArgumentException("Bad limit: " + limit);
+        return products.search(query, limit);
+    }
+
+    // Clients owing more than minBalance, largest balance first, one page at a time
+    public List<Client> getClientsWithBalance(double minBalance, int offset, int limit){
+        int[] idx = balances.owingMoreThan(Money.fromDouble(minBalance), offset, limit);
+        List<Client> out = new ArrayList<>(idx.length);
+        for (int i : idx){
+            Client c = clients.findClient(i);
+            if (c != null) out.add(c);
+        }
+        return out;
+    }
+    public List<Client> getTopDebtors(int n){ return getClientsWithBalance(0.0, 0, n); }
+    public int getDebtorCount(){ return balances.size(); }
+    public long getTotalReceivablesCents(){ return balances.totalReceivableCents(); }
+    public double getTotalReceivables(){ return Money.toDouble(balances.totalReceivableCents()); }
+
+    // "P7 | name | qty=3" per line; callers that only need the numbers should use copyWishlist
     public List<String> getWishlistForClient(String clientId){
-        Client c = clients.findClient(clientId);
-        if(c == null) throw new IllegalArgumentException("Client not found: " + clientId);
-        List<String> out = new ArrayList<>();
-        for(WishlistItem wi : c.getWishlist()){
-            Product p = products.findProduct(wi.getProductId());
-            String pname = (p == null) ? "(unknown)" : p.getName();
-            out.add(wi.getProductId() + " | " + pname + " | qty=" + wi.getQuantity());
+        WishlistMap items = new WishlistMap();
+        copyWishlist(clientId, items);
+        List<String> out = new ArrayList<>(items.size());
+        StringBuilder sb = new StringBuilder(64);
+        for (int i = 0; i < items.size(); i++){
+            Product p = products.findProduct(items.product(i));
+            sb.setLength(0);
+            sb.append('P').append(items.product(i)).append(" | ").append(p == null ? "(unknown)" : p.getName())
+              .append(" | qty=").append(items.quantity(i));
+            out.add(sb.toString());
         }
         return out;
     }
 
+    // Copies the client's wishlist into out, replacing its contents; out can be reused across calls
+    public void copyWishlist(String clientId, WishlistMap out){
+        copyWishlist(requireClient(clientId), out);
+    }
+
+    void copyWishlist(Client c, WishlistMap out){
+        ReentrantLock cl = clientLocks.lockFor(c.getIndex());
+        cl.lock();
+        try { out.copyFrom(c.getWishlist()); }
+        finally { cl.unlock(); }
+    }
+
+    // What an order would take: the wishlist less the units the client has reserved
+    void copyOrderLines(Client c, WishlistMap out){
+        ReentrantLock cl = clientLocks.lockFor(c.getIndex());
+        cl.lock();
+        try { orderLines(c, out); }
+        finally { cl.unlock(); }
+    }
+
+    private static void orderLines(Client c, WishlistMap out){
+        out.clear();
+        WishlistMap items = c.getWishlist();
+        for (int i = 0; i < items.size(); i++){
+            int product = items.product(i);
+            out.put(product, items.quantity(i) - c.getReserved(product));
+        }
+    }
+
     // Full version additions are below
 
     // Buy everything on wishlist; fill from stock; shortfalls go to waitlist
-    public void placeOrder(String clientId){
-        Client c = clients.findClient(clientId);
-        if(c == null) throw new IllegalArgumentException("Client not found: " + clientId);
+    public void placeOrder(String clientId){ placeOrder(clientId, AllocationPolicy.GREEDY); }
 
-        List<WishlistItem> items = new ArrayList<>(c.getWishlist());
+    // Places the wishlist under the given policy; returns the number of lines filled
+    public int placeOrder(String clientId, AllocationPolicy policy){
+        if (policy == null) throw new IllegalArgumentException("Missing allocation policy");
+        long t0 = WarehouseMetrics.start();
+        try {
+            Client c = requireClient(clientId);
+            WarehousePipeline pl = pipeline;
+            CompletableFuture<Integer> queued = pl == null ? null : pl.placeOrder(c, policy);
+            if (queued != null) return WarehousePipeline.await(queued);
+            return placeOrder(c, policy, -1, System.currentTimeMillis());
+        } finally { metrics.record(WarehouseOp.PLACE_ORDER, t0); }
+    }
 
-        for (WishlistItem wi : items){
-            Product p = products.findProduct(wi.getProductId());
-            if(p == null) continue;
+    // firstTxn >= 0 replays a journaled order with the invoice numbers it originally used;
+    // time stamps the invoices, and is likewise taken from the journal on replay
+    int placeOrder(Client c, AllocationPolicy policy, int firstTxn, long time){
+        WarehouseJournal j = journal;
+        long seq = 0;
+        int filled = 0;
+        ReentrantLock cl = clientLocks.lockFor(c.getIndex());
+        while (true){
+            // peek at the wishlist, then lock its products before the client
+            int[] stripes;
+            cl.lock();
+            try { stripes = productStripes(c.getWishlist()); }
+            finally { cl.unlock(); }
 
-            int want = wi.getQuantity();
-            if (want <= 0) continue;
+            int[] held = productLocks.lockAll(stripes);
+            try {
+                cl.lock();
+                try {
+                    // the wishlist may have gained products while it was unlocked; start over
+                    if (!covers(held, productStripes(c.getWishlist()))) continue;
 
-            int canFill = Math.min(want, p.getStock());
-            int shortfall = want - canFill;
+                    WishlistMap items = c.getWishlist();
+                    if (items.isEmpty()) return 0;
 
-            if (canFill > 0){
-                p.setStock(p.getStock() - canFill);
-                Transaction t = new Transaction(clientId, p.getId(), canFill, p.getPrice());
-                c.addTransaction(t);
-            }
+                    // the lines are read up front: consumed ones leave the wishlist below. Units the
+                    // client has reserved are not ordered again; commit sells them.
+                    int n = items.size();
+                    Product[] ps = new Product[n];
+                    int[] pidxs = new int[n], want = new int[n], available = new int[n], fills = new int[n], kept = new int[n];
+                    for (int i = 0; i < n; i++){
+                        pidxs[i] = items.product(i);
+                        ps[i] = products.findProduct(pidxs[i]);
+                        kept[i] = Math.min(items.quantity(i), c.getReserved(pidxs[i]));
+                        want[i] = ps[i] == null ? 0 : items.quantity(i) - kept[i];
+                        available[i] = ps[i] == null ? 0 : Math.max(0, ps[i].getAvailable());
+                    }
+                    boolean accepted = policy.allocate(want, available, fills);
+                    int txns = 0;
+                    if (accepted) for (int f : fills) if (f > 0) txns++;
+                    int txn = claimTxnIds(firstTxn, txns);
 
-            if (shortfall > 0){
-                p.enqueueWait(clientId, shortfall);
+                    for (int i = 0; i < n; i++){
+                        int pidx = pidxs[i];
+                        if (policy.consumesLine(accepted, fills[i]) && (want[i] > 0 || ps[i] == null)){
+                            // the reserved part of the line stays until its reservation is settled
+                            c.addOrUpdateWishlistItem(pidx, kept[i]);
+                            events.record(EventType.WISHLIST_CHANGED, pidx, c.getIndex(), 0, kept[i]);
+                        }
+                        Product p = ps[i];
+                        if (!accepted || p == null || want[i] <= 0) continue;
+
+                        int canFill = fills[i];
+                        int shortfall = want[i] - canFill;
+
+                        if (canFill > 0){
+                            p.setStock(p.getStock() - canFill);
+                            events.record(EventType.STOCK_CHANGED, p.getIndex(), 0, 0, p.getStock());
+                            charge(c, txn++, p, canFill, time);
+                            filled++;
+                        }
+
+                        if (shortfall > 0 && policy.waitlistsShortfall()){
+                            p.enqueueWait(c.getIndex(), shortfall, c.getTier());
+                            events.record(EventType.WAITLIST_CHANGED, p.getIndex(), 0, 0, p.getWaitlist().totalDemand());
+                        }
+                    }
+                    if (j != null) seq = j.logPlaceOrder(c.getIndex(), txn - txns, policy, time);
+                    break;
+                } finally { events.publish(); cl.unlock(); }
+            } finally {
+                productLocks.unlockAll(held);
             }
+        }
+        if (j != null) j.awaitDurable(seq);
+        return filled;
+    }
+
+    // ====================== RESERVATIONS ======================
+
+    // Sets aside as much of the client's wishlist as is available, for ttlMillis. Only the touched
+    // product stripes are held, and only while the counters move; nothing is sold or billed until
+    // commit. An empty reservation (nothing available) is returned but not kept.
+    public Reservation reserve(String clientId, long ttlMillis){
+        if (ttlMillis <= 0) throw new IllegalArgumentException("TTL must be > 0");
+        long t0 = WarehouseMetrics.start();
+        try {
+            Client c = requireClient(clientId);
+            int[] pidx, want;
+            ReentrantLock cl = clientLocks.lockFor(c.getIndex());
+            cl.lock();
+            try {
+                WishlistMap items = c.getWishlist();
+                pidx = new int[items.size()];
+                want = new int[items.size()];
+                for (int i = 0; i < pidx.length; i++){
+                    pidx[i] = items.product(i);
+                    want[i] = items.quantity(i);
+                }
+            } finally { cl.unlock(); }
+
+            Reservation r = reserve(c, reservationSeq.getAndIncrement(), System.currentTimeMillis() + ttlMillis, pidx, want, false);
+            if (r.size() > 0) startExpiry();
+            return r;
+        } finally { metrics.record(WarehouseOp.RESERVE, t0); }
+    }
+
+    // exact = true replays a journaled reservation: the quantities are taken as recorded.
+    // Otherwise units the client already has reserved are left out of want.
+    Reservation reserve(Client c, long id, long expiresAt, int[] pidx, int[] want, boolean exact){
+        int[] stripes = new int[pidx.length];
+        for (int i = 0; i < pidx.length; i++) stripes[i] = productLocks.stripeFor(pidx[i]);
+        WarehouseJournal j = journal;
+        long seq = 0;
+        Reservation r;
+        int[] held = productLocks.lockAll(stripes);
+        try {
+            ReentrantLock cl = clientLocks.lockFor(c.getIndex());
+            cl.lock();
+            try {
+                int[] got = new int[pidx.length];
+                int lines = 0;
+                for (int i = 0; i < pidx.length; i++){
+                    Product p = products.findProduct(pidx[i]);
+                    if (p == null || want[i] <= 0) continue;
+                    int q = exact ? want[i] : Math.min(want[i] - c.getReserved(pidx[i]), Math.max(0, p.getAvailable()));
+                    if (q <= 0) continue;
+                    p.addReserved(q);
+                    c.addReserved(pidx[i], q);
+                    pidx[lines] = pidx[i];
+                    got[lines++] = q;
+                }
+                r = new Reservation(id, c.getIndex(), Arrays.copyOf(pidx, lines), Arrays.copyOf(got, lines), expiresAt);
+                reservationSeq.accumulateAndGet(id + 1, Math::max);
+                if (lines > 0){
+                    reservations.put(id, r);
+                    if (j != null) seq = j.logReserve(r);
+                }
+            } finally { cl.unlock(); }
+        } finally { productLocks.unlockAll(held); }
+        if (j != null) j.awaitDurable(seq);
+        return r;
+    }
+
+    // Sells the reserved units: stock and reservation counters drop, the client is billed and the
+    // wishlist lines shrink by what was bought. Returns the number of invoices created.
+    public int commit(long reservationId){
+        Reservation r = reservation(reservationId);
+        if (r == null) throw new IllegalArgumentException("Reservation not found: R" + reservationId);
+        if (r.isExpired(System.currentTimeMillis())){
+            release(r);
+            throw new IllegalStateException("Reservation expired: R" + reservationId);
+        }
+        long t0 = WarehouseMetrics.start();
+        try { return commit(r, -1, System.currentTimeMillis()); }
+        finally { metrics.record(WarehouseOp.COMMIT, t0); }
+    }
+
+    int commit(Reservation r, int firstTxn, long time){
+        Client c = clients.findClient(r.client());
+        int[] stripes = new int[r.size()];
+        for (int i = 0; i < r.size(); i++) stripes[i] = productLocks.stripeFor(r.product(i));
+        WarehouseJournal j = journal;
+        long seq = 0;
+        int[] held = productLocks.lockAll(stripes);
+        try {
+            // claimed under the stripes so a snapshot sees the reservation either open or committed
+            if (!reservations.remove(r.getId(), r)) throw new IllegalArgumentException("Reservation not found: R" + r.getId());
+            ReentrantLock cl = clientLocks.lockFor(r.client());
+            cl.lock();
+            try {
+                int txn = claimTxnIds(firstTxn, r.size());
+                for (int i = 0; i < r.size(); i++){
+                    Product p = products.findProduct(r.product(i));
+                    int q = r.getQuantity(i);
+                    p.addReserved(-q);
+                    c.addReserved(p.getIndex(), -q);
+                    p.setStock(p.getStock() - q);
+                    events.record(EventType.STOCK_CHANGED, p.getIndex(), 0, 0, p.getStock());
+                    charge(c, txn++, p, q, time);
+                    int left = Math.max(0, c.getWishlist().get(p.getIndex()) - q);
+                    c.addOrUpdateWishlistItem(p.getIndex(), left);
+                    events.record(EventType.WISHLIST_CHANGED, p.getIndex(), c.getIndex(), 0, left);
+                }
+                if (j != null) seq = j.logCommit(r.getId(), txn - r.size(), time);
+            } finally { events.publish(); cl.unlock(); }
+        } finally { productLocks.unlockAll(held); }
+        if (j != null) j.awaitDurable(seq);
+        return r.size();
+    }
+
+    public void release(long reservationId){
+        Reservation r = reservation(reservationId);
+        if (r == null) throw new IllegalArgumentException("Reservation not found: R" + reservationId);
+        release(r);
+    }
+
+    // Returns the units to availability; false if the reservation was already gone
+    boolean release(Reservation r){
+        int[] stripes = new int[r.size()];
+        for (int i = 0; i < r.size(); i++) stripes[i] = productLocks.stripeFor(r.product(i));
+        WarehouseJournal j = journal;
+        long seq = 0;
+        int[] held = productLocks.lockAll(stripes);
+        try {
+            if (!reservations.remove(r.getId(), r)) return false;
+            Client c = clients.findClient(r.client());
+            ReentrantLock cl = clientLocks.lockFor(r.client());
+            cl.lock();
+            try {
+                for (int i = 0; i < r.size(); i++){
+                    products.findProduct(r.product(i)).addReserved(-r.getQuantity(i));
+                    c.addReserved(r.product(i), -r.getQuantity(i));
+                }
+            } finally { cl.unlock(); }
+            if (j != null) seq = j.logRelease(r.getId());
+        } finally { productLocks.unlockAll(held); }
+        if (j != null) j.awaitDurable(seq);
+        return true;
+    }
+
+    public Collection<Reservation> getReservations(){ return Collections.unmodifiableCollection(reservations.values()); }
 
-            wi.setQuantity(0);
+    // Releases every reservation past its deadline; returns how many went
+    public int expireReservations(long now){
+        int n = 0;
+        for (Reservation r : reservations.values()){
+            if (r.isExpired(now) && release(r)) n++;
         }
-        c.clearZeroQtyWishlist();
+        return n;
+    }
+
+    // expiry runs once a second from the first live reservation on; replay never starts it
+    private synchronized void startExpiry(){
+        if (expirer != null) return;
+        expirer = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "warehouse-reservations");
+            t.setDaemon(true);
+            return t;
+        });
+        expirer.scheduleWithFixedDelay(() -> expireReservations(System.currentTimeMillis()), 1, 1, TimeUnit.SECONDS);
+    }
+
+    // Appends an invoice to the ledger and bills the client; caller holds the client's stripe
+    private void charge(Client c, int number, Product p, int qty, long time){
+        charge(c, number, p.getIndex(), p.getPriceCents(), qty, time);
+    }
+
+    private void charge(Client c, int number, int product, long unitCents, int qty, long time){
+        long rec = ledger.append(number, c.getIndex(), product, qty, unitCents, time, c.getLastTransaction());
+        c.recordTransaction(rec, product, qty, Money.times(unitCents, qty), time);
+        if (events.isActive()){
+            events.record(EventType.TRANSACTION_CREATED, product, c.getIndex(), qty, number);
+            events.record(EventType.BALANCE_CHANGED, 0, c.getIndex(), 0, c.getBalanceCents());
+        }
+    }
+
+    private int[] productStripes(WishlistMap items){
+        int[] stripes = new int[items.size()];
+        for (int i = 0; i < stripes.length; i++) stripes[i] = productLocks.stripeFor(items.product(i));
+        return stripes;
+    }
+
+    private static boolean covers(int[] heldSorted, int[] needed){
+        for (int s : needed) if (Arrays.binarySearch(heldSorted, s) < 0) return false;
+        return true;
+    }
+
+    private static int claimTxnIds(int firstTxn, int n){
+        if (firstTxn < 0) return Transaction.reserveIds(n);
+        if (n > 0) Transaction.advancePast(firstTxn + n - 1);
+        return firstTxn;
     }
 
     // Payment reduces balance
     public void recordPayment(String clientId, double amount){
-        if (amount <= 0) throw new IllegalArgumentException("Amount must be > 0");
-        Client c = clients.findClient(clientId);
-        if(c == null) throw new IllegalArgumentException("Client not found: " + clientId);
-        c.applyPayment(amount);
+        recordPaymentCents(clientId, Money.fromDouble(amount));
+    }
+
+    public void recordPaymentCents(String clientId, long cents){
+        if (cents <= 0) throw new IllegalArgumentException("Amount must be > 0");
+        long t0 = WarehouseMetrics.start();
+        try {
+            Client c = requireClient(clientId);
+            WarehousePipeline pl = pipeline;
+            CompletableFuture<Integer> queued = pl == null ? null : pl.recordPayment(c, cents);
+            if (queued != null) WarehousePipeline.await(queued);
+            else recordPayment(c, cents);
+        } finally { metrics.record(WarehouseOp.RECORD_PAYMENT, t0); }
+    }
+
+    void recordPayment(Client c, long cents){
+        WarehouseJournal j = journal;
+        long seq = 0;
+        ReentrantLock cl = clientLocks.lockFor(c.getIndex());
+        cl.lock();
+        try {
+            c.applyPayment(cents);
+            events.record(EventType.BALANCE_CHANGED, 0, c.getIndex(), 0, c.getBalanceCents());
+            if (j != null) seq = j.logPayment(c.getIndex(), cents);
+        } finally { events.publish(); cl.unlock(); }
+        if (j != null) j.awaitDurable(seq);
     }
 
     // Shipment: fill waitlist first, auto-create transactions; leftover goes to stock
     public void receiveShipment(String productId, int quantity){
         if (quantity <= 0) throw new IllegalArgumentException("Quantity must be > 0");
-        Product p = products.findProduct(productId);
-        if(p == null) throw new IllegalArgumentException("Product not found: " + productId);
+        long t0 = WarehouseMetrics.start();
+        try {
+            Product p = requireProduct(productId);
+            WarehousePipeline pl = pipeline;
+            CompletableFuture<Integer> queued = pl == null ? null : pl.receiveShipment(p, quantity);
+            if (queued != null) WarehousePipeline.await(queued);
+            else receiveShipment(p, quantity, -1, System.currentTimeMillis());
+        } finally { metrics.record(WarehouseOp.RECEIVE_SHIPMENT, t0); }
+    }
 
-        int arriving = quantity;
+    void receiveShipment(Product p, int quantity, int firstTxn, long time){
+        WarehouseJournal j = journal;
+        long seq = 0;
+        ReentrantLock pl = productLocks.lockFor(p.getIndex());
+        pl.lock();
+        try {
+            // let the scheduler pick the fills, then count the invoices so their numbers can be reserved up front
+            WaitlistScheduler wl = p.getWaitlist();
+            FillList fills = new FillList();
+            int arriving = quantity - wl.allocate(quantity, fills);
+            int txns = 0;
+            for (int i = 0; i < fills.size(); i++) if (clients.findClient(fills.client(i)) != null) txns++;
+            int txn = claimTxnIds(firstTxn, txns);
 
-        var it = p.getWaitlist().iterator();
-        while (it.hasNext() && arriving > 0){
-            var entry = it.next();
-            String cid = entry.getKey();
-            int need = entry.getValue();
+            for (int i = 0; i < fills.size(); i++){
+                int cidx = fills.client(i);
+                Client c = clients.findClient(cidx);
+                if (c == null) continue;
+                ReentrantLock cl = clientLocks.lockFor(cidx);
+                cl.lock();
+                try { charge(c, txn++, p, fills.quantity(i), time); }
+                finally { events.publish(); cl.unlock(); } // balance events go out in client-lock order
+            }
 
-            int fill = Math.min(need, arriving);
-            if (fill > 0){
-                Client c = clients.findClient(cid);
-                if (c != null){
-                    Transaction t = new Transaction(cid, p.getId(), fill, p.getPrice());
-                    c.addTransaction(t);
+            if (arriving < quantity) events.record(EventType.WAITLIST_CHANGED, p.getIndex(), 0, 0, wl.totalDemand());
+            if (arriving > 0){
+                p.setStock(p.getStock() + arriving);
+                events.record(EventType.STOCK_CHANGED, p.getIndex(), 0, 0, p.getStock());
+            }
+            if (j != null) seq = j.logShipment(p.getIndex(), quantity, txn - txns, time);
+        } finally {
+            events.publish();
+            pl.unlock();
+        }
+        if (j != null) j.awaitDurable(seq);
+    }
+
+    // Receives a whole manifest in one pass: lines for the same product are merged, waitlists are
+    // served first, and each client's fills are billed together under a single lock
+    public ShipmentStats receiveShipments(ShipmentManifest manifest){
+        return receiveShipments(manifest, Math.max(1, manifest.size()), null);
+    }
+
+    // Applies a manifest chunkLines lines at a time, reporting the lines done after each chunk.
+    // Every line is validated before anything is applied. Each chunk is its own batch, so
+    // clientsTouched counts a client once per chunk it was served in.
+    public ShipmentStats receiveShipments(ShipmentManifest manifest, int chunkLines, IntConsumer linesDone){
+        if (chunkLines <= 0) throw new IllegalArgumentException("Chunk size must be > 0");
+        Product[] byLine = new Product[manifest.size()];
+        IntIntMap distinct = new IntIntMap(manifest.size(), -1);
+        for (int i = 0; i < manifest.size(); i++){
+            byLine[i] = requireProduct(manifest.productId(i));
+            distinct.put(byLine[i].getIndex(), 1);
+        }
+
+        long toWaitlist = 0, toStock = 0;
+        int touched = 0, invoices = 0;
+        for (int from = 0; from < manifest.size(); from += chunkLines){
+            int to = Math.min(manifest.size(), from + chunkLines);
+            // merge lines for the same product within the chunk
+            IntIntMap slotOf = new IntIntMap(to - from, -1);
+            Product[] ps = new Product[to - from];
+            int[] qtys = new int[to - from];
+            int n = 0;
+            for (int i = from; i < to; i++){
+                Product p = byLine[i];
+                int slot = slotOf.get(p.getIndex());
+                if (slot < 0){
+                    slot = n++;
+                    slotOf.put(p.getIndex(), slot);
+                    ps[slot] = p;
                 }
-                arriving -= fill;
-                need -= fill;
+                qtys[slot] += manifest.quantity(i);
             }
-            if (need <= 0) it.remove(); else entry.setValue(need);
+            // timed per chunk: each one is a separate locked batch
+            long t0 = WarehouseMetrics.start();
+            ShipmentStats part;
+            try { part = receiveShipments(Arrays.copyOf(ps, n), Arrays.copyOf(qtys, n), to - from, -1, System.currentTimeMillis()); }
+            finally { metrics.record(WarehouseOp.RECEIVE_MANIFEST, t0); }
+            toWaitlist += part.getUnitsToWaitlist();
+            toStock += part.getUnitsToStock();
+            touched += part.getClientsTouched();
+            invoices += part.getTransactions();
+            if (linesDone != null) linesDone.accept(to);
         }
+        return new ShipmentStats(manifest.size(), distinct.size(), toWaitlist, toStock, touched, invoices);
+    }
+
+    // ps holds distinct products
+    ShipmentStats receiveShipments(Product[] ps, int[] qtys, int lines, int firstTxn, long time){
+        int n = ps.length;
+        int[] stripes = new int[n];
+        for (int i = 0; i < n; i++) stripes[i] = productLocks.stripeFor(ps[i].getIndex());
+
+        WarehouseJournal j = journal;
+        long seq = 0;
+        int[] held = productLocks.lockAll(stripes);
+        try {
+            // serve the waitlists, remembering each fill as (client, product, qty)
+            int fills = 0;
+            int[] fillClient = new int[16], fillQty = new int[16];
+            Product[] fillProduct = new Product[16];
+            FillList served = new FillList();
+            long toWaitlist = 0, toStock = 0;
+            for (int i = 0; i < n; i++){
+                Product p = ps[i];
+                WaitlistScheduler wl = p.getWaitlist();
+                served.clear();
+                int used = wl.allocate(qtys[i], served);
+                int arriving = qtys[i] - used;
+                toWaitlist += used;
+                for (int k = 0; k < served.size(); k++){
+                    int cidx = served.client(k);
+                    int fill = served.quantity(k);
+                    if (clients.findClient(cidx) != null){
+                        if (fills == fillClient.length){
+                            fillClient = Arrays.copyOf(fillClient, fills * 2);
+                            fillQty = Arrays.copyOf(fillQty, fills * 2);
+                            fillProduct = Arrays.copyOf(fillProduct, fills * 2);
+                        }
+                        fillClient[fills] = cidx;
+                        fillQty[fills] = fill;
+                        fillProduct[fills] = p;
+                        fills++;
+                    }
+                }
+                if (arriving < qtys[i]) events.record(EventType.WAITLIST_CHANGED, p.getIndex(), 0, 0, wl.totalDemand());
+                if (arriving > 0){
+                    p.setStock(p.getStock() + arriving);
+                    toStock += arriving;
+                    events.record(EventType.STOCK_CHANGED, p.getIndex(), 0, 0, p.getStock());
+                }
+            }
+
+            // group the fills by client, in order of each client's first fill
+            IntIntMap groupOf = new IntIntMap(fills, -1);
+            int[] groupClient = new int[Math.max(1, fills)];
+            int[] groupStart = new int[fills + 1];
+            int groups = 0;
+            for (int f = 0; f < fills; f++){
+                int g = groupOf.get(fillClient[f]);
+                if (g < 0){
+                    g = groups++;
+                    groupOf.put(fillClient[f], g);
+                    groupClient[g] = fillClient[f];
+                }
+                groupStart[g + 1]++;
+            }
+            for (int g = 0; g < groups; g++) groupStart[g + 1] += groupStart[g];
+            int[] order = new int[fills];
+            int[] cursor = Arrays.copyOf(groupStart, groups);
+            for (int f = 0; f < fills; f++) order[cursor[groupOf.get(fillClient[f])]++] = f;
+
+            int txn = claimTxnIds(firstTxn, fills);
+            for (int g = 0; g < groups; g++){
+                Client c = clients.findClient(groupClient[g]);
+                ReentrantLock cl = clientLocks.lockFor(groupClient[g]);
+                cl.lock();
+                try {
+                    for (int k = groupStart[g]; k < groupStart[g + 1]; k++){
+                        int f = order[k];
+                        charge(c, txn++, fillProduct[f], fillQty[f], time);
+                    }
+                } finally { events.publish(); cl.unlock(); }
+            }
 
-        if (arriving > 0) p.setStock(p.getStock() + arriving);
+            if (j != null){
+                int[] pidx = new int[n];
+                for (int i = 0; i < n; i++) pidx[i] = ps[i].getIndex();
+                seq = j.logManifest(pidx, qtys, lines, txn - fills, time);
+            }
+            return new ShipmentStats(lines, n, toWaitlist, toStock, groups, fills);
+        } finally {
+            events.publish();
+            productLocks.unlockAll(held);
+            if (j != null) j.awaitDurable(seq);
+        }
     }
 
     public List<String> getWaitlistView(String productId){
-        Product p = products.findProduct(productId);
-        if(p == null) throw new IllegalArgumentException("Product not found: " + productId);
+        Product p = requireProduct(productId);
         List<String> out = new ArrayList<>();
-        for (var e : p.getWaitlist()){
-            out.add(e.getKey() + " x" + e.getValue());
+        ReentrantLock pl = productLocks.lockFor(p.getIndex());
+        pl.lock();
+        try {
+            // serving order, so the first row is the next client a shipment goes to
+            p.getWaitlist().forEach((client, qty, tier) -> out.add(Ids.clientId(client) + " x" + qty + (tier != 0 ? " (tier " + tier + ")" : "")));
+        } finally {
+            pl.unlock();
         }
         return out;
     }
 
+    // ====================== WAITLIST PRIORITY ======================
+
+    public WaitlistPolicy getWaitlistPolicy(){ return waitlistPolicy; }
+
+    // Switches every product to a new scheduler, carrying the waiting entries over in their
+    // current serving order (so requests already waiting keep their relative age)
+    public void setWaitlistPolicy(WaitlistPolicy policy){
+        if (policy == null) throw new IllegalArgumentException("Missing waitlist policy");
+        WarehouseJournal j = journal;
+        long[] seq = new long[1];
+        quiesce(() -> {
+            if (policy == waitlistPolicy) return;
+            waitlistPolicy = policy;
+            for (Product p : products.getAllProducts()) p.useWaitlist(policy.create());
+            if (j != null) seq[0] = j.logWaitlistPolicy(policy);
+        });
+        if (j != null) j.awaitDurable(seq[0]);
+    }
+
+    // Higher tiers are served first under WaitlistPolicy.PRIORITY. The tier is stamped on a waitlist
+    // entry when it is created, so changing it affects the client's future requests only.
+    public void setClientTier(String clientId, int tier){
+        setClientTier(requireClient(clientId), tier);
+    }
+
+    void setClientTier(Client c, int tier){
+        if (tier < 0) throw new IllegalArgumentException("Tier must be >= 0");
+        WarehouseJournal j = journal;
+        long seq = 0;
+        ReentrantLock cl = clientLocks.lockFor(c.getIndex());
+        cl.lock();
+        try {
+            c.setTier(tier);
+            if (j != null) seq = j.logClientTier(c.getIndex(), tier);
+        } finally { cl.unlock(); }
+        if (j != null) j.awaitDurable(seq);
+    }
+
+    // ====================== STATEMENTS ======================
+
+    // Lifetime totals plus one page of rows grouped by day, month or product. Served from the
+    // client's running totals: O(rows on the page) for periods, a sort over the client's distinct
+    // products for PRODUCT, and never a walk over the invoices themselves.
+    public ClientStatement getStatement(String clientId, StatementGrouping by, int offset, int limit){
+        if (by == null) throw new IllegalArgumentException("Missing statement grouping");
+        if (offset < 0 || limit < 0) throw new IllegalArgumentException("Bad page: " + offset + "/" + limit);
+        Client c = requireClient(clientId);
+        int n, rows, invoices;
+        long spent, units, balance;
+        int[] keys, counts;
+        long[] qty, cents;
+        ReentrantLock cl = clientLocks.lockFor(c.getIndex());
+        cl.lock();
+        try {
+            ClientStats st = c.getStats();
+            rows = st == null ? 0 : st.count(by);
+            int cap = Math.max(0, Math.min(limit, rows - offset));
+            keys = new int[cap]; counts = new int[cap];
+            qty = new long[cap]; cents = new long[cap];
+            n = st == null ? 0 : st.page(by, offset, limit, keys, qty, cents, counts);
+            spent = st == null ? 0 : st.getSpentCents();
+            units = st == null ? 0 : st.getUnits();
+            invoices = c.getTransactionCount();
+            balance = c.getBalanceCents();
+        } finally { cl.unlock(); }
+
+        String[] names = new String[n];
+        if (by == StatementGrouping.PRODUCT){
+            for (int i = 0; i < n; i++){
+                Product p = products.findProduct(keys[i]);
+                if (p != null) names[i] = p.getName();
+            }
+        }
+        return new ClientStatement(c.getId(), by, spent, units, invoices, balance, rows, offset, n,
+                keys, names, counts, qty, cents);
+    }
+
+    // Whole history, oldest first
     public List<Transaction> getTransactionsForClient(String clientId){
-        Client c = clients.findClient(clientId);
-        if(c == null) throw new IllegalArgumentException("Client not found: " + clientId);
-        return c.getTransactions();
+        List<Transaction> out = getTransactionsForClient(clientId, 0, Integer.MAX_VALUE);
+        Collections.reverse(out);
+        return out;
+    }
+
+    // One page of a client's history, newest first; the ledger's skip links find the page's first
+    // record in O(log n) reads, however deep it is
+    public List<Transaction> getTransactionsForClient(String clientId, int offset, int limit){
+        if (offset < 0 || limit < 0) throw new IllegalArgumentException("Bad page: " + offset + "/" + limit);
+        Client c = requireClient(clientId);
+        long newest;
+        int n;
+        ReentrantLock cl = clientLocks.lockFor(c.getIndex());
+        cl.lock();
+        try { newest = c.getLastTransaction(); n = c.getTransactionCount(); }
+        finally { cl.unlock(); }
+        // ledger records never change once written, so they are read without the lock
+        int first = n - 1 - Math.min(offset, n);
+        List<Transaction> out = new ArrayList<>(Math.max(0, Math.min(limit, first + 1)));
+        for (long rec = ledger.seek(newest, first); rec >= 0 && out.size() < limit; rec = ledger.previous(rec)) out.add(ledger.read(rec));
+        return out;
+    }
+
+    // Streams a client's history newest first without materializing Transaction objects
+    public void forEachTransaction(String clientId, TransactionLedger.Visitor v){
+        Client c = requireClient(clientId);
+        ReentrantLock cl = clientLocks.lockFor(c.getIndex());
+        long newest;
+        cl.lock();
+        try { newest = c.getLastTransaction(); }
+        finally { cl.unlock(); }
+        ledger.walk(newest, v);
+    }
+
+    @Override
+    public void close() throws IOException {
+        synchronized (this){ if (expirer != null) expirer.shutdownNow(); }
+        WarehousePipeline pl = pipeline;
+        if (pl != null) pl.close();
+        metrics.close();
+        events.close();
+        ledger.close();
+    }
+
+    // ====================== SINGLE-WRITER MODE ======================
+
+    // Routes wishlist updates, orders, payments and single shipments through a ring of `capacity`
+    // command slots applied by one writer thread (see WarehousePipeline); the blocking methods above
+    // keep working and wait for their command. Closing the pipeline returns to direct calls.
+    public synchronized WarehousePipeline startPipeline(int capacity){
+        if (pipeline != null) throw new IllegalStateException("Pipeline already running");
+        pipeline = new WarehousePipeline(this, capacity);
+        return pipeline;
+    }
+
+    synchronized void pipelineClosed(WarehousePipeline pl){
+        if (pipeline == pl) pipeline = null;
+    }
+
+    // ====================== SHARD SUPPORT ======================
+
+    // Steps ShardedWarehouse composes into operations whose client and products sit on different
+    // shards: hold and settle on the products' shards, billOrder and billFill on the client's.
+    // Product stripes and the client stripe are never held together across shards. These steps
+    // are not journaled; a sharded warehouse lives in memory.
+
+    // Phase one of an order: sets aside up to want[i] available units of each product and returns
+    // the units held, -1 where the product does not exist
+    int[] hold(int[] pidx, int[] want){
+        int[] got = new int[pidx.length];
+        int[] held = productLocks.lockAll(stripesOf(pidx));
+        try {
+            for (int i = 0; i < pidx.length; i++){
+                Product p = products.findProduct(pidx[i]);
+                if (p == null){ got[i] = -1; continue; }
+                got[i] = Math.max(0, Math.min(want[i], p.getAvailable()));
+                p.addReserved(got[i]);
+            }
+        } finally { productLocks.unlockAll(held); }
+        return got;
+    }
+
+    // Phase two on the product side: of the held[i] units, sold[i] leave stock and the rest become
+    // available again; shortfall[i] units are waitlisted for the client. Aborting is settle with
+    // nothing sold. Entries of held below 0 (missing products) are skipped.
+    void settle(int[] pidx, int[] held, int[] sold, int client, int[] shortfall, int tier){
+        int[] locked = productLocks.lockAll(stripesOf(pidx));
+        try {
+            for (int i = 0; i < pidx.length; i++){
+                if (held[i] < 0) continue;
+                Product p = products.findProduct(pidx[i]);
+                p.addReserved(-held[i]);
+                if (sold != null && sold[i] > 0){
+                    p.setStock(p.getStock() - sold[i]);
+                    events.record(EventType.STOCK_CHANGED, p.getIndex(), 0, 0, p.getStock());
+                }
+                if (shortfall != null && shortfall[i] > 0){
+                    p.enqueueWait(client, shortfall[i], tier);
+                    events.record(EventType.WAITLIST_CHANGED, p.getIndex(), 0, 0, p.getWaitlist().totalDemand());
+                }
+            }
+        } finally {
+            events.publish();
+            productLocks.unlockAll(locked);
+        }
+    }
+
+    // Phase two on the client side. Applies only if the order lines (copyOrderLines) still read
+    // `expected`: bills the sold units at unitCents and drops the lines the policy consumes, down
+    // to their reserved part. Returns the invoices created, or -1 when the lines changed since they
+    // were read (the caller aborts and retries).
+    int billOrder(Client c, WishlistMap expected, int[] pidx, int[] sold, long[] unitCents,
+                  AllocationPolicy policy, boolean accepted, long time){
+        WishlistMap now = new WishlistMap();
+        ReentrantLock cl = clientLocks.lockFor(c.getIndex());
+        cl.lock();
+        try {
+            orderLines(c, now);
+            if (!now.sameLines(expected)) return -1;
+            int txns = 0;
+            if (accepted) for (int q : sold) if (q > 0) txns++;
+            int txn = claimTxnIds(-1, txns);
+            for (int i = 0; i < pidx.length; i++){
+                if (policy.consumesLine(accepted, sold[i])){
+                    int kept = c.getReserved(pidx[i]);
+                    c.addOrUpdateWishlistItem(pidx[i], kept);
+                    events.record(EventType.WISHLIST_CHANGED, pidx[i], c.getIndex(), 0, kept);
+                }
+                if (accepted && sold[i] > 0) charge(c, txn++, pidx[i], unitCents[i], sold[i], time);
+            }
+            return txns;
+        } finally { events.publish(); cl.unlock(); }
+    }
+
+    // A shipment on a product shard: serves the waitlist, stocks the rest and bills the fills for
+    // clients on this shard. Fills for clients elsewhere are returned for billFill on their shard.
+    FillList ship(Product p, int quantity, long time){
+        FillList remote = new FillList();
+        ReentrantLock pl = productLocks.lockFor(p.getIndex());
+        pl.lock();
+        try {
+            WaitlistScheduler wl = p.getWaitlist();
+            FillList fills = new FillList();
+            int arriving = quantity - wl.allocate(quantity, fills);
+            for (int i = 0; i < fills.size(); i++){
+                Client c = clients.findClient(fills.client(i));
+                if (c == null){ remote.add(fills.client(i), fills.quantity(i)); continue; }
+                ReentrantLock cl = clientLocks.lockFor(c.getIndex());
+                cl.lock();
+                try { charge(c, claimTxnIds(-1, 1), p, fills.quantity(i), time); }
+                finally { events.publish(); cl.unlock(); }
+            }
+            if (arriving < quantity) events.record(EventType.WAITLIST_CHANGED, p.getIndex(), 0, 0, wl.totalDemand());
+            if (arriving > 0){
+                p.setStock(p.getStock() + arriving);
+                events.record(EventType.STOCK_CHANGED, p.getIndex(), 0, 0, p.getStock());
+            }
+        } finally {
+            events.publish();
+            pl.unlock();
+        }
+        return remote;
+    }
+
+    void billFill(Client c, int product, long unitCents, int qty, long time){
+        ReentrantLock cl = clientLocks.lockFor(c.getIndex());
+        cl.lock();
+        try { charge(c, claimTxnIds(-1, 1), product, unitCents, qty, time); }
+        finally { events.publish(); cl.unlock(); }
+    }
+
+    private int[] stripesOf(int[] pidx){
+        int[] stripes = new int[pidx.length];
+        for (int i = 0; i < pidx.length; i++) stripes[i] = productLocks.stripeFor(pidx[i]);
+        return stripes;
+    }
+
+    // Persistence support (see WarehouseJournal)
+
+    WarehouseJournal journal(){ return journal; }
+
+    void attachJournal(WarehouseJournal j){
+        journal = j;
+        if (!reservations.isEmpty()) startExpiry(); // recovered reservations still run out
+    }
+
+    // Runs task with every stripe held, so no mutation is in flight and none can start
+    void quiesce(Runnable task){
+        int[] ph = productLocks.lockEverything();
+        try {
+            int[] ch = clientLocks.lockEverything();
+            try { task.run(); }
+            finally { clientLocks.unlockAll(ch); }
+        } finally {
+            productLocks.unlockAll(ph);
+        }
+    }
+
+    TransactionLedger ledger(){ return ledger; }
+
+    long nextReservationId(){ return reservationSeq.get(); }
+    void advanceReservationIds(long next){ reservationSeq.accumulateAndGet(next, Math::max); }
+    Reservation reservation(long id){ return reservations.get(id); }
+    int nextClientSeq(){ return clientSeq.get(); }
+    int nextProductSeq(){ return productSeq.get(); }
+
+    // Bulk load support (see BulkLoader). Rows are registered while the loader holds every stripe
+    // through bulkLoad, so nothing here locks; no events are published for them.
+    void bulkLoad(Runnable load) throws IOException {
+        IOException[] err = new IOException[1];
+        quiesce(() -> {
+            try { load.run(); }
+            finally {
+                products.compactIndex();
+                // the rows were never journaled one by one; a snapshot before anyone else can
+                // write makes them durable and keeps later records replayable
+                WarehouseJournal j = journal;
+                if (j != null){
+                    try { j.snapshot(); } catch (IOException e){ err[0] = e; }
+                }
+            }
+        });
+        if (err[0] != null) throw err[0];
+    }
+
+    void registerClients(List<Client> batch){
+        int failed = clients.addClients(batch);
+        int added = failed < 0 ? batch.size() : failed, max = 0;
+        for (int i = 0; i < added; i++){
+            Client c = batch.get(i);
+            c.trackBalance(balances);
+            max = Math.max(max, c.getIndex());
+        }
+        clientSeq.accumulateAndGet(max + 1, Math::max);
+        if (failed >= 0) throw new IllegalArgumentException("Client already exists: " + batch.get(failed).getId());
+    }
+
+    void registerProducts(List<Product> batch){
+        int failed = products.addProducts(batch);
+        int added = failed < 0 ? batch.size() : failed, max = 0;
+        for (int i = 0; i < added; i++) max = Math.max(max, batch.get(i).getIndex());
+        productSeq.accumulateAndGet(max + 1, Math::max);
+        if (failed >= 0) throw new IllegalArgumentException("Product already exists: " + batch.get(failed).getId());
+    }
+
+    // Restore paths used by recovery; ids come from disk instead of the sequences
+    Client restoreClient(int index, String name, String address){
+        Client c = new Client(Ids.clientId(index), name, address);
+        c.trackBalance(balances);
+        clients.addClient(c);
+        clientSeq.accumulateAndGet(index + 1, Math::max);
+        return c;
+    }
+
+    // Moves the (still empty) invoice history into dir, where a journal's snapshots refer to it
+    void keepLedgerIn(Path dir){
+        Path at = dir.toAbsolutePath().normalize();
+        if (ledger.dir().toAbsolutePath().normalize().equals(at)) return;
+        if (ledger.size() > 0) throw new IllegalStateException("Warehouse already has transactions");
+        TransactionLedger old = ledger;
+        ledger = TransactionLedger.persistent(at);
+        try { old.close(); }
+        catch (IOException e) { System.err.println("Cannot remove temporary ledger: " + e.getMessage()); }
+    }
+
+    // Takes the first `records` records already in the ledger's files as every client's history
+    // so far; the clients have been restored and nothing else has been appended yet
+    void restoreHistory(long records) throws IOException {
+        ledger.restoreSize(records);
+        for (long rec = 0; rec < records; rec++){
+            Client c = client(ledger.client(rec));
+            if (c == null) throw new IOException("Ledger record " + rec + " refers to unknown client " + ledger.client(rec));
+            long unitCents = ledger.unitCents(rec);
+            int qty = ledger.quantity(rec);
+            c.restoreTransaction(rec, ledger.product(rec), qty, Money.times(unitCents, qty), ledger.time(rec));
+        }
+    }
+
+    void restoreTransaction(Client c, int number, int product, int qty, long unitCents, long time){
+        long rec = ledger.append(number, c.getIndex(), product, qty, unitCents, time, c.getLastTransaction());
+        c.restoreTransaction(rec, product, qty, Money.times(unitCents, qty), time);
+        Transaction.advancePast(number);
+    }
+
+    Product restoreProduct(int index, String name, int stock, long price){
+        Product p = new Product(Ids.productId(index), name, stock, price, waitlistPolicy.create());
+        products.addProduct(p);
+        productSeq.accumulateAndGet(index + 1, Math::max);
+        return p;
     }
 }
@@ -0,0 +1,265 @@
+import java.lang.management.ManagementFactory;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+// Micro-benchmarks for the Warehouse hot paths.
+// Usage: java WarehouseBench [clients=1000000] [products=100000] [wishlist=1,5,20]
+//                            [waitlist=0,100,10000] [hot=64] [threads=1,4,16] [seconds=3] [warmup=1] [bench=all]
+//                            [shards=1,2,4]
+// bench is a comma list of findClient, getWishlistForClient, copyWishlist, placeOrder, receiveShipment,
+// recordLatency, pipeline, sharded. Run once more with -Dwarehouse.metrics=false to see what the instrumentation costs.
+// pipeline runs a mix of wishlist updates, orders, payments and shipments three ways: direct (striped
+// locks), sync (each call waits on the single-writer pipeline) and async (up to 32 calls in flight per
+// thread); use threads=1,4,16,64 to compare them as producers are added. sharded runs orders on a
+// ShardedWarehouse with each thread kept to one shard's clients and products (no overlap).
+// Prints throughput, latency and allocation per operation for every parameter combination.
+public class WarehouseBench {
+
+    interface Op { void run(ThreadLocalRandom r) throws Exception; }
+
+    private final Map<String, String> args;
+    private final int clients;
+    private final int products;
+    private final int hot;
+    private final int seconds;
+    private final int warmup;
+
+    private Warehouse warehouse;
+    private ClientList clientList;
+    private String[] clientIds;
+    private String[] productIds;
+
+    WarehouseBench(Map<String, String> args){
+        this.args = args;
+        clients = Integer.parseInt(args.getOrDefault("clients", "1000000"));
+        products = Integer.parseInt(args.getOrDefault("products", "100000"));
+        hot = Math.min(products, Integer.parseInt(args.getOrDefault("hot", "64")));
+        seconds = Integer.parseInt(args.getOrDefault("seconds", "3"));
+        warmup = Integer.parseInt(args.getOrDefault("warmup", "1"));
+    }
+
+    public static void main(String[] argv) throws Exception {
+        Map<String, String> args = new HashMap<>();
+        for (String a : argv){
+            int eq = a.indexOf('=');
+            if (eq > 0) args.put(a.substring(0, eq), a.substring(eq + 1));
+        }
+        new WarehouseBench(args).runAll();
+    }
+
+    private void runAll() throws Exception {
+        String which = args.getOrDefault("bench", "all");
+        int[] wishlists = ints(args.getOrDefault("wishlist", "1,5,20"));
+        int[] waitlists = ints(args.getOrDefault("waitlist", "0,100,10000"));
+        int[] threads = ints(args.getOrDefault("threads", "1,4,16"));
+
+        System.out.printf("clients=%d products=%d hot=%d seconds=%d warmup=%d%n", clients, products, hot, seconds, warmup);
+        System.out.printf("%-22s %-18s %7s %14s %12s %12s%n", "benchmark", "params", "threads", "ops/s", "ns/op", "B/op");
+
+        if (want(which, "findClient")){
+            setup(0);
+            for (int t : threads) measure("findClient", "-", t, r -> {
+                if (clientList.findClient(clientIds[r.nextInt(clients)]) == null) throw new IllegalStateException();
+            });
+        }
+        if (want(which, "getWishlistForClient")){
+            for (int w : wishlists){
+                setup(0);
+                for (String cid : clientIds) fillWishlist(cid, w, ThreadLocalRandom.current());
+                for (int t : threads) measure("getWishlistForClient", "wishlist=" + w, t,
+                        r -> warehouse.getWishlistForClient(clientIds[r.nextInt(clients)]));
+            }
+        }
+        if (want(which, "copyWishlist")){
+            ThreadLocal<WishlistMap> buffers = ThreadLocal.withInitial(WishlistMap::new);
+            for (int w : wishlists){
+                setup(0);
+                for (String cid : clientIds) fillWishlist(cid, w, ThreadLocalRandom.current());
+                for (int t : threads) measure("copyWishlist", "wishlist=" + w, t,
+                        r -> warehouse.copyWishlist(clientIds[r.nextInt(clients)], buffers.get()));
+            }
+        }
+        if (want(which, "placeOrder")){
+            for (int w : wishlists){
+                setup(1_000_000_000);
+                for (int t : threads) measure("placeOrder", "wishlist=" + w, t, r -> {
+                    String cid = clientIds[r.nextInt(clients)];
+                    fillWishlist(cid, w, r);
+                    warehouse.placeOrder(cid);
+                });
+            }
+        }
+        if (want(which, "receiveShipment")){
+            for (int d : waitlists){
+                setup(0);
+                // the first `hot` products start empty with d single-unit waitlist entries each
+                for (int p = 0; p < hot; p++){
+                    for (int i = 0; i < d; i++) waitOne(clientIds[i % clients], productIds[p]);
+                }
+                for (int t : threads) measure("receiveShipment", "waitlist=" + d, t, r -> {
+                    String pid = productIds[r.nextInt(hot)];
+                    // ship 10 units, then put the served demand back so the depth stays at d
+                    warehouse.receiveShipment(pid, 10);
+                    if (d > 0){
+                        for (int i = 0; i < 10; i++) waitOne(clientIds[r.nextInt(clients)], pid);
+                    }
+                });
+            }
+        }
+        if (want(which, "pipeline")){
+            setup(1_000_000);
+            for (int t : threads) measure("mutations.direct", "-", t, this::mutation);
+            try (WarehousePipeline pl = warehouse.startPipeline(4096)){
+                for (int t : threads) measure("mutations.sync", "ring=4096", t, this::mutation);
+                ThreadLocal<ArrayDeque<CompletableFuture<Integer>>> inFlight = ThreadLocal.withInitial(ArrayDeque::new);
+                for (int t : threads) measure("mutations.async", "ring=4096", t, r -> {
+                    ArrayDeque<CompletableFuture<Integer>> q = inFlight.get();
+                    if (q.size() == 32) q.poll().join();
+                    q.add(asyncMutation(pl, r));
+                });
+            }
+        }
+        if (want(which, "sharded")){
+            for (int n : ints(args.getOrDefault("shards", "1,2,4"))){
+                ShardedWarehouse sw = new ShardedWarehouse(n);
+                List<List<String>> clientsOn = new ArrayList<>(), productsOn = new ArrayList<>();
+                for (int s = 0; s < n; s++){ clientsOn.add(new ArrayList<>()); productsOn.add(new ArrayList<>()); }
+                for (int i = 0; i < clients; i++){
+                    String id = sw.addClient("client" + i, "addr" + i);
+                    clientsOn.get(sw.shardOf(Ids.clientIndex(id))).add(id);
+                }
+                for (int i = 0; i < products; i++){
+                    String id = sw.addProductCents("product" + i, 1_000_000_000, 125);
+                    productsOn.get(sw.shardOf(Ids.productIndex(id))).add(id);
+                }
+                System.gc();
+                for (int t : threads){
+                    // each pool thread takes the next shard in turn
+                    AtomicInteger turn = new AtomicInteger();
+                    ThreadLocal<Integer> home = ThreadLocal.withInitial(() -> turn.getAndIncrement() % n);
+                    measure("sharded.placeOrder", "shards=" + n, t, r -> {
+                        List<String> cs = clientsOn.get(home.get()), ps = productsOn.get(home.get());
+                        String cid = cs.get(r.nextInt(cs.size()));
+                        for (int k = 0; k < 3; k++) sw.addOrUpdateWishlistItem(cid, ps.get(r.nextInt(ps.size())), 1 + r.nextInt(3));
+                        sw.placeOrder(cid);
+                    });
+                }
+                sw.close();
+            }
+        }
+        if (want(which, "recordLatency")){
+            // the per-operation cost of the metrics alone: one timed call into a shared histogram
+            WarehouseMetrics m = new Warehouse().metrics();
+            for (int t : threads) measure("recordLatency", "-", t, r -> m.record(WarehouseOp.PLACE_ORDER, WarehouseMetrics.start()));
+        }
+    }
+
+    // 3 wishlist updates : 1 order : 1 payment : 1 single-unit shipment
+    private void mutation(ThreadLocalRandom r){
+        String cid = clientIds[r.nextInt(clients)];
+        switch (r.nextInt(6)){
+            case 3: warehouse.placeOrder(cid); break;
+            case 4: warehouse.recordPaymentCents(cid, 100); break;
+            case 5: warehouse.receiveShipment(productIds[r.nextInt(products)], 1); break;
+            default: warehouse.addOrUpdateWishlistItem(cid, productIds[r.nextInt(products)], 1 + r.nextInt(3));
+        }
+    }
+
+    private CompletableFuture<Integer> asyncMutation(WarehousePipeline pl, ThreadLocalRandom r){
+        String cid = clientIds[r.nextInt(clients)];
+        switch (r.nextInt(6)){
+            case 3: return pl.placeOrder(cid, AllocationPolicy.GREEDY);
+            case 4: return pl.recordPaymentCents(cid, 100);
+            case 5: return pl.receiveShipment(productIds[r.nextInt(products)], 1);
+            default: return pl.addOrUpdateWishlistItem(cid, productIds[r.nextInt(products)], 1 + r.nextInt(3));
+        }
+    }
+
+    private void setup(int stock){
+        warehouse = new Warehouse();
+        clientList = new ClientList();
+        clientIds = new String[clients];
+        productIds = new String[products];
+        for (int i = 0; i < clients; i++){
+            clientIds[i] = warehouse.addClient("client" + i, "addr" + i);
+            clientList.addClient(new Client(clientIds[i], "client" + i, "addr" + i));
+        }
+        for (int i = 0; i < products; i++) productIds[i] = warehouse.addProduct("product" + i, stock, 1.25);
+        System.gc();
+    }
+
+    private void fillWishlist(String cid, int lines, ThreadLocalRandom r){
+        for (int i = 0; i < lines; i++) warehouse.addOrUpdateWishlistItem(cid, productIds[r.nextInt(products)], 1 + r.nextInt(3));
+    }
+
+    // adds one unit of waitlisted demand: the products are never stocked, so the order goes to the waitlist
+    private void waitOne(String cid, String pid){
+        warehouse.addOrUpdateWishlistItem(cid, pid, 1);
+        warehouse.placeOrder(cid);
+    }
+
+    private void measure(String name, String params, int threads, Op op) throws Exception {
+        if (warmup > 0) run(threads, warmup, op);
+        long[] r = run(threads, seconds, op);
+        long ops = r[0], nanos = r[1], bytes = r[2];
+        double opsPerSec = ops * 1e9 / nanos;
+        System.out.printf("%-22s %-18s %7d %14.0f %12.1f %12s%n", name, params, threads, opsPerSec,
+                ops == 0 ? 0.0 : (double) nanos * threads / ops,
+                bytes < 0 ? "n/a" : String.valueOf(ops == 0 ? 0 : bytes / ops));
+    }
+
+    // returns {operations, elapsed nanos, allocated bytes or -1}
+    private long[] run(int threads, int secs, Op op) throws Exception {
+        ExecutorService pool = Executors.newFixedThreadPool(threads);
+        LongAdder ops = new LongAdder();
+        LongAdder bytes = new LongAdder();
+        CountDownLatch start = new CountDownLatch(1);
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(secs);
+        List<Future<?>> futures = new ArrayList<>();
+        for (int t = 0; t < threads; t++){
+            futures.add(pool.submit(() -> {
+                ThreadLocalRandom r = ThreadLocalRandom.current();
+                long before = allocatedBytes();
+                start.await();
+                long n = 0;
+                while ((n & 63) != 0 || System.nanoTime() < deadline){
+                    op.run(r);
+                    n++;
+                }
+                long after = allocatedBytes();
+                ops.add(n);
+                bytes.add(before < 0 ? -1 : after - before);
+                return null;
+            }));
+        }
+        long t0 = System.nanoTime();
+        start.countDown();
+        for (Future<?> f : futures) f.get();
+        long elapsed = System.nanoTime() - t0;
+        pool.shutdown();
+        long b = bytes.sum();
+        return new long[]{ ops.sum(), elapsed, b < 0 ? -1 : b };
+    }
+
+    // HotSpot exposes per-thread allocation counters; other VMs report n/a
+    private static long allocatedBytes(){
+        var mx = ManagementFactory.getThreadMXBean();
+        if (mx instanceof com.sun.management.ThreadMXBean){
+            return ((com.sun.management.ThreadMXBean) mx).getThreadAllocatedBytes(Thread.currentThread().getId());
+        }
+        return -1;
+    }
+
+    private static boolean want(String which, String name){
+        return which.equals("all") || Arrays.asList(which.split(",")).contains(name);
+    }
+
+    private static int[] ints(String csv){
+        String[] parts = csv.split(",");
+        int[] out = new int[parts.length];
+        for (int i = 0; i < parts.length; i++) out[i] = Integer.parseInt(parts[i].trim());
+        return out;
+    }
+}
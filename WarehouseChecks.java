@@ -0,0 +1,308 @@
+import java.io.IOException;
+import java.nio.file.*;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.LongAdder;
+
+// Runnable correctness checks for interleavings the Warehouse has to get right; the companion of
+// WarehouseBench. Each check builds its own warehouse, prints "ok <name>" or the first failed
+// expectation, and the process exits with status 1 if any check failed.
+// Usage: java WarehouseChecks [check=all] [threads=16] [ops=20000] [clients=200] [products=20]
+// check is a comma list of stock, reservations, history, replication. stock runs `threads` threads each doing `ops`
+// random wishlist updates, orders (all allocation policies), shipments and reserve/commit/release
+// over a few hot products, then checks that every unit is accounted for.
+public class WarehouseChecks {
+
+    interface Check { void run() throws Exception; }
+
+    private final Map<String, String> args;
+    private int failed;
+
+    WarehouseChecks(Map<String, String> args){ this.args = args; }
+
+    public static void main(String[] argv) throws Exception {
+        Map<String, String> args = new HashMap<>();
+        for (String a : argv){
+            int eq = a.indexOf('=');
+            if (eq > 0) args.put(a.substring(0, eq), a.substring(eq + 1));
+        }
+        WarehouseChecks checks = new WarehouseChecks(args);
+        checks.runAll();
+        if (checks.failed > 0) System.exit(1);
+    }
+
+    private void runAll() throws Exception {
+        String which = args.getOrDefault("check", "all");
+        if (want(which, "stock")) run("stock", this::stock);
+        if (want(which, "reservations")) run("reservations", this::reservations);
+        if (want(which, "history")) run("history", this::history);
+        if (want(which, "replication")) run("replication", this::replication);
+    }
+
+    private void run(String name, Check check) throws Exception {
+        try {
+            check.run();
+            System.out.println("ok " + name);
+        } catch (AssertionError e){
+            failed++;
+            System.out.println("FAILED " + name + ": " + e.getMessage());
+        }
+    }
+
+    // ---------------------- stock ----------------------
+
+    // Stock is conserved under contention: initial stock plus everything shipped equals what is
+    // left in stock plus every unit invoiced, no reservation is left holding units, and clients
+    // are billed exactly for what they bought.
+    private void stock() throws Exception {
+        int threads = Integer.parseInt(args.getOrDefault("threads", "16"));
+        int ops = Integer.parseInt(args.getOrDefault("ops", "20000"));
+        int clients = Integer.parseInt(args.getOrDefault("clients", "200"));
+        int products = Integer.parseInt(args.getOrDefault("products", "20"));
+        long price = 100;
+        int initial = 50;
+
+        Warehouse w = new Warehouse();
+        String[] cs = new String[clients], ps = new String[products];
+        for (int i = 0; i < clients; i++) cs[i] = w.addClient("c" + i, "addr");
+        for (int i = 0; i < products; i++) ps[i] = w.addProductCents("p" + i, initial, price);
+        AllocationPolicy[] policies = AllocationPolicy.values();
+        LongAdder shipped = new LongAdder();
+
+        ExecutorService pool = Executors.newFixedThreadPool(threads);
+        CountDownLatch start = new CountDownLatch(1);
+        List<Future<?>> done = new ArrayList<>();
+        for (int t = 0; t < threads; t++){
+            done.add(pool.submit(() -> {
+                start.await();
+                ThreadLocalRandom r = ThreadLocalRandom.current();
+                for (int k = 0; k < ops; k++){
+                    String c = cs[r.nextInt(clients)];
+                    switch (r.nextInt(8)){
+                        case 0: case 1: case 2:
+                            w.addOrUpdateWishlistItem(c, ps[r.nextInt(products)], 1 + r.nextInt(4));
+                            break;
+                        case 3: case 4:
+                            w.placeOrder(c, policies[r.nextInt(policies.length)]);
+                            break;
+                        case 5: {
+                            int q = 1 + r.nextInt(6);
+                            w.receiveShipment(ps[r.nextInt(products)], q);
+                            shipped.add(q);
+                            break;
+                        }
+                        default: {
+                            Reservation res = w.reserve(c, 60_000);
+                            if (res.size() == 0) break;
+                            if (r.nextBoolean()) w.commit(res.getId());
+                            else w.release(res.getId());
+                        }
+                    }
+                }
+                return null;
+            }));
+        }
+        start.countDown();
+        for (Future<?> f : done) f.get();
+        pool.shutdown();
+
+        long stock = 0, reserved = 0;
+        for (Product p : w.getAllProducts()){
+            expect(p.getStock() >= 0, p.getId() + " oversold: stock " + p.getStock());
+            stock += p.getStock();
+            reserved += p.getReserved();
+        }
+        long sold = 0, billed = 0;
+        for (String c : cs){
+            for (Transaction t : w.getTransactionsForClient(c)) sold += t.getQuantity();
+            billed += w.findClient(c).getBalanceCents();
+        }
+        long in = (long) initial * products + shipped.sum();
+        expect(reserved == 0, reserved + " units still reserved");
+        expect(stock + sold == in, "initial + shipped = " + in + " but stock + sold = " + (stock + sold));
+        expect(billed == sold * price, "billed " + billed + " cents for " + sold + " units");
+        w.close();
+    }
+
+    // ---------------------- reservations ----------------------
+
+    // Reserved wishlist units are sold once: by commit, never again by placeOrder or a second
+    // reserve, whatever order the calls come in, and the same holds after journal replay.
+    private void reservations() throws IOException {
+        // reserve, order the rest, commit
+        Warehouse w = new Warehouse();
+        String c = w.addClient("Ann", "1 Main St");
+        String p = w.addProductCents("widget", 10, 100);
+        w.addOrUpdateWishlistItem(c, p, 4);
+        Reservation r = w.reserve(c, 60_000);
+        expect(r.size() == 1 && r.getQuantity(0) == 4, "first reserve holds the whole line");
+        expect(w.reserve(c, 60_000).size() == 0, "second reserve of the same line holds nothing");
+        w.placeOrder(c, AllocationPolicy.GREEDY);
+        expect(w.product(1).getStock() == 10, "placeOrder leaves reserved units alone");
+        expect(w.getWishlistForClient(c).size() == 1, "reserved line stays on the wishlist until commit");
+        expect(w.getWaitlistView(p).isEmpty(), "reserved units are not waitlisted");
+        w.commit(r.getId());
+        expect(w.product(1).getStock() == 6 && w.product(1).getReserved() == 0, "commit sells the 4 reserved units once");
+        expect(w.findClient(c).getBalanceCents() == 400, "client billed for 4 units");
+        expect(w.getWishlistForClient(c).isEmpty(), "commit consumes the line");
+        w.close();
+
+        // part of the line reserved: the order takes the rest, release puts the reserved part back
+        w = new Warehouse();
+        c = w.addClient("Bob", "2 Main St");
+        p = w.addProductCents("gadget", 3, 100);
+        w.addOrUpdateWishlistItem(c, p, 5);
+        r = w.reserve(c, 60_000);
+        expect(r.getQuantity(0) == 3, "reserve takes what is available");
+        w.receiveShipment(p, 1);
+        w.placeOrder(c, AllocationPolicy.GREEDY);
+        expect(w.product(1).getStock() == 3 && w.findClient(c).getBalanceCents() == 100, "order buys the unreserved 2 from the 1 free unit");
+        expect(w.getWaitlistView(p).equals(List.of(c + " x1")), "only the unreserved shortfall is waitlisted");
+        expect(w.getWishlistForClient(c).get(0).endsWith("qty=3"), "line keeps its reserved part");
+        w.release(r.getId());
+        expect(w.product(1).getReserved() == 0 && w.findClient(c).getReserved(1) == 0, "release returns the units");
+        expect(w.reserve(c, 60_000).getQuantity(0) == 3, "released units can be reserved again");
+        w.close();
+
+        // the same interleaving survives a restart
+        Path dir = Files.createTempDirectory("warehouse-checks");
+        try {
+            Warehouse j1 = new Warehouse();
+            WarehouseJournal j = WarehouseJournal.open(dir, j1, true, 0);
+            c = j1.addClient("Cy", "3 Main St");
+            p = j1.addProductCents("gizmo", 5, 100);
+            j1.addOrUpdateWishlistItem(c, p, 7);
+            Reservation open = j1.reserve(c, 600_000);
+            j1.placeOrder(c, AllocationPolicy.GREEDY);
+            j.snapshot();
+            j1.receiveShipment(p, 2);
+            j.close();
+            j1.close();
+
+            Warehouse j2 = new Warehouse();
+            j = WarehouseJournal.open(dir, j2, true, 0);
+            expect(j2.findClient(c).getReserved(1) == 5, "reserved units are restored");
+            j2.placeOrder(c, AllocationPolicy.GREEDY);
+            expect(j2.findClient(c).getBalanceCents() == 200, "a restored reservation is not ordered again");
+            j2.commit(open.getId());
+            expect(j2.product(1).getStock() == 0 && j2.findClient(c).getBalanceCents() == 700, "7 units sold in total");
+            j.close();
+            j2.close();
+        } finally {
+            deleteDir(dir);
+        }
+    }
+
+    // ---------------------- history ----------------------
+
+    // Every page of a client's history is the matching slice of the whole history, newest first,
+    // including pages that run past the oldest record. History taken before a snapshot (which
+    // only refers to the ledger) and after it both come back on restart.
+    private void history() throws IOException {
+        Warehouse w = new Warehouse();
+        String c = w.addClient("Dee", "4 Main St");
+        String other = w.addClient("Eve", "5 Main St");
+        String p = w.addProductCents("bolt", 5000, 100);
+        for (int i = 0; i < 1000; i++){
+            w.addOrUpdateWishlistItem(i % 3 == 0 ? other : c, p, 1 + i % 5);
+            w.placeOrder(i % 3 == 0 ? other : c, AllocationPolicy.GREEDY);
+        }
+        List<Transaction> all = new ArrayList<>(w.getTransactionsForClient(c));
+        expect(all.size() == w.findClient(c).getTransactionCount(), "whole history has every transaction");
+        Collections.reverse(all); // pages are newest first
+        for (int offset : new int[]{0, 1, 17, 400, all.size() - 3, all.size(), all.size() + 5}){
+            List<Transaction> page = w.getTransactionsForClient(c, offset, 10);
+            List<Transaction> slice = all.subList(Math.min(offset, all.size()), Math.min(offset + 10, all.size()));
+            expect(page.size() == slice.size(), "page at " + offset + " has " + page.size() + " rows, expected " + slice.size());
+            for (int i = 0; i < page.size(); i++){
+                expect(page.get(i).getNumber() == slice.get(i).getNumber(), "page at " + offset + " row " + i + " is the matching transaction");
+            }
+        }
+        w.close();
+
+        Path dir = Files.createTempDirectory("warehouse-checks");
+        try {
+            Warehouse j1 = new Warehouse();
+            WarehouseJournal j = WarehouseJournal.open(dir, j1, true, 0);
+            c = j1.addClient("Fay", "6 Main St");
+            p = j1.addProductCents("nut", 500, 100);
+            for (int i = 0; i < 300; i++){
+                if (i == 200) j.snapshot();
+                j1.addOrUpdateWishlistItem(c, p, 1);
+                j1.placeOrder(c, AllocationPolicy.GREEDY);
+            }
+            List<String> before = new ArrayList<>();
+            for (Transaction t : j1.getTransactionsForClient(c)) before.add(t.toString());
+            j.close();
+            j1.close();
+
+            Warehouse j2 = new Warehouse();
+            j = WarehouseJournal.open(dir, j2, true, 0);
+            List<String> after = new ArrayList<>();
+            for (Transaction t : j2.getTransactionsForClient(c)) after.add(t.toString());
+            expect(after.equals(before), "restart restores " + after.size() + " of " + before.size() + " transactions");
+            expect(j2.findClient(c).getBalanceCents() == 30_000, "restart restores the balance");
+            j2.addOrUpdateWishlistItem(c, p, 1);
+            j2.placeOrder(c, AllocationPolicy.GREEDY);
+            expect(j2.getTransactionsForClient(c, 0, 2).get(1).getNumber() == j2.getTransactionsForClient(c, 1, 1).get(0).getNumber(),
+                    "new invoices continue the restored history");
+            j.close();
+            j2.close();
+        } finally {
+            deleteDir(dir);
+        }
+    }
+
+    // ---------------------- replication ----------------------
+
+    // Synchronous replication never passes a commit off as acknowledged: with no follower a
+    // degrading leader reports every commit it let through, and a strict one holds the commit
+    // until a follower has it.
+    private void replication() throws Exception {
+        Path dir = Files.createTempDirectory("warehouse-checks");
+        Path mirror = Files.createTempDirectory("warehouse-checks-mirror");
+        ExecutorService pool = Executors.newSingleThreadExecutor();
+        Warehouse w = new Warehouse();
+        WarehouseJournal j = WarehouseJournal.open(dir, w, true, 0);
+        try {
+            ReplicationLeader rl = ReplicationLeader.start(j, 0, 1, 2000);
+            w.addClient("Gus", "7 Main St");
+            expect(rl.isDegraded() && rl.getDegradedCommits() == 1, "a commit without followers is counted as degraded");
+            rl.close();
+
+            ReplicationLeader strict = ReplicationLeader.start(j, 0, 1, 2000, false);
+            Future<String> added = pool.submit(() -> w.addProductCents("washer", 5, 100));
+            Thread.sleep(300);
+            expect(!added.isDone(), "a strict commit waits for a follower");
+            try (ReplicationFollower f = ReplicationFollower.start(mirror, "localhost", strict.getPort())){
+                added.get(10, TimeUnit.SECONDS);
+                expect(f.getAllProducts().size() == 1, "the follower has the record before the commit returns");
+                expect(!strict.isDegraded() && strict.getDegradedCommits() == 0, "a strict leader never degrades");
+            }
+            strict.close();
+        } finally {
+            pool.shutdownNow();
+            j.close();
+            w.close();
+            deleteDir(dir);
+            deleteDir(mirror);
+        }
+    }
+
+    // ---------------------- helpers ----------------------
+
+    private static void expect(boolean ok, String what){
+        if (!ok) throw new AssertionError(what);
+    }
+
+    private static void deleteDir(Path dir) throws IOException {
+        try (DirectoryStream<Path> ds = Files.newDirectoryStream(dir)){
+            for (Path f : ds) Files.deleteIfExists(f);
+        }
+        Files.deleteIfExists(dir);
+    }
+
+    private static boolean want(String which, String name){
+        return which.equals("all") || Arrays.asList(which.split(",")).contains(name);
+    }
+}
@@ -1,6 +1,14 @@
+import javax.management.JMException;
 import javax.swing.*;
 import java.awt.*;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.PrintStream;
+import java.nio.file.Paths;
+import java.util.NoSuchElementException;
 import java.util.Scanner;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
 
 public class WarehouseContext {
     public static final int OPENING_STATE = 0;
@@ -16,31 +24,118 @@ public class WarehouseContext {
     public static final int CMD_MANAGER        = 3;
     public static final int CMD_WISHLIST       = 4;
 
+    // transition target meaning "back to the state we came from" (client logout)
+    private static final int PREVIOUS_STATE = -2;
+
     private static WarehouseContext singleton;
-    private final Warehouse warehouse = new Warehouse();
+    private final Warehouse warehouse;
     private final WarehouseState[] states = new WarehouseState[6];
-    private final Scanner in = new Scanner(System.in); // input scanner for text states
-    private int currentStateIndex = OPENING_STATE;
-    private int previousStateIndex = OPENING_STATE;
+    private final Scanner in; // input scanner for text states
+    private final PrintStream out; // where text states print
+    private final CommandExecutor commands; // runs GUI actions off the EDT; null in headless sessions
+    // state changes are signalled on stateChanged; stateVersion counts them so waiters never miss one
+    private final ReentrantLock stateLock = new ReentrantLock();
+    private final Condition stateChanged = stateLock.newCondition();
+    private volatile int currentStateIndex = OPENING_STATE;
+    private volatile int previousStateIndex = OPENING_STATE;
+    private long stateVersion = 0;
     private String currentClientId = null;
     private MainFrame mainFrame;
+    private WarehouseJournal journal; // null when persistence could not be opened
 
     private final int[][] transitions = {
-        /*           QUIT   CLIENT   CLERK   MANAGER  WISHLIST */
-        /*OPEN*/  { EXIT_STATE, CLIENT_STATE, CLERK_STATE, MANAGER_STATE, -1 },
-        /*CLI */  { -1,        -1,          -1,         -1,           WISHLIST_STATE },
-        /*CLK */  { -1,        CLIENT_STATE,-1,         -1,           -1 },
-        /*MGR */  { -1,        -1,          CLERK_STATE,-1,           -1 },
-        /*EXIT*/  { EXIT_STATE,EXIT_STATE,  EXIT_STATE, EXIT_STATE,   EXIT_STATE },
-        /*WISH*/  { -1,        CLIENT_STATE,-1,         -1,           -1 }
+        /*           QUIT            CLIENT        CLERK        MANAGER        WISHLIST */
+        /*OPEN*/  { EXIT_STATE,     CLIENT_STATE, CLERK_STATE, MANAGER_STATE, -1 },
+        /*CLI */  { PREVIOUS_STATE, -1,           -1,          -1,            WISHLIST_STATE },
+        /*CLK */  { OPENING_STATE,  CLIENT_STATE, -1,          -1,            -1 },
+        /*MGR */  { OPENING_STATE,  -1,           CLERK_STATE, -1,            -1 },
+        /*EXIT*/  { EXIT_STATE,     EXIT_STATE,   EXIT_STATE,  EXIT_STATE,    EXIT_STATE },
+        /*WISH*/  { PREVIOUS_STATE, CLIENT_STATE, -1,          -1,            -1 }
     };
 
     private WarehouseContext() {
+        warehouse = new Warehouse();
+        in = new Scanner(System.in);
+        out = System.out;
+        commands = new CommandExecutor(Math.min(4, Runtime.getRuntime().availableProcessors()), 256);
         states[OPENING_STATE] = new OpeningPanel(this); // GUI opening panel
         states[CLIENT_STATE]  = new ClientMenuPanel(this); // GUI client menu panel
         states[CLERK_STATE]   = new ClerkPanel(this); // GUI clerk panel
         states[MANAGER_STATE] = new ManagerPanel(this); // GUI manager panel
         states[WISHLIST_STATE] = null; // wishlist panel will be set when needed
+        journal = openJournal(warehouse);
+        startReplication(journal);
+        startMetrics(warehouse);
+        startPipeline(warehouse);
+    }
+
+    // Headless session: text menus over the given streams, sharing a warehouse with other sessions.
+    // Each session keeps its own current state, previous state and current client.
+    public WarehouseContext(Warehouse shared, InputStream input, PrintStream output) {
+        warehouse = shared;
+        in = new Scanner(input);
+        out = output;
+        commands = null;
+        states[OPENING_STATE] = new OpeningState(this);
+        states[CLIENT_STATE]  = new ClientTextMenuState(this); // wishlist operations are part of this menu
+        states[CLERK_STATE]   = new ClerkMenuState(this);
+        states[MANAGER_STATE] = new ManagerMenuState(this);
+    }
+
+    // recover the warehouse from disk and journal every change from now on; null if that fails
+    static WarehouseJournal openJournal(Warehouse warehouse) {
+        String dir = System.getProperty("warehouse.dataDir", "warehouse-data");
+        boolean sync = Boolean.parseBoolean(System.getProperty("warehouse.syncCommit", "true"));
+        long snapshotSeconds = Long.getLong("warehouse.snapshotSeconds", 300L);
+        try {
+            WarehouseJournal j = WarehouseJournal.open(Paths.get(dir), warehouse, sync, snapshotSeconds);
+            // the recovered policy stays unless one is configured; switching is journaled like any change
+            String policy = System.getProperty("warehouse.waitlistPolicy");
+            if (policy != null) {
+                try { warehouse.setWaitlistPolicy(WaitlistPolicy.valueOf(policy.trim().toUpperCase())); }
+                catch (IllegalArgumentException e) { System.err.println("Unknown waitlist policy " + policy + ", keeping " + warehouse.getWaitlistPolicy()); }
+            }
+            return j;
+        } catch (IOException e) {
+            System.err.println("Persistence disabled, could not open " + dir + ": " + e.getMessage());
+            return null;
+        }
+    }
+
+    // ship the journal to standby followers when warehouse.replicationPort is set; with
+    // warehouse.replicationSyncAcks = k, commits also wait for k caught-up followers, going
+    // asynchronous while fewer are connected unless warehouse.replicationDegrade=false
+    static ReplicationLeader startReplication(WarehouseJournal journal) {
+        Integer port = Integer.getInteger("warehouse.replicationPort");
+        if (journal == null || port == null) return null;
+        int syncAcks = Integer.getInteger("warehouse.replicationSyncAcks", 0);
+        long ackTimeout = Long.getLong("warehouse.replicationAckTimeoutMillis", 5000L);
+        boolean degrade = Boolean.parseBoolean(System.getProperty("warehouse.replicationDegrade", "true"));
+        try {
+            ReplicationLeader rl = ReplicationLeader.start(journal, port, syncAcks, ackTimeout, degrade);
+            System.out.println("Replicating to followers on localhost:" + rl.getPort()
+                    + (syncAcks > 0 ? " (sync, " + syncAcks + " acks" + (degrade ? "" : ", strict") + ")" : ""));
+            return rl;
+        } catch (IOException | IllegalArgumentException e) {
+            System.err.println("Replication not started: " + e.getMessage());
+            return null;
+        }
+    }
+
+    // publish the warehouse metrics over JMX and log them every warehouse.metricsLogSeconds (0 = never)
+    static void startMetrics(Warehouse warehouse) {
+        try { warehouse.metrics().registerMBeans("WarehouseFSM"); }
+        catch (JMException e) { System.err.println("Metrics not published over JMX: " + e.getMessage()); }
+        long logSeconds = Long.getLong("warehouse.metricsLogSeconds", 60L);
+        if (logSeconds > 0) warehouse.metrics().startLog(logSeconds, System.out);
+    }
+
+    // single-writer mode when warehouse.pipelineCapacity (a power of two) is set
+    static void startPipeline(Warehouse warehouse) {
+        int capacity = Integer.getInteger("warehouse.pipelineCapacity", 0);
+        if (capacity <= 0) return;
+        try { warehouse.startPipeline(capacity); }
+        catch (IllegalArgumentException e) { System.err.println("Pipeline not started: " + e.getMessage()); }
     }
 
     public static WarehouseContext instance() {
@@ -49,54 +144,114 @@ public class WarehouseContext {
     }
 
     public Warehouse warehouse() { return warehouse; }
+    public CommandExecutor commands() { return commands; }
+    public PrintStream out() { return out; }
     public void setCurrentClient(String id) { this.currentClientId = id; }
     public String getCurrentClient() { return currentClientId; }
     public void setPreviousState(int s) { previousStateIndex = s; }
     public int getPreviousState() { return previousStateIndex; }
-    public void setState(int s) { currentStateIndex = s; }
     public int getCurrentStateIndex() { return currentStateIndex; }
+
+    // Moves the FSM to state s and wakes everyone waiting on a state change.
+    // Only moves allowed by the transitions table are accepted.
+    public void setState(int s) {
+        stateLock.lock();
+        try {
+            int cur = currentStateIndex;
+            if (s == cur) return;
+            if (!isAllowed(cur, s)) {
+                throw new IllegalStateException("No transition from state " + cur + " to " + s);
+            }
+            currentStateIndex = s;
+            stateVersion++;
+            stateChanged.signalAll();
+        } finally {
+            stateLock.unlock();
+        }
+    }
+
+    private boolean isAllowed(int cur, int target) {
+        if (cur < 0 || cur >= transitions.length) return false;
+        for (int cmd = 0; cmd < transitions[cur].length; cmd++) {
+            if (getNextState(cur, cmd) == target) return true;
+        }
+        return false;
+    }
+
+    // Blocks the caller until the FSM has left state s; returns immediately if it is elsewhere
+    public void awaitLeaving(int s) {
+        stateLock.lock();
+        try {
+            while (currentStateIndex == s) stateChanged.await();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            stateLock.unlock();
+        }
+    }
+
+    // Blocks until the state changes after version seen; returns the new version
+    private long awaitChange(long seen) throws InterruptedException {
+        stateLock.lock();
+        try {
+            while (stateVersion == seen) stateChanged.await();
+            return stateVersion;
+        } finally {
+            stateLock.unlock();
+        }
+    }
+
+    private long stateVersion() {
+        stateLock.lock();
+        try { return stateVersion; }
+        finally { stateLock.unlock(); }
+    }
     public WarehouseState getState(int i) { return states[i]; }
     public void setWishlistState(WarehouseState s) { states[WISHLIST_STATE] = s; }
 
     // input helpers for text-based states
     public String promptLine(String prompt) {
-        System.out.print(prompt);
+        out.print(prompt);
+        out.flush();
         return in.nextLine().trim();
     }
 
     public int promptInt(String prompt) {
         while (true) {
-            System.out.print(prompt);
-            String s = in.nextLine().trim();
+            String s = promptLine(prompt);
             try { return Integer.parseInt(s); }
-            catch (NumberFormatException e) { System.out.println("Please enter an integer."); }
+            catch (NumberFormatException e) { out.println("Please enter an integer."); }
         }
     }
 
     public double promptDouble(String prompt) {
         while (true) {
-            System.out.print(prompt);
-            String s = in.nextLine().trim();
+            String s = promptLine(prompt);
             try { return Double.parseDouble(s); }
-            catch (NumberFormatException e) { System.out.println("Please enter a valid number (e.g., 12.5)."); }
+            catch (NumberFormatException e) { out.println("Please enter a valid number (e.g., 12.5)."); }
+        }
+    }
+
+    // money amount in cents, parsed exactly ("12.5" -> 1250)
+    public long promptMoney(String prompt) {
+        while (true) {
+            String s = promptLine(prompt);
+            try { return Money.parse(s); }
+            catch (IllegalArgumentException e) { out.println("Please enter an amount (e.g., 12.50)."); }
         }
     }
 
     public int getNextState(int cur, int cmd) {
         if (cur < 0 || cur >= transitions.length) return -1;
         if (cmd < 0 || cmd >= transitions[cur].length) return -1;
-        return transitions[cur][cmd];
+        int next = transitions[cur][cmd];
+        return next == PREVIOUS_STATE ? previousStateIndex : next;
     }
 
     public void logout() {
-        if (currentStateIndex == CLIENT_STATE || currentStateIndex == WISHLIST_STATE) {
-            setState(previousStateIndex);
-            currentClientId = null;
-        } else if (currentStateIndex == CLERK_STATE || currentStateIndex == MANAGER_STATE) {
-            setState(OPENING_STATE);
-        } else {
-            setState(EXIT_STATE);
-        }
+        int cur = currentStateIndex;
+        setState(getNextState(cur, CMD_QUIT_OR_LOGOUT));
+        if (cur == CLIENT_STATE || cur == WISHLIST_STATE) currentClientId = null;
     }
 
     public void setMainFrame(MainFrame f) { this.mainFrame = f; }
@@ -118,12 +273,33 @@ public class WarehouseContext {
             System.exit(1);
         }
 
-        // run FSM loop on this thread; GUI updates happen on EDT via changePanel
+        // run FSM loop on this thread; GUI updates happen on EDT via changePanel.
+        // Each state runs once per entry, then the thread sleeps until the next transition.
+        long seen = stateVersion();
         while (currentStateIndex != EXIT_STATE) {
             WarehouseState st = states[currentStateIndex];
             if (st != null) st.run();
-            try { Thread.sleep(100); } catch (InterruptedException ignored) {}
+            try { seen = awaitChange(seen); }
+            catch (InterruptedException e) { break; }
+        }
+        if (journal != null) {
+            try { journal.close(); } catch (IOException e) { System.err.println("Journal close failed: " + e.getMessage()); }
         }
         System.exit(0);
     }
+
+    // Runs a headless session until the user quits or the input ends (client disconnected)
+    public void runSession() {
+        try {
+            while (currentStateIndex != EXIT_STATE) {
+                WarehouseState st = states[currentStateIndex];
+                if (st == null) break;
+                st.run(); // text states return once they have moved the FSM on
+            }
+        } catch (NoSuchElementException e) {
+            // input closed: the session simply ends
+        }
+        out.println("Bye.");
+        out.flush();
+    }
 }
\ No newline at end of file
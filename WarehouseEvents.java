@@ -0,0 +1,219 @@
+import java.util.*;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+
+// Change notifications from Warehouse. Each operation records its events into a per-thread batch
+// and hands the batch over before releasing its locks, so events for one product or client are
+// delivered in the order they happened. A single dispatcher thread merges whatever has queued up
+// and calls listeners with one batch per subscription; listeners never run under warehouse locks.
+// With no subscribers, recording is a single volatile read.
+public class WarehouseEvents {
+
+    public interface Listener { void onEvents(EventBatch batch); }
+
+    public final class Subscription implements AutoCloseable {
+        private final Listener listener;
+        private final int mask;
+        private final int product;  // > 0: only events for this product
+        private final int client;   // > 0: only events for this client
+        private final EventBatch filtered = new EventBatch(); // dispatcher-owned scratch
+
+        private Subscription(Listener listener, int mask, int product, int client){
+            this.listener = listener; this.mask = mask; this.product = product; this.client = client;
+        }
+
+        @Override public void close(){ remove(this); }
+    }
+
+    // Immutable routing table, replaced on every (un)subscribe
+    private static final class Routes {
+        final Subscription[] all;
+        final IntIntMap productSlot, clientSlot;
+        final Subscription[][] byProduct, byClient;
+
+        Routes(List<Subscription> subs){
+            List<Subscription> global = new ArrayList<>();
+            Map<Integer, List<Subscription>> p = new LinkedHashMap<>(), c = new LinkedHashMap<>();
+            for (Subscription s : subs){
+                if (s.product > 0) p.computeIfAbsent(s.product, k -> new ArrayList<>()).add(s);
+                else if (s.client > 0) c.computeIfAbsent(s.client, k -> new ArrayList<>()).add(s);
+                else global.add(s);
+            }
+            all = global.toArray(new Subscription[0]);
+            productSlot = new IntIntMap(p.size(), -1);
+            byProduct = index(p, productSlot);
+            clientSlot = new IntIntMap(c.size(), -1);
+            byClient = index(c, clientSlot);
+        }
+
+        private static Subscription[][] index(Map<Integer, List<Subscription>> m, IntIntMap slot){
+            Subscription[][] out = new Subscription[m.size()][];
+            int i = 0;
+            for (Map.Entry<Integer, List<Subscription>> e : m.entrySet()){
+                slot.put(e.getKey(), i);
+                out[i++] = e.getValue().toArray(new Subscription[0]);
+            }
+            return out;
+        }
+    }
+
+    private final List<Subscription> subscriptions = new ArrayList<>(); // guarded by this
+    private volatile Routes routes = new Routes(Collections.emptyList());
+    private volatile boolean active;
+    private volatile boolean everActive; // a thread may still hold events recorded for old subscribers
+
+    private final ThreadLocal<EventBatch> pending = new ThreadLocal<>();
+    private final LinkedBlockingQueue<EventBatch> queue = new LinkedBlockingQueue<>();
+    private final ConcurrentLinkedQueue<EventBatch> pool = new ConcurrentLinkedQueue<>();
+    private Thread dispatcher; // guarded by this
+    private boolean closed;    // guarded by this
+
+    // ---------------------- subscribing ----------------------
+
+    public Subscription subscribe(Listener l, EventType... types){ return add(new Subscription(l, EventType.mask(types), 0, 0)); }
+    public Subscription subscribeProduct(int product, Listener l, EventType... types){
+        if (product <= 0) throw new IllegalArgumentException("Bad product: " + product);
+        return add(new Subscription(l, EventType.mask(types), product, 0));
+    }
+    public Subscription subscribeClient(int client, Listener l, EventType... types){
+        if (client <= 0) throw new IllegalArgumentException("Bad client: " + client);
+        return add(new Subscription(l, EventType.mask(types), 0, client));
+    }
+    public Subscription subscribeProduct(String productId, Listener l, EventType... types){
+        return subscribeProduct(Ids.productIndex(productId), l, types);
+    }
+    public Subscription subscribeClient(String clientId, Listener l, EventType... types){
+        return subscribeClient(Ids.clientIndex(clientId), l, types);
+    }
+
+    private synchronized Subscription add(Subscription s){
+        if (closed) throw new IllegalStateException("Warehouse events are closed");
+        subscriptions.add(s);
+        routes = new Routes(subscriptions);
+        active = everActive = true;
+        if (dispatcher == null){
+            dispatcher = new Thread(this::dispatchLoop, "warehouse-events");
+            dispatcher.setDaemon(true);
+            dispatcher.start();
+        }
+        return s;
+    }
+
+    private synchronized void remove(Subscription s){
+        if (!subscriptions.remove(s)) return;
+        routes = new Routes(subscriptions);
+        active = !subscriptions.isEmpty();
+    }
+
+    // Drops every subscription and stops the dispatcher; Warehouse.close calls it. Events still
+    // queued are not delivered.
+    void close(){
+        Thread t;
+        synchronized (this){
+            closed = true;
+            subscriptions.clear();
+            routes = new Routes(subscriptions);
+            active = false;
+            t = dispatcher;
+            dispatcher = null;
+        }
+        if (t == null) return;
+        t.interrupt();
+        // not under the lock: a listener on the dispatcher may be unsubscribing right now
+        if (t != Thread.currentThread()){
+            try { t.join(); }
+            catch (InterruptedException e) { Thread.currentThread().interrupt(); }
+        }
+        queue.clear();
+    }
+
+    // ---------------------- recording (Warehouse side) ----------------------
+
+    boolean isActive(){ return active; }
+
+    void record(EventType type, int product, int client, int quantity, long value){
+        if (!active) return;
+        EventBatch b = pending.get();
+        if (b == null){
+            b = pool.poll();
+            if (b == null) b = new EventBatch();
+            pending.set(b);
+        }
+        b.add(type, product, client, quantity, value);
+    }
+
+    // Hands this thread's events to the dispatcher; Warehouse calls it while its locks are still held.
+    // If the last subscriber left since they were recorded they are dropped, not kept for whoever
+    // subscribes next.
+    void publish(){
+        if (!everActive) return;
+        EventBatch b = pending.get();
+        if (b == null || b.size() == 0) return;
+        if (!active){ b.clear(); return; }
+        pending.set(null);
+        queue.add(b);
+    }
+
+    // ---------------------- delivery ----------------------
+
+    private void dispatchLoop(){
+        EventBatch merged = new EventBatch();
+        List<EventBatch> drained = new ArrayList<>();
+        while (true){
+            try {
+                drained.add(queue.take());
+            } catch (InterruptedException e){
+                return;
+            }
+            queue.drainTo(drained);
+            merged.clear();
+            for (EventBatch b : drained){
+                merged.addAll(b);
+                b.clear();
+                pool.offer(b);
+            }
+            drained.clear();
+            deliver(merged);
+        }
+    }
+
+    private void deliver(EventBatch batch){
+        Routes r = routes;
+        for (Subscription s : r.all){
+            if (s.mask == -1) call(s, batch);
+            else deliverFiltered(s, batch);
+        }
+        if (r.byProduct.length == 0 && r.byClient.length == 0) return;
+        for (int i = 0; i < batch.size(); i++){
+            int ps = batch.product(i) > 0 ? r.productSlot.get(batch.product(i)) : -1;
+            if (ps >= 0) for (Subscription s : r.byProduct[ps]) collect(s, batch, i);
+            int cs = batch.client(i) > 0 ? r.clientSlot.get(batch.client(i)) : -1;
+            if (cs >= 0) for (Subscription s : r.byClient[cs]) collect(s, batch, i);
+        }
+        for (Subscription[] subs : r.byProduct) for (Subscription s : subs) flush(s);
+        for (Subscription[] subs : r.byClient) for (Subscription s : subs) flush(s);
+    }
+
+    private void deliverFiltered(Subscription s, EventBatch batch){
+        for (int i = 0; i < batch.size(); i++) collect(s, batch, i);
+        flush(s);
+    }
+
+    private static void collect(Subscription s, EventBatch batch, int i){
+        if ((s.mask & batch.typeBit(i)) != 0) s.filtered.addFrom(batch, i);
+    }
+
+    private static void flush(Subscription s){
+        if (s.filtered.size() == 0) return;
+        call(s, s.filtered);
+        s.filtered.clear();
+    }
+
+    private static void call(Subscription s, EventBatch batch){
+        try {
+            s.listener.onEvents(batch);
+        } catch (RuntimeException e){
+            System.err.println("Event listener failed: " + e);
+        }
+    }
+}
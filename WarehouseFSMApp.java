@@ -1,5 +1,9 @@
 public class WarehouseFSMApp {
-  public static void main(String[] args) {
+  public static void main(String[] args) throws Exception {
+    if (args.length > 0 && args[0].equals("--server")) { // headless multi-session mode
+      WarehouseServer.main(java.util.Arrays.copyOfRange(args, 1, args.length));
+      return;
+    }
     WarehouseContext.instance().process();
   }
 }
@@ -0,0 +1,717 @@
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.zip.CRC32;
+
+// Append-only write-ahead journal plus periodic snapshots for a Warehouse.
+//
+// Layout of the data directory:
+//   journal-<n>.log   records appended since snapshot n (snapshot 0 is the empty warehouse)
+//   snapshot-<n>.bin  full state at the moment journal-<n> was started, except for invoices
+//   ledger-<k>.dat    the warehouse's TransactionLedger; a snapshot only records how many of its
+//                     records it covers, so taking one never copies transaction history
+// Recovery loads the newest snapshot, re-indexes the ledger records it covers and replays every
+// journal segment from that point on.
+//
+// Record layout: int length | byte op | payload | int crc32(op + payload)
+//
+// A position in the journal is (segment, byte offset) packed into a long (see position); it is
+// what a ReplicationLeader ships from and a ReplicationFollower resumes at.
+public class WarehouseJournal implements Closeable {
+    static final byte ADD_CLIENT = 1;
+    static final byte ADD_PRODUCT = 2;
+    static final byte WISHLIST = 3;
+    static final byte PLACE_ORDER = 4;
+    static final byte PAYMENT = 5;
+    static final byte SHIPMENT = 6;
+    static final byte MANIFEST = 7;
+    static final byte RESERVE = 8;
+    static final byte RELEASE = 9;
+    static final byte COMMIT = 10;
+    static final byte CLIENT_TIER = 11;
+    static final byte WAITLIST_POLICY = 12;
+
+    private static final int SNAPSHOT_MAGIC = 0x57484653; // "WHFS"
+    private static final int SNAPSHOT_VERSION = 10; // 9 referenced 40-byte ledger records without skip links
+    private static final int INLINE_LEDGER_VERSION = 8; // transactions copied into the snapshot
+
+    private final Path dir;
+    private final Warehouse warehouse;
+    private final boolean syncCommit;
+
+    // guarded by `lock`: records waiting for the flusher and the sequence numbers around them
+    private final Object lock = new Object();
+    private ByteBuffer pending = ByteBuffer.allocate(1 << 20);
+    private ByteBuffer flushing = ByteBuffer.allocate(1 << 20);
+    private long appendedSeq = 0;
+    private long durableSeq = 0;
+    private long durableOffset = 0; // bytes of the current segment on disk
+    private IOException failure;
+    private boolean closed;
+
+    private FileChannel channel;
+    private int segment;
+    private long recordsSinceSnapshot;
+
+    // when set, synchronous commits also wait for followers to acknowledge
+    private volatile ReplicationLeader replication;
+
+    private final CRC32 crc = new CRC32();
+    private final Thread flusher;
+    private final ScheduledExecutorService snapshotter;
+
+    // Opens (or creates) the journal in dir, recovers its contents into an empty warehouse and
+    // starts journaling every further mutation. With syncCommit each mutating call returns only
+    // once its record is on disk; records are fsynced in groups, so concurrent callers share flushes.
+    // A snapshot is taken every snapshotSeconds if at least one record was written since the last one.
+    public static WarehouseJournal open(Path dir, Warehouse warehouse, boolean syncCommit, long snapshotSeconds) throws IOException {
+        Files.createDirectories(dir);
+        long end = recover(dir, warehouse);
+        return adopt(dir, warehouse, syncCommit, end < 0 ? 1 : segmentOf(end) + 1, snapshotSeconds);
+    }
+
+    // Journals a warehouse that already holds everything in dir (a promoted follower), starting at
+    // a fresh segment
+    static WarehouseJournal adopt(Path dir, Warehouse warehouse, boolean syncCommit, int segment, long snapshotSeconds) throws IOException {
+        warehouse.keepLedgerIn(dir);
+        WarehouseJournal j = new WarehouseJournal(dir, warehouse, syncCommit, segment, snapshotSeconds);
+        warehouse.attachJournal(j);
+        return j;
+    }
+
+    // Loads the newest snapshot in dir and replays the segments from it on into an empty warehouse.
+    // Returns the position just past the last intact record, or NO_POSITION if dir holds nothing.
+    static long recover(Path dir, Warehouse warehouse) throws IOException {
+        warehouse.keepLedgerIn(dir);
+        int snap = latest(dir, "snapshot-", ".bin");
+        if (snap > 0) readSnapshot(dir.resolve("snapshot-" + snap + ".bin"), warehouse);
+        else snap = 0;
+
+        long end = snap > 0 ? position(snap, 0) : NO_POSITION;
+        for (int seg : segments(dir)){
+            if (seg < snap) continue;
+            long good = replay(dir.resolve("journal-" + seg + ".log"), warehouse);
+            end = Math.max(end, position(seg, good));
+        }
+        return end;
+    }
+
+    static final long NO_POSITION = -1;
+    static long position(int segment, long offset){ return (long) segment << 40 | offset; }
+    static int segmentOf(long position){ return (int) (position >>> 40); }
+    static long offsetOf(long position){ return position & ((1L << 40) - 1); }
+
+    private WarehouseJournal(Path dir, Warehouse warehouse, boolean syncCommit, int segment, long snapshotSeconds) throws IOException {
+        this.dir = dir;
+        this.warehouse = warehouse;
+        this.syncCommit = syncCommit;
+        this.segment = segment;
+        this.channel = openSegment(segment);
+        // the state replayed so far becomes snapshot <segment>, so older segments can go
+        writeSnapshot();
+        flusher = new Thread(this::flushLoop, "warehouse-journal");
+        flusher.setDaemon(true);
+        flusher.start();
+        snapshotter = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "warehouse-snapshot");
+            t.setDaemon(true);
+            return t;
+        });
+        if (snapshotSeconds > 0){
+            snapshotter.scheduleWithFixedDelay(() -> {
+                try { if (recordsSinceSnapshot() > 0) snapshot(); }
+                catch (IOException e) { System.err.println("Snapshot failed: " + e.getMessage()); }
+            }, snapshotSeconds, snapshotSeconds, TimeUnit.SECONDS);
+        }
+    }
+
+    // ====================== APPEND ======================
+
+    long logAddClient(int client, String name, String address){
+        synchronized (lock){
+            int start = begin(ADD_CLIENT, 4 + utfLen(name) + utfLen(address));
+            pending.putInt(client); putString(name); putString(address);
+            return end(start);
+        }
+    }
+
+    long logAddProduct(int product, String name, int stock, long priceCents){
+        synchronized (lock){
+            int start = begin(ADD_PRODUCT, 16 + utfLen(name));
+            pending.putInt(product); putString(name); pending.putInt(stock); pending.putLong(priceCents);
+            return end(start);
+        }
+    }
+
+    long logWishlist(int client, int product, int qty){
+        synchronized (lock){
+            int start = begin(WISHLIST, 12);
+            pending.putInt(client); pending.putInt(product); pending.putInt(qty);
+            return end(start);
+        }
+    }
+
+    long logPlaceOrder(int client, int firstTxn, AllocationPolicy policy, long time){
+        synchronized (lock){
+            int start = begin(PLACE_ORDER, 17);
+            pending.putInt(client); pending.putInt(firstTxn); pending.put((byte) policy.ordinal()); pending.putLong(time);
+            return end(start);
+        }
+    }
+
+    long logPayment(int client, long cents){
+        synchronized (lock){
+            int start = begin(PAYMENT, 12);
+            pending.putInt(client); pending.putLong(cents);
+            return end(start);
+        }
+    }
+
+    long logShipment(int product, int quantity, int firstTxn, long time){
+        synchronized (lock){
+            int start = begin(SHIPMENT, 20);
+            pending.putInt(product); pending.putInt(quantity); pending.putInt(firstTxn); pending.putLong(time);
+            return end(start);
+        }
+    }
+
+    long logManifest(int[] products, int[] quantities, int lines, int firstTxn, long time){
+        synchronized (lock){
+            int start = begin(MANIFEST, 20 + 8 * products.length);
+            pending.putInt(products.length);
+            for (int i = 0; i < products.length; i++){ pending.putInt(products[i]); pending.putInt(quantities[i]); }
+            pending.putInt(lines);
+            pending.putInt(firstTxn);
+            pending.putLong(time);
+            return end(start);
+        }
+    }
+
+    long logReserve(Reservation r){
+        synchronized (lock){
+            int start = begin(RESERVE, 24 + 8 * r.size());
+            pending.putLong(r.getId()); pending.putInt(r.client()); pending.putLong(r.getExpiresAt());
+            pending.putInt(r.size());
+            for (int i = 0; i < r.size(); i++){ pending.putInt(r.product(i)); pending.putInt(r.getQuantity(i)); }
+            return end(start);
+        }
+    }
+
+    long logRelease(long reservation){
+        synchronized (lock){
+            int start = begin(RELEASE, 8);
+            pending.putLong(reservation);
+            return end(start);
+        }
+    }
+
+    long logCommit(long reservation, int firstTxn, long time){
+        synchronized (lock){
+            int start = begin(COMMIT, 20);
+            pending.putLong(reservation); pending.putInt(firstTxn); pending.putLong(time);
+            return end(start);
+        }
+    }
+
+    long logClientTier(int client, int tier){
+        synchronized (lock){
+            int start = begin(CLIENT_TIER, 8);
+            pending.putInt(client); pending.putInt(tier);
+            return end(start);
+        }
+    }
+
+    long logWaitlistPolicy(WaitlistPolicy policy){
+        synchronized (lock){
+            int start = begin(WAITLIST_POLICY, 1);
+            pending.put((byte) policy.ordinal());
+            return end(start);
+        }
+    }
+
+    // Blocks until the record with this sequence number is durable (sync mode only), and with
+    // synchronous replication until enough followers have it too. A pipeline writer does not wait
+    // record by record: it calls awaitAppended once per batch instead.
+    void awaitDurable(long seq){
+        if (Thread.currentThread() instanceof WarehousePipeline.Writer) return;
+        waitFor(seq);
+    }
+
+    // Blocks until everything appended so far is durable, as awaitDurable does for one record
+    void awaitAppended(){
+        long seq;
+        synchronized (lock){ seq = appendedSeq; }
+        waitFor(seq);
+    }
+
+    private void waitFor(long seq){
+        ReplicationLeader rl = replication;
+        boolean replicate = rl != null && rl.isSync();
+        if (!syncCommit && !replicate) return;
+        long reached;
+        synchronized (lock){
+            while (durableSeq < seq && failure == null && !closed){
+                try { lock.wait(); }
+                catch (InterruptedException e) { Thread.currentThread().interrupt(); return; }
+            }
+            if (durableSeq < seq && failure != null) throw new UncheckedIOException("Journal write failed", failure);
+            reached = position(segment, durableOffset);
+        }
+        // followers acknowledge positions, and this one is at or past the record
+        if (replicate) rl.awaitAcked(reached);
+    }
+
+    // ====================== REPLICATION SUPPORT ======================
+
+    Path dir(){ return dir; }
+
+    void attachReplication(ReplicationLeader rl){ replication = rl; }
+
+    // End of what is on disk; everything before it can be shipped to followers
+    long durablePosition(){
+        synchronized (lock){ return position(segment, durableOffset); }
+    }
+
+    // Waits up to millis for the durable position to move past `seen`; returns it
+    long awaitDurablePosition(long seen, long millis) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + millis;
+        synchronized (lock){
+            while (true){
+                long now = position(segment, durableOffset);
+                long left = deadline - System.currentTimeMillis();
+                if (now != seen || closed || left <= 0) return now;
+                lock.wait(left);
+            }
+        }
+    }
+
+    // caller holds `lock`; once the flusher has failed nothing more is accepted, so every later
+    // mutation reports the failure instead of piling up in `pending` unwritten
+    private int begin(byte op, int maxPayload){
+        if (failure != null) throw new UncheckedIOException("Journal write failed", failure);
+        int need = 9 + maxPayload;
+        if (pending.remaining() < need){
+            ByteBuffer bigger = ByteBuffer.allocate(Math.max(pending.capacity() * 2, pending.position() + need));
+            pending.flip();
+            bigger.put(pending);
+            pending = bigger;
+        }
+        int start = pending.position();
+        pending.putInt(0);
+        pending.put(op);
+        return start;
+    }
+
+    private long end(int start){
+        int len = pending.position() - start - 4;
+        pending.putInt(start, len);
+        crc.reset();
+        crc.update(pending.array(), start + 4, len);
+        pending.putInt((int) crc.getValue());
+        recordsSinceSnapshot++;
+        if (start == 0) lock.notifyAll(); // the flusher only sleeps while nothing is pending
+        return ++appendedSeq;
+    }
+
+    private void putString(String s){
+        byte[] b = s.getBytes(StandardCharsets.UTF_8);
+        pending.putInt(b.length);
+        pending.put(b);
+    }
+
+    // upper bound on the encoded size of s, including its length prefix
+    private static int utfLen(String s){ return 4 + s.length() * 3; }
+
+    // ====================== GROUP COMMIT ======================
+
+    private void flushLoop(){
+        while (true){
+            long target;
+            synchronized (lock){
+                while (pending.position() == 0 && !closed){
+                    try { lock.wait(); } catch (InterruptedException e) { return; }
+                }
+                if (pending.position() == 0) return;
+                ByteBuffer t = flushing;
+                flushing = pending;
+                pending = t;
+                pending.clear();
+                target = appendedSeq;
+            }
+            try {
+                flushing.flip();
+                int bytes = flushing.remaining();
+                while (flushing.hasRemaining()) channel.write(flushing);
+                channel.force(false);
+                flushing.clear();
+                synchronized (lock){
+                    durableSeq = target;
+                    durableOffset += bytes;
+                    lock.notifyAll();
+                }
+            } catch (IOException e){
+                synchronized (lock){
+                    failure = e;
+                    lock.notifyAll();
+                }
+                System.err.println("Journal write failed: " + e.getMessage());
+                return;
+            }
+        }
+    }
+
+    // waits until everything appended so far is on disk; caller holds `lock`
+    private void drainLocked() throws IOException {
+        while (durableSeq < appendedSeq && failure == null){
+            try { lock.wait(); }
+            catch (InterruptedException e) { Thread.currentThread().interrupt(); throw new InterruptedIOException(); }
+        }
+        if (failure != null) throw failure;
+    }
+
+    private long recordsSinceSnapshot(){
+        synchronized (lock){ return recordsSinceSnapshot; }
+    }
+
+    // ====================== SNAPSHOTS ======================
+
+    // Pauses all mutations, starts a new journal segment and writes the state as its snapshot.
+    // The ledger is made durable after mutations resume (the records the snapshot covers no longer
+    // change); older segments and snapshots are deleted once the new snapshot is safely on disk.
+    public void snapshot() throws IOException {
+        IOException[] err = new IOException[1];
+        int[] seg = new int[1];
+        long[] records = new long[1];
+        warehouse.quiesce(() -> {
+            try {
+                synchronized (lock){
+                    drainLocked();
+                    channel.close();
+                    segment++;
+                    channel = openSegment(segment);
+                    durableOffset = 0;
+                    recordsSinceSnapshot = 0;
+                    lock.notifyAll();
+                    seg[0] = segment;
+                }
+                records[0] = writeSnapshotFile(dir, seg[0], warehouse);
+            } catch (IOException e){
+                err[0] = e;
+            }
+        });
+        if (err[0] != null) throw err[0];
+        installSnapshot(dir, seg[0], warehouse, records[0]);
+    }
+
+    private void writeSnapshot() throws IOException { writeSnapshot(dir, segment, warehouse); }
+
+    // snapshot-<segment>.bin from the warehouse's current state; older files go once it is on disk.
+    // The caller makes sure nothing changes the warehouse meanwhile.
+    static void writeSnapshot(Path dir, int segment, Warehouse warehouse) throws IOException {
+        installSnapshot(dir, segment, warehouse, writeSnapshotFile(dir, segment, warehouse));
+    }
+
+    // Writes snapshot-<segment>.tmp and returns the number of ledger records it covers
+    private static long writeSnapshotFile(Path dir, int segment, Warehouse warehouse) throws IOException {
+        Path tmp = dir.resolve("snapshot-" + segment + ".tmp");
+        long records = warehouse.ledger().size();
+        try (FileOutputStream fos = new FileOutputStream(tmp.toFile());
+             DataOutputStream out = new DataOutputStream(new BufferedOutputStream(fos, 1 << 16))){
+            out.writeInt(SNAPSHOT_MAGIC);
+            out.writeInt(SNAPSHOT_VERSION);
+            out.writeInt(warehouse.nextClientSeq());
+            out.writeInt(warehouse.nextProductSeq());
+            out.writeInt(Transaction.peekNext());
+            out.writeByte(warehouse.getWaitlistPolicy().ordinal());
+            out.writeLong(records);
+
+            Collection<Product> ps = warehouse.getAllProducts();
+            out.writeInt(ps.size());
+            for (Product p : ps){
+                out.writeInt(p.getIndex());
+                out.writeUTF(p.getName());
+                out.writeInt(p.getStock());
+                out.writeLong(p.getPriceCents());
+                // entries in serving order, which re-adding them in that order reproduces
+                WaitlistScheduler wl = p.getWaitlist();
+                out.writeInt(wl.size());
+                IOException[] err = new IOException[1];
+                wl.forEach((client, qty, tier) -> {
+                    try { out.writeInt(client); out.writeInt(qty); out.writeInt(tier); }
+                    catch (IOException e) { err[0] = e; }
+                });
+                if (err[0] != null) throw err[0];
+            }
+
+            Collection<Client> cs = warehouse.getAllClients();
+            out.writeInt(cs.size());
+            for (Client c : cs){
+                out.writeInt(c.getIndex());
+                out.writeUTF(c.getName());
+                out.writeUTF(c.getAddress());
+                out.writeLong(c.getBalanceCents());
+                out.writeInt(c.getTier());
+                WishlistMap wl = c.getWishlist();
+                out.writeInt(wl.size());
+                for (int k = 0; k < wl.size(); k++){
+                    out.writeInt(wl.product(k));
+                    out.writeInt(wl.quantity(k));
+                }
+            }
+
+            Collection<Reservation> rs = warehouse.getReservations();
+            out.writeLong(warehouse.nextReservationId());
+            out.writeInt(rs.size());
+            for (Reservation r : rs){
+                out.writeLong(r.getId());
+                out.writeInt(r.client());
+                out.writeLong(r.getExpiresAt());
+                out.writeInt(r.size());
+                for (int i = 0; i < r.size(); i++){ out.writeInt(r.product(i)); out.writeInt(r.getQuantity(i)); }
+            }
+            out.flush();
+            fos.getFD().sync();
+        }
+        return records;
+    }
+
+    // Puts snapshot-<segment>.tmp in place once the ledger records it covers are on disk
+    private static void installSnapshot(Path dir, int segment, Warehouse warehouse, long records) throws IOException {
+        warehouse.ledger().force(records);
+        Path tmp = dir.resolve("snapshot-" + segment + ".tmp");
+        Files.move(tmp, dir.resolve("snapshot-" + segment + ".bin"), StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+
+        for (int seg : segments(dir)){
+            if (seg < segment) Files.deleteIfExists(dir.resolve("journal-" + seg + ".log"));
+        }
+        try (DirectoryStream<Path> ds = Files.newDirectoryStream(dir, "snapshot-*.bin")){
+            for (Path p : ds){
+                int n = number(p.getFileName().toString(), "snapshot-", ".bin");
+                if (n >= 0 && n < segment) Files.deleteIfExists(p);
+            }
+        }
+    }
+
+    // Loads a snapshot into an empty warehouse, whose ledger moves to the snapshot's directory
+    static void readSnapshot(Path file, Warehouse w) throws IOException {
+        w.keepLedgerIn(file.toAbsolutePath().getParent());
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(file), 1 << 16))){
+            if (in.readInt() != SNAPSHOT_MAGIC) throw new IOException("Not a warehouse snapshot: " + file);
+            int version = in.readInt();
+            if (version != SNAPSHOT_VERSION && version != INLINE_LEDGER_VERSION) throw new IOException("Unsupported snapshot version " + version);
+            in.readInt(); // client and product sequences follow from the restored ids
+            in.readInt();
+            Transaction.advancePast(in.readInt() - 1);
+            w.setWaitlistPolicy(WaitlistPolicy.of(in.readByte()));
+            long records = version == INLINE_LEDGER_VERSION ? 0 : in.readLong();
+
+            int np = in.readInt();
+            for (int i = 0; i < np; i++){
+                Product p = w.restoreProduct(in.readInt(), in.readUTF(), in.readInt(), in.readLong());
+                int nw = in.readInt();
+                for (int k = 0; k < nw; k++) p.getWaitlist().add(in.readInt(), in.readInt(), in.readInt());
+            }
+
+            int nc = in.readInt();
+            for (int i = 0; i < nc; i++){
+                Client c = w.restoreClient(in.readInt(), in.readUTF(), in.readUTF());
+                c.restoreBalance(in.readLong());
+                c.setTier(in.readInt());
+                int nw = in.readInt();
+                for (int k = 0; k < nw; k++) c.addOrUpdateWishlistItem(in.readInt(), in.readInt());
+                if (version == INLINE_LEDGER_VERSION){
+                    int nt = in.readInt();
+                    for (int k = 0; k < nt; k++){
+                        w.restoreTransaction(c, in.readInt(), in.readInt(), in.readInt(), in.readLong(), in.readLong());
+                    }
+                }
+            }
+            if (version == SNAPSHOT_VERSION) w.restoreHistory(records);
+
+            w.advanceReservationIds(in.readLong());
+            int nr = in.readInt();
+            for (int i = 0; i < nr; i++){
+                long id = in.readLong();
+                Client c = w.client(in.readInt());
+                long expiresAt = in.readLong();
+                int n = in.readInt();
+                int[] ps = new int[n], qs = new int[n];
+                for (int k = 0; k < n; k++){ ps[k] = in.readInt(); qs[k] = in.readInt(); }
+                w.reserve(c, id, expiresAt, ps, qs, true);
+            }
+        }
+    }
+
+    // ====================== RECOVERY ======================
+
+    // Re-applies every intact record of one segment and returns their length in bytes. A torn or
+    // corrupt tail (crash mid-write) ends the segment and is cut off so later appends never follow garbage.
+    private static long replay(Path file, Warehouse w) throws IOException {
+        long good = 0;
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(file), 1 << 20))){
+            byte[] rec = new byte[256];
+            CRC32 crc = new CRC32();
+            while (true){
+                int len;
+                try { len = in.readInt(); }
+                catch (EOFException e) { break; }
+                if (len <= 0 || len > (1 << 24)) break;
+                if (rec.length < len + 4) rec = new byte[Math.max(rec.length * 2, len + 4)];
+                try { in.readFully(rec, 0, len + 4); }
+                catch (EOFException e) { break; }
+                crc.reset();
+                crc.update(rec, 0, len);
+                ByteBuffer b = ByteBuffer.wrap(rec, 0, len + 4);
+                if (b.getInt(len) != (int) crc.getValue()) break;
+                apply(b, w);
+                good += 4 + len + 4;
+            }
+        }
+        try (FileChannel ch = FileChannel.open(file, StandardOpenOption.WRITE)){
+            if (good < ch.size()) ch.truncate(good);
+        }
+        return good;
+    }
+
+    // b holds one record from its op byte on (CRC included, not checked here)
+    static void apply(ByteBuffer b, Warehouse w){
+        byte op = b.get();
+        switch (op){
+            case ADD_CLIENT: w.restoreClient(b.getInt(), getString(b), getString(b)); break;
+            case ADD_PRODUCT: w.restoreProduct(b.getInt(), getString(b), b.getInt(), b.getLong()); break;
+            case WISHLIST: w.addOrUpdateWishlistItem(client(w, b.getInt()), product(w, b.getInt()), b.getInt()); break;
+            case PLACE_ORDER: {
+                Client c = client(w, b.getInt());
+                int firstTxn = b.getInt();
+                // records written before allocation policies existed end here (CRC follows)
+                AllocationPolicy policy = b.remaining() > 4 ? AllocationPolicy.of(b.get()) : AllocationPolicy.GREEDY;
+                w.placeOrder(c, policy, firstTxn, time(b));
+                break;
+            }
+            case PAYMENT: w.recordPayment(client(w, b.getInt()), b.getLong()); break;
+            case SHIPMENT: w.receiveShipment(product(w, b.getInt()), b.getInt(), b.getInt(), time(b)); break;
+            case MANIFEST: {
+                int n = b.getInt();
+                Product[] ps = new Product[n];
+                int[] qtys = new int[n];
+                for (int i = 0; i < n; i++){ ps[i] = product(w, b.getInt()); qtys[i] = b.getInt(); }
+                w.receiveShipments(ps, qtys, b.getInt(), b.getInt(), time(b));
+                break;
+            }
+            case RESERVE: restoreReservation(b, w); break;
+            case RELEASE: w.release(reservation(w, b.getLong())); break;
+            case COMMIT: w.commit(reservation(w, b.getLong()), b.getInt(), time(b)); break;
+            case CLIENT_TIER: w.setClientTier(client(w, b.getInt()), b.getInt()); break;
+            case WAITLIST_POLICY: w.setWaitlistPolicy(WaitlistPolicy.of(b.get())); break;
+            default: throw new IllegalStateException("Unknown journal op " + op);
+        }
+    }
+
+    // Invoice time that ends the records that bill clients; records written before invoices were
+    // dated end without it and are dated at replay
+    private static long time(ByteBuffer b){
+        return b.remaining() > 4 ? b.getLong() : System.currentTimeMillis();
+    }
+
+    // id, client, expiry, then (product, quantity) pairs; shared by journal records and snapshots
+    private static void restoreReservation(ByteBuffer b, Warehouse w){
+        long id = b.getLong();
+        Client c = client(w, b.getInt());
+        long expiresAt = b.getLong();
+        int n = b.getInt();
+        int[] ps = new int[n], qs = new int[n];
+        for (int i = 0; i < n; i++){ ps[i] = b.getInt(); qs[i] = b.getInt(); }
+        w.reserve(c, id, expiresAt, ps, qs, true);
+    }
+
+    private static Reservation reservation(Warehouse w, long id){
+        Reservation r = w.reservation(id);
+        if (r != null) return r;
+        throw new IllegalStateException("Journal refers to unknown reservation " + id);
+    }
+
+    private static Client client(Warehouse w, int index){
+        Client c = w.client(index);
+        if (c == null) throw new IllegalStateException("Journal refers to unknown client " + index);
+        return c;
+    }
+
+    private static Product product(Warehouse w, int index){
+        Product p = w.product(index);
+        if (p == null) throw new IllegalStateException("Journal refers to unknown product " + index);
+        return p;
+    }
+
+    private static String getString(ByteBuffer b){
+        int n = b.getInt();
+        String s = new String(b.array(), b.position(), n, StandardCharsets.UTF_8);
+        b.position(b.position() + n);
+        return s;
+    }
+
+    // ====================== FILES ======================
+
+    private FileChannel openSegment(int n) throws IOException {
+        return FileChannel.open(dir.resolve("journal-" + n + ".log"),
+                StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+    }
+
+    private static List<Integer> segments(Path dir) throws IOException {
+        List<Integer> out = new ArrayList<>();
+        try (DirectoryStream<Path> ds = Files.newDirectoryStream(dir, "journal-*.log")){
+            for (Path p : ds){
+                int n = number(p.getFileName().toString(), "journal-", ".log");
+                if (n >= 0) out.add(n);
+            }
+        }
+        Collections.sort(out);
+        return out;
+    }
+
+    static int latestSnapshot(Path dir) throws IOException { return latest(dir, "snapshot-", ".bin"); }
+
+    // How many ledger records a snapshot covers, read from its header
+    static long snapshotLedgerRecords(Path file) throws IOException {
+        try (DataInputStream in = new DataInputStream(Files.newInputStream(file))){
+            if (in.readInt() != SNAPSHOT_MAGIC) throw new IOException("Not a warehouse snapshot: " + file);
+            int version = in.readInt();
+            if (version != SNAPSHOT_VERSION) return 0;
+            in.readInt(); in.readInt(); in.readInt(); // sequences
+            in.readByte();                              // waitlist policy
+            return in.readLong();
+        }
+    }
+
+    private static int latest(Path dir, String prefix, String suffix) throws IOException {
+        int best = -1;
+        try (DirectoryStream<Path> ds = Files.newDirectoryStream(dir, prefix + "*" + suffix)){
+            for (Path p : ds) best = Math.max(best, number(p.getFileName().toString(), prefix, suffix));
+        }
+        return best;
+    }
+
+    private static int number(String name, String prefix, String suffix){
+        try { return Integer.parseInt(name.substring(prefix.length(), name.length() - suffix.length())); }
+        catch (RuntimeException e) { return -1; }
+    }
+
+    // Flushes outstanding records and stops the background threads
+    @Override
+    public void close() throws IOException {
+        snapshotter.shutdownNow();
+        synchronized (lock){
+            drainLocked();
+            closed = true;
+            lock.notifyAll();
+        }
+        try { flusher.join(); } catch (InterruptedException e) { Thread.currentThread().interrupt(); }
+        warehouse.attachJournal(null);
+        channel.close();
+        ReplicationLeader rl = replication;
+        if (rl != null) rl.close();
+    }
+}
@@ -0,0 +1,214 @@
+import java.io.PrintStream;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import javax.management.StandardMBean;
+
+// Call counts and latency histograms for the Warehouse API, plus gauges read from the warehouse on
+// demand. Operations call start() on entry and record() on the way out; both are a constant branch
+// when -Dwarehouse.metrics=false, so the JIT drops the timing code entirely. Everything is
+// published through JMX (registerMBeans) and, optionally, a log line per interval (startLog).
+public final class WarehouseMetrics {
+    public static final boolean ENABLED = !"false".equalsIgnoreCase(System.getProperty("warehouse.metrics"));
+
+    private static final WarehouseOp[] OPS = WarehouseOp.values();
+
+    public interface OperationMBean {
+        long getCount();
+        double getMeanMicros();
+        double getP50Micros();
+        double getP90Micros();
+        double getP99Micros();
+        double getP999Micros();
+        double getMaxMicros();
+    }
+
+    public interface GaugesMBean {
+        long getTotalStock();
+        int getWaitlistEntries();
+        long getWaitlistUnits();
+        long getReceivablesCents();
+        int getOpenReservations();
+        int getClients();
+        int getProducts();
+    }
+
+    private final Warehouse warehouse;
+    private final LongAdder[] calls;           // by op ordinal; null when disabled
+    private final LatencyHistogram[] latency;
+    private final List<ObjectName> registered = new ArrayList<>(); // guarded by this
+    private ScheduledExecutorService logger;                        // guarded by this
+
+    WarehouseMetrics(Warehouse warehouse){
+        this.warehouse = warehouse;
+        calls = ENABLED ? new LongAdder[OPS.length] : null;
+        latency = ENABLED ? new LatencyHistogram[OPS.length] : null;
+        for (int i = 0; ENABLED && i < OPS.length; i++){
+            calls[i] = new LongAdder();
+            latency[i] = new LatencyHistogram();
+        }
+    }
+
+    // ---------------------- recording ----------------------
+
+    static long start(){ return ENABLED ? System.nanoTime() : 0; }
+
+    void record(WarehouseOp op, long start){
+        if (!ENABLED) return;
+        calls[op.ordinal()].increment();
+        latency[op.ordinal()].record(System.nanoTime() - start);
+    }
+
+    // ---------------------- reading ----------------------
+
+    public long getCount(WarehouseOp op){ return ENABLED ? calls[op.ordinal()].sum() : 0; }
+
+    public LatencyHistogram.Snapshot getLatency(WarehouseOp op){
+        if (!ENABLED) throw new IllegalStateException("Metrics are disabled (-Dwarehouse.metrics=false)");
+        return latency[op.ordinal()].snapshot();
+    }
+
+    // Gauges walk the registries without locks: each figure is a sum of values that may be changing
+    // underneath, good for trends rather than reconciliation
+    public long getTotalStock(){
+        long total = 0;
+        for (int i = 1, n = warehouse.productUpperBound(); i < n; i++){
+            Product p = warehouse.product(i);
+            if (p != null) total += p.getStock();
+        }
+        return total;
+    }
+
+    public int getWaitlistEntries(){
+        int total = 0;
+        for (int i = 1, n = warehouse.productUpperBound(); i < n; i++){
+            Product p = warehouse.product(i);
+            if (p != null) total += p.getWaitlist().size();
+        }
+        return total;
+    }
+
+    public long getWaitlistUnits(){
+        long total = 0;
+        for (int i = 1, n = warehouse.productUpperBound(); i < n; i++){
+            Product p = warehouse.product(i);
+            if (p != null) total += p.getWaitlist().totalDemand();
+        }
+        return total;
+    }
+
+    public long getReceivablesCents(){ return warehouse.getTotalReceivablesCents(); }
+    public int getOpenReservations(){ return warehouse.getReservations().size(); }
+
+    // ---------------------- JMX ----------------------
+
+    // <domain>:type=Operation,name=<label> per operation and <domain>:type=Gauges. No-op when disabled.
+    public synchronized void registerMBeans(String domain) throws JMException {
+        if (!ENABLED || !registered.isEmpty()) return;
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        try {
+            for (WarehouseOp op : OPS){
+                ObjectName name = new ObjectName(domain + ":type=Operation,name=" + op.label());
+                server.registerMBean(new StandardMBean(new OperationView(op), OperationMBean.class), name);
+                registered.add(name);
+            }
+            ObjectName name = new ObjectName(domain + ":type=Gauges");
+            server.registerMBean(new StandardMBean(new GaugesView(), GaugesMBean.class), name);
+            registered.add(name);
+        } catch (JMException e){
+            unregisterMBeans();
+            throw e;
+        }
+    }
+
+    private void unregisterMBeans(){
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        for (ObjectName name : registered){
+            try { server.unregisterMBean(name); } catch (JMException e) { /* already gone */ }
+        }
+        registered.clear();
+    }
+
+    private final class OperationView implements OperationMBean {
+        private final WarehouseOp op;
+
+        OperationView(WarehouseOp op){ this.op = op; }
+
+        @Override public long getCount(){ return WarehouseMetrics.this.getCount(op); }
+        @Override public double getMeanMicros(){ return getLatency(op).getMeanNanos() / 1e3; }
+        @Override public double getP50Micros(){ return percentile(50); }
+        @Override public double getP90Micros(){ return percentile(90); }
+        @Override public double getP99Micros(){ return percentile(99); }
+        @Override public double getP999Micros(){ return percentile(99.9); }
+        @Override public double getMaxMicros(){ return getLatency(op).getMaxNanos() / 1e3; }
+
+        private double percentile(double p){ return getLatency(op).getPercentileNanos(p) / 1e3; }
+    }
+
+    private final class GaugesView implements GaugesMBean {
+        @Override public long getTotalStock(){ return WarehouseMetrics.this.getTotalStock(); }
+        @Override public int getWaitlistEntries(){ return WarehouseMetrics.this.getWaitlistEntries(); }
+        @Override public long getWaitlistUnits(){ return WarehouseMetrics.this.getWaitlistUnits(); }
+        @Override public long getReceivablesCents(){ return WarehouseMetrics.this.getReceivablesCents(); }
+        @Override public int getOpenReservations(){ return WarehouseMetrics.this.getOpenReservations(); }
+        @Override public int getClients(){ return warehouse.getAllClients().size(); }
+        @Override public int getProducts(){ return warehouse.getAllProducts().size(); }
+    }
+
+    // ---------------------- log line ----------------------
+
+    // Prints one line every periodSeconds: per-operation counts and latencies over the interval
+    // (operations with no calls are left out), then the gauges. No-op when disabled.
+    public synchronized void startLog(long periodSeconds, PrintStream out){
+        if (periodSeconds <= 0) throw new IllegalArgumentException("Period must be > 0");
+        if (!ENABLED || logger != null) return;
+        logger = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "warehouse-metrics");
+            t.setDaemon(true);
+            return t;
+        });
+        LatencyHistogram.Snapshot[] last = new LatencyHistogram.Snapshot[OPS.length];
+        for (int i = 0; i < OPS.length; i++) last[i] = latency[i].snapshot();
+        logger.scheduleAtFixedRate(() -> {
+            StringBuilder sb = new StringBuilder("metrics ").append(periodSeconds).append("s:");
+            for (int i = 0; i < OPS.length; i++){
+                LatencyHistogram.Snapshot now = latency[i].snapshot();
+                LatencyHistogram.Snapshot d = now.since(last[i]);
+                last[i] = now;
+                if (d.getCount() == 0) continue;
+                sb.append(' ').append(OPS[i].label()).append(" n=").append(d.getCount());
+                sb.append(" p50=").append(duration(d.getPercentileNanos(50)));
+                sb.append(" p99=").append(duration(d.getPercentileNanos(99)));
+                sb.append(" max=").append(duration(d.getMaxNanos())).append(" |");
+            }
+            sb.append(" stock=").append(getTotalStock());
+            sb.append(" waitlist=").append(getWaitlistEntries()).append('/').append(getWaitlistUnits()).append("u");
+            sb.append(" receivables=$");
+            Money.appendTo(sb, getReceivablesCents());
+            sb.append(" reservations=").append(getOpenReservations());
+            out.println(sb);
+        }, periodSeconds, periodSeconds, TimeUnit.SECONDS);
+    }
+
+    static String duration(long nanos){
+        if (nanos < 1_000) return nanos + "ns";
+        if (nanos < 1_000_000) return String.format(Locale.ROOT, "%.1fus", nanos / 1e3);
+        if (nanos < 1_000_000_000) return String.format(Locale.ROOT, "%.1fms", nanos / 1e6);
+        return String.format(Locale.ROOT, "%.2fs", nanos / 1e9);
+    }
+
+    // stops the log line and removes the MBeans
+    synchronized void close(){
+        if (logger != null) logger.shutdownNow();
+        logger = null;
+        unregisterMBeans();
+    }
+}
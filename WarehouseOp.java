@@ -0,0 +1,16 @@
+// Warehouse operations timed by WarehouseMetrics; the label is the API method's name
+public enum WarehouseOp {
+    WISHLIST_UPDATE("addOrUpdateWishlistItem"),
+    PLACE_ORDER("placeOrder"),
+    RESERVE("reserve"),
+    COMMIT("commit"),
+    RECORD_PAYMENT("recordPayment"),
+    RECEIVE_SHIPMENT("receiveShipment"),
+    RECEIVE_MANIFEST("receiveShipments");
+
+    private final String label;
+
+    WarehouseOp(String label){ this.label = label; }
+
+    public String label(){ return label; }
+}
@@ -0,0 +1,237 @@
+import java.io.Closeable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+// Single-writer mode for the hot Warehouse mutations. Callers publish commands into a ring of
+// pre-allocated slots; one writer thread applies them in sequence order, a batch at a time, and
+// completes each caller's future once its batch is durable in the journal. The whole batch shares
+// one journal flush. The warehouse's stripe locks are still taken, but nothing else contends for
+// them unless other threads call the lock-based API directly, which stays correct.
+//
+// Sequences: producers claim the next one with a CAS on `claimed`, wait for its slot to be free
+// (the writer is less than a ring behind), fill the slot and publish it by storing the sequence.
+// The writer applies published slots in order and frees them by advancing `applied`.
+// Started with Warehouse.startPipeline, which also routes the blocking API through it.
+public final class WarehousePipeline implements Closeable {
+
+    // the writer's thread type, so the journal can tell batched appends from direct ones
+    static final class Writer extends Thread {
+        Writer(Runnable r){ super(r, "warehouse-writer"); }
+    }
+
+    private static final byte WISHLIST = 1, PLACE_ORDER = 2, PAYMENT = 3, SHIPMENT = 4;
+    private static final long CLOSED = 1L << 62; // set in `claimed` once no more commands are taken
+    private static final int SPINS = 128;
+
+    private static final class Slot {
+        volatile long published = -1;
+        byte kind;
+        Client client;
+        Product product;
+        AllocationPolicy policy;
+        int qty;
+        long cents;
+        CompletableFuture<Integer> done;
+        int result;
+        RuntimeException error;
+    }
+
+    private final Warehouse warehouse;
+    private final Slot[] slots;
+    private final int mask;
+    private final int maxBatch;
+    private final AtomicLong claimed = new AtomicLong();
+    private volatile long applied;      // every sequence below this one is done and its slot free
+    private volatile boolean sleeping;  // the writer is parked waiting for work
+    private final Writer writer;
+
+    WarehousePipeline(Warehouse warehouse, int capacity){
+        if (capacity < 2 || Integer.bitCount(capacity) != 1) throw new IllegalArgumentException("Capacity must be a power of two >= 2: " + capacity);
+        this.warehouse = warehouse;
+        slots = new Slot[capacity];
+        for (int i = 0; i < capacity; i++) slots[i] = new Slot();
+        mask = capacity - 1;
+        maxBatch = Math.max(1, capacity / 2);
+        writer = new Writer(this::writeLoop);
+        writer.setDaemon(true);
+        writer.start();
+    }
+
+    // ---------------------- commands ----------------------
+
+    // Bad ids and amounts are rejected here, on the caller's thread, as the direct calls do
+    public CompletableFuture<Integer> addOrUpdateWishlistItem(String clientId, String productId, int qty){
+        return open(addOrUpdateWishlistItem(warehouse.requireClient(clientId), warehouse.requireProduct(productId), qty));
+    }
+
+    // completes with the number of lines filled
+    public CompletableFuture<Integer> placeOrder(String clientId, AllocationPolicy policy){
+        if (policy == null) throw new IllegalArgumentException("Missing allocation policy");
+        return open(placeOrder(warehouse.requireClient(clientId), policy));
+    }
+
+    public CompletableFuture<Integer> recordPaymentCents(String clientId, long cents){
+        if (cents <= 0) throw new IllegalArgumentException("Amount must be > 0");
+        return open(recordPayment(warehouse.requireClient(clientId), cents));
+    }
+
+    public CompletableFuture<Integer> receiveShipment(String productId, int quantity){
+        if (quantity <= 0) throw new IllegalArgumentException("Quantity must be > 0");
+        return open(receiveShipment(warehouse.requireProduct(productId), quantity));
+    }
+
+    private static CompletableFuture<Integer> open(CompletableFuture<Integer> f){
+        if (f == null) throw new IllegalStateException("Warehouse pipeline is closed");
+        return f;
+    }
+
+    // The package-level commands return null once the pipeline is closed (Warehouse then applies
+    // the call directly) or when called from the writer itself, which would wait on its own queue
+    CompletableFuture<Integer> addOrUpdateWishlistItem(Client c, Product p, int qty){
+        long seq = claim();
+        if (seq < 0) return null;
+        Slot s = slots[(int) seq & mask];
+        s.kind = WISHLIST; s.client = c; s.product = p; s.qty = qty;
+        return publish(seq, s);
+    }
+
+    CompletableFuture<Integer> placeOrder(Client c, AllocationPolicy policy){
+        long seq = claim();
+        if (seq < 0) return null;
+        Slot s = slots[(int) seq & mask];
+        s.kind = PLACE_ORDER; s.client = c; s.policy = policy;
+        return publish(seq, s);
+    }
+
+    CompletableFuture<Integer> recordPayment(Client c, long cents){
+        long seq = claim();
+        if (seq < 0) return null;
+        Slot s = slots[(int) seq & mask];
+        s.kind = PAYMENT; s.client = c; s.cents = cents;
+        return publish(seq, s);
+    }
+
+    CompletableFuture<Integer> receiveShipment(Product p, int quantity){
+        long seq = claim();
+        if (seq < 0) return null;
+        Slot s = slots[(int) seq & mask];
+        s.kind = SHIPMENT; s.product = p; s.qty = quantity;
+        return publish(seq, s);
+    }
+
+    // Waits for a command, rethrowing what it failed with as the direct call would have
+    static int await(CompletableFuture<Integer> f){
+        try { return f.join(); }
+        catch (CompletionException e){
+            if (e.getCause() instanceof RuntimeException) throw (RuntimeException) e.getCause();
+            if (e.getCause() instanceof Error) throw (Error) e.getCause();
+            throw e;
+        }
+    }
+
+    // ---------------------- producer side ----------------------
+
+    // the next sequence, once its slot is free; -1 if closed or on the writer thread
+    private long claim(){
+        if (Thread.currentThread() == writer) return -1;
+        long seq;
+        do {
+            seq = claimed.get();
+            if ((seq & CLOSED) != 0) return -1;
+        } while (!claimed.compareAndSet(seq, seq + 1));
+        for (int spins = 0; seq - applied >= slots.length; spins++){
+            if (spins < SPINS) Thread.onSpinWait();
+            else LockSupport.parkNanos(20_000); // ring full: back off until the writer catches up
+        }
+        return seq;
+    }
+
+    private CompletableFuture<Integer> publish(long seq, Slot s){
+        CompletableFuture<Integer> f = new CompletableFuture<>();
+        s.done = f;
+        s.published = seq;
+        if (sleeping) LockSupport.unpark(writer);
+        return f;
+    }
+
+    // ---------------------- writer ----------------------
+
+    private void writeLoop(){
+        long next = 0;
+        while (true){
+            if (slots[(int) next & mask].published != next){
+                long c = claimed.get();
+                if ((c & CLOSED) != 0 && (c & ~CLOSED) == next) return;
+                idle(next);
+                continue;
+            }
+            long end = next;
+            while (end - next < maxBatch && slots[(int) end & mask].published == end){
+                apply(slots[(int) end & mask]);
+                end++;
+            }
+            // one flush covers the batch; a failed flush fails every command in it
+            RuntimeException flushError = null;
+            WarehouseJournal j = warehouse.journal();
+            if (j != null){
+                try { j.awaitAppended(); }
+                catch (RuntimeException e) { flushError = e; }
+            }
+            for (long seq = next; seq < end; seq++) complete(slots[(int) seq & mask], flushError);
+            applied = end;
+            next = end;
+        }
+    }
+
+    private void apply(Slot s){
+        try {
+            switch (s.kind){
+                case WISHLIST: warehouse.addOrUpdateWishlistItem(s.client, s.product, s.qty); break;
+                case PLACE_ORDER: s.result = warehouse.placeOrder(s.client, s.policy, -1, System.currentTimeMillis()); break;
+                case PAYMENT: warehouse.recordPayment(s.client, s.cents); break;
+                case SHIPMENT: warehouse.receiveShipment(s.product, s.qty, -1, System.currentTimeMillis()); break;
+                default: throw new IllegalStateException("Unknown command " + s.kind);
+            }
+        } catch (RuntimeException e){
+            s.error = e;
+        }
+    }
+
+    private static void complete(Slot s, RuntimeException flushError){
+        CompletableFuture<Integer> f = s.done;
+        RuntimeException error = s.error != null ? s.error : flushError;
+        int result = s.result;
+        s.done = null; s.client = null; s.product = null; s.policy = null; s.error = null; s.result = 0;
+        if (error != null) f.completeExceptionally(error);
+        else f.complete(result);
+    }
+
+    // spins briefly, then parks until a producer publishes `next` or the pipeline closes
+    private void idle(long next){
+        for (int i = 0; i < SPINS; i++){
+            if (slots[(int) next & mask].published == next) return;
+            Thread.onSpinWait();
+        }
+        sleeping = true;
+        if (slots[(int) next & mask].published != next && (claimed.get() & CLOSED) == 0) LockSupport.park(this);
+        sleeping = false;
+    }
+
+    // Takes no more commands, lets the writer finish the ones already claimed, then stops it
+    @Override
+    public void close(){
+        warehouse.pipelineClosed(this);
+        long c;
+        do { c = claimed.get(); } while ((c & CLOSED) == 0 && !claimed.compareAndSet(c, c | CLOSED));
+        LockSupport.unpark(writer);
+        if (Thread.currentThread() == writer) return;
+        boolean interrupted = false;
+        while (writer.isAlive()){
+            try { writer.join(); }
+            catch (InterruptedException e) { interrupted = true; }
+        }
+        if (interrupted) Thread.currentThread().interrupt();
+    }
+}
@@ -0,0 +1,85 @@
+import java.io.*;
+import java.net.*;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+// Headless line-protocol server. Every connection gets its own FSM session (a WarehouseContext
+// running the text menus) and all sessions share one Warehouse.
+// Usage: java WarehouseServer [port]   (default 7070, loopback only; try `nc localhost 7070`)
+public class WarehouseServer implements Closeable {
+    private final Warehouse warehouse;
+    private final ServerSocket server;
+    private final ExecutorService sessions = sessionExecutor();
+    private final AtomicInteger active = new AtomicInteger();
+
+    public WarehouseServer(Warehouse warehouse, int port) throws IOException {
+        this.warehouse = warehouse;
+        this.server = new ServerSocket(port, 1024, InetAddress.getLoopbackAddress());
+    }
+
+    public int getPort() { return server.getLocalPort(); }
+    public int getActiveSessions() { return active.get(); }
+
+    // Accepts connections until the server is closed
+    public void serve() throws IOException {
+        while (!server.isClosed()) {
+            Socket s;
+            try { s = server.accept(); }
+            catch (SocketException e) { if (server.isClosed()) return; throw e; }
+            sessions.execute(() -> handle(s));
+        }
+    }
+
+    private void handle(Socket s) {
+        active.incrementAndGet();
+        try (Socket socket = s;
+             PrintStream out = new PrintStream(new BufferedOutputStream(socket.getOutputStream()), false, StandardCharsets.UTF_8)) {
+            new WarehouseContext(warehouse, socket.getInputStream(), out).runSession();
+        } catch (Exception e) {
+            System.err.println("Session ended with error: " + e.getMessage());
+        } finally {
+            active.decrementAndGet();
+        }
+    }
+
+    // one thread per session: virtual threads when the runtime has them, a cached pool otherwise
+    private static ExecutorService sessionExecutor() {
+        try {
+            return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+        } catch (ReflectiveOperationException e) {
+            AtomicInteger n = new AtomicInteger();
+            return Executors.newCachedThreadPool(r -> {
+                Thread t = new Thread(r, "session-" + n.incrementAndGet());
+                t.setDaemon(true);
+                return t;
+            });
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        server.close();
+        sessions.shutdownNow();
+    }
+
+    public static void main(String[] args) throws IOException {
+        int port = args.length > 0 ? Integer.parseInt(args[0]) : 7070;
+        Warehouse warehouse = new Warehouse();
+        WarehouseJournal journal = WarehouseContext.openJournal(warehouse);
+        WarehouseContext.startReplication(journal);
+        WarehouseContext.startMetrics(warehouse);
+        WarehouseContext.startPipeline(warehouse);
+        WarehouseServer srv = new WarehouseServer(warehouse, port);
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+            try {
+                srv.close();
+                if (journal != null) journal.close();
+            } catch (IOException e) {
+                System.err.println("Shutdown failed: " + e.getMessage());
+            }
+        }));
+        System.out.println("Warehouse server listening on localhost:" + srv.getPort());
+        srv.serve();
+    }
+}
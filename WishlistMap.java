@@ -0,0 +1,169 @@
+import java.util.Arrays;
+
+// Product index -> quantity for one client's wishlist, kept in the order the lines were added.
+// Each line is one long (product in the high half, quantity in the low half) in a single array,
+// so an idle 20-line wishlist costs a couple of hundred bytes instead of an object per line.
+// Lookups scan the lines while there are few of them; past LINEAR_MAX an open-addressing table
+// of positions takes over. A removed line is zeroed in place (no product is 0) and its table entry
+// deleted by shifting its probe run back, so consuming a whole wishlist costs O(1) per line; the
+// gaps are squeezed out by the next positional read or when the array fills up.
+// Not thread-safe, reads included (they may compact): Client changes it under the client's stripe
+// lock, and readers hold that lock or work on a copy (Warehouse.copyWishlist).
+public final class WishlistMap {
+    public interface Visitor { void visit(int product, int qty); }
+
+    private static final int LINEAR_MAX = 32;
+    private static final long[] EMPTY = new long[0];
+
+    private long[] lines = EMPTY;
+    private int used;    // slots of lines in use, removed (zero) ones included
+    private int size;    // live lines
+    private int[] index; // position + 1 by product hash (0 = free); null while the lines are scanned
+
+    public int size(){ return size; }
+    public boolean isEmpty(){ return size == 0; }
+
+    // The i-th line, oldest first
+    public int product(int i){ return (int) (line(i) >>> 32); }
+    public int quantity(int i){ return (int) line(i); }
+
+    private long line(int i){
+        if (i < 0 || i >= size) throw new IndexOutOfBoundsException("Line " + i + " of " + size);
+        if (used != size) compact();
+        return lines[i];
+    }
+
+    // Quantity wanted of product, 0 if it is not on the list
+    public int get(int product){
+        int at = find(product);
+        return at < 0 ? 0 : (int) lines[at];
+    }
+
+    public boolean contains(int product){ return find(product) >= 0; }
+
+    public void forEach(Visitor v){
+        for (int i = 0; i < used; i++) if (lines[i] != 0) v.visit((int) (lines[i] >>> 32), (int) lines[i]);
+    }
+
+    // Sets the quantity; a line keeps its place when updated. qty <= 0 removes the line.
+    void put(int product, int qty){
+        if (product <= 0) throw new IllegalArgumentException("Bad product index: " + product);
+        if (qty <= 0){ remove(product); return; }
+        long line = (long) product << 32 | qty;
+        int at = find(product);
+        if (at >= 0){ lines[at] = line; return; }
+        if (used == lines.length){
+            if (used - size > used >> 2) compact(); // enough gaps to make room without growing
+            else lines = Arrays.copyOf(lines, used + (used >> 2) + 4);
+        }
+        lines[used++] = line;
+        size++;
+        if (index != null) indexAdd(product, used);
+        else if (size > LINEAR_MAX) rebuildIndex();
+    }
+
+    // Removes the line, leaving a gap that keeps the others in order; returns the old quantity
+    int remove(int product){
+        int at = find(product);
+        if (at < 0) return 0;
+        int old = (int) lines[at];
+        if (index != null) indexRemove(product, at);
+        lines[at] = 0;
+        size--;
+        if (size == 0) used = 0;
+        return old;
+    }
+
+    // same lines in the same order
+    boolean sameLines(WishlistMap other){
+        if (size != other.size) return false;
+        if (used != size) compact();
+        if (other.used != other.size) other.compact();
+        return Arrays.equals(lines, 0, size, other.lines, 0, size);
+    }
+
+    void clear(){
+        lines = EMPTY;
+        used = size = 0;
+        index = null;
+    }
+
+    // Makes this map an exact copy of other, without its gaps, reusing this map's array when it is
+    // big enough
+    void copyFrom(WishlistMap other){
+        if (lines.length < other.size) lines = new long[other.size];
+        int n = 0;
+        for (int i = 0; i < other.used; i++) if (other.lines[i] != 0) lines[n++] = other.lines[i];
+        used = size = n;
+        index = null;
+        if (size > LINEAR_MAX) rebuildIndex();
+    }
+
+    // squeezes out removed lines; positions change, so the table is rebuilt
+    private void compact(){
+        int n = 0;
+        for (int i = 0; i < used; i++) if (lines[i] != 0) lines[n++] = lines[i];
+        Arrays.fill(lines, n, used, 0);
+        used = n;
+        rebuildIndex();
+    }
+
+    // removed lines are zero, and no product is, so scans never match them
+    private int find(int product){
+        if (index == null){
+            for (int i = 0; i < used; i++) if ((int) (lines[i] >>> 32) == product) return i;
+            return -1;
+        }
+        int mask = index.length - 1;
+        for (int s = slot(product, mask); index[s] != 0; s = (s + 1) & mask){
+            int at = index[s] - 1;
+            if ((int) (lines[at] >>> 32) == product) return at;
+        }
+        return -1;
+    }
+
+    private void indexAdd(int product, int position){
+        if (size * 2 > index.length){ rebuildIndex(); return; }
+        int mask = index.length - 1;
+        int s = slot(product, mask);
+        while (index[s] != 0) s = (s + 1) & mask;
+        index[s] = position;
+    }
+
+    // Deletes the entry for the line at position `at` and shifts later entries of the probe run
+    // back into the hole, so lookups never need tombstones in the table
+    private void indexRemove(int product, int at){
+        int mask = index.length - 1;
+        int hole = slot(product, mask);
+        while (index[hole] != at + 1) hole = (hole + 1) & mask;
+        for (int s = (hole + 1) & mask; index[s] != 0; s = (s + 1) & mask){
+            int home = slot((int) (lines[index[s] - 1] >>> 32), mask);
+            // the entry at s may move back to the hole unless its home lies after the hole
+            if (((s - home) & mask) >= ((s - hole) & mask)){
+                index[hole] = index[s];
+                hole = s;
+            }
+        }
+        index[hole] = 0;
+    }
+
+    private void rebuildIndex(){
+        if (size <= LINEAR_MAX){ index = null; return; }
+        int cap = 64;
+        while (cap < size * 4) cap <<= 1;
+        if (index == null || index.length != cap) index = new int[cap];
+        else Arrays.fill(index, 0);
+        int mask = cap - 1;
+        for (int i = 0; i < used; i++){
+            if (lines[i] == 0) continue;
+            int s = slot((int) (lines[i] >>> 32), mask);
+            while (index[s] != 0) s = (s + 1) & mask;
+            index[s] = i + 1;
+        }
+    }
+
+    private static int slot(int key, int mask){
+        int h = key * 0x9E3779B9;
+        return (h ^ (h >>> 16)) & mask;
+    }
+}
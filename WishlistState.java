@@ -1,13 +1,14 @@
 import javax.swing.*; // import Swing UI components for GUI
 import java.awt.*; // import AWT for layout and dimension classes
 import java.awt.event.*; // import event classes for listeners
-import java.util.List; // import List for wishlist rows
 
-// GUI state for managing a client's wishlist and placing orders
+// GUI state for managing a client's wishlist and placing orders; warehouse calls run on the
+// context's CommandExecutor, never on the EDT
 public class WishlistState implements WarehouseState {
   private final WarehouseContext ctx; // reference to the warehouse context
   private JFrame frame; // frame to host wishlist UI
   private String clientId; // current client id being managed
+  private WishlistMap shown = new WishlistMap(); // lines currently listed, in list order (EDT only)
 
   // constructor stores the context reference
   public WishlistState(WarehouseContext ctx) { this.ctx = ctx; }
@@ -45,6 +46,7 @@ public class WishlistState implements WarehouseState {
       JTextField tfProduct = new JTextField(); // text field for product id input
       tfProduct.setMaximumSize(new Dimension(200, 25)); // limit size of the product field
       tfProduct.setAlignmentX(Component.LEFT_ALIGNMENT); // align left inside box layout
+      ProductAutocomplete.attach(ctx, tfProduct); // suggest products by name as the user types
       JTextField tfQty = new JTextField(); // text field for quantity input
       tfQty.setMaximumSize(new Dimension(200, 25)); // limit size of qty field
       tfQty.setAlignmentX(Component.LEFT_ALIGNMENT); // align left
@@ -85,45 +87,35 @@ public class WishlistState implements WarehouseState {
         String sq = tfQty.getText().trim(); // read quantity text
         if (clientId == null) { status.setText("No active client."); return; } // require active client
         if (pid.isEmpty() || sq.isEmpty()) { status.setText("Provide product id and qty."); return; } // require inputs
+        int q;
         try {
-          int q = Integer.parseInt(sq); // parse quantity as integer
-          ctx.warehouse().addOrUpdateWishlistItem(clientId, pid, q); // call warehouse to update wishlist
-          status.setText("Added/Updated " + pid + " x" + q); // show success
-          refreshList(listModel); // refresh displayed list
+          q = Integer.parseInt(sq); // parse quantity as integer
         } catch (NumberFormatException ex) {
           status.setText("Quantity must be an integer."); // parsing error
-        } catch (Exception ex) {
-          status.setText("Failed: " + ex.getMessage()); // other errors
+          return;
         }
+        ctx.commands().submit(p -> { ctx.warehouse().addOrUpdateWishlistItem(clientId, pid, q); return pid; }, // update off the EDT
+            done -> { status.setText("Added/Updated " + pid + " x" + q); refreshList(listModel); }, // show success and reload
+            ex -> status.setText("Failed: " + ex.getMessage()), null); // other errors
       });
 
       // remove action: remove the selected wishlist entry by setting qty to 0
       btnRemove.addActionListener(e -> {
-        String sel = wishList.getSelectedValue(); // get currently selected list entry
-        if (sel == null) { status.setText("Select an item to remove."); return; } // require selection
-        // expected row format: "P1 | Name | qty=5"
-        String[] parts = sel.split("\\|"); // split on pipe character
-        if (parts.length < 1) { status.setText("Malformed selection."); return; } // validate format
-        String pid = parts[0].trim(); // extract product id from first column
-        try {
-          ctx.warehouse().addOrUpdateWishlistItem(clientId, pid, 0); // set quantity to 0 to remove
-          status.setText("Removed " + pid); // update status
-          refreshList(listModel); // refresh list to reflect removal
-        } catch (Exception ex) {
-          status.setText("Failed: " + ex.getMessage()); // show errors
-        }
+        int sel = wishList.getSelectedIndex(); // position of the selected row
+        if (sel < 0 || sel >= shown.size()) { status.setText("Select an item to remove."); return; } // require selection
+        String pid = Ids.productId(shown.product(sel)); // rows are listed in wishlist order
+        ctx.commands().submit(p -> { ctx.warehouse().addOrUpdateWishlistItem(clientId, pid, 0); return pid; }, // quantity 0 removes
+            done -> { status.setText("Removed " + pid); refreshList(listModel); }, // update status and reload
+            ex -> status.setText("Failed: " + ex.getMessage()), null); // show errors
       });
 
       // place order action: attempt to buy all wishlist items
       btnPlace.addActionListener(e -> {
         if (clientId == null) { status.setText("No active client."); return; } // require client
-        try {
-          ctx.warehouse().placeOrder(clientId); // invoke warehouse ordering logic
-          status.setText("Order placed for " + clientId); // success message
-          refreshList(listModel); // refresh wishlist after order
-        } catch (Exception ex) {
-          status.setText("Failed: " + ex.getMessage()); // show failure
-        }
+        status.setText("Placing order..."); // the order may wait on locks or the journal
+        ctx.commands().submit(p -> { ctx.warehouse().placeOrder(clientId); return clientId; }, // order off the EDT
+            done -> { status.setText("Order placed for " + clientId); refreshList(listModel); }, // success message and reload
+            ex -> status.setText("Failed: " + ex.getMessage()), null); // show failure
       });
 
       // finalize and show window
@@ -131,22 +123,30 @@ public class WishlistState implements WarehouseState {
       frame.setVisible(true); // display the GUI
     });
 
-    // wait loop: keep the run method alive until state changes away from wishlist
-    while (ctx.getCurrentStateIndex() == WarehouseContext.WISHLIST_STATE || ctx.getCurrentStateIndex() == WarehouseContext.CLIENT_STATE) {
-      try { Thread.sleep(200); } catch (InterruptedException e) { break; } // sleep briefly to reduce CPU
-      if (ctx.getCurrentStateIndex() != WarehouseContext.WISHLIST_STATE) break; // exit if state changed
-    }
+    // keep the run method alive until state changes away from wishlist
+    ctx.awaitLeaving(WarehouseContext.WISHLIST_STATE); // blocks until the context signals a transition
   }
 
-  // helper that reloads the wishlist display from the warehouse
+  // helper that reloads the wishlist display: reads on a worker thread, fills the list on the EDT
   private void refreshList(DefaultListModel<String> listModel) {
-    listModel.clear(); // clear existing entries in the list model
-    try {
-      List<String> rows = ctx.warehouse().getWishlistForClient(clientId); // query wishlist rows
-      if (rows == null || rows.isEmpty()) { listModel.addElement("(empty)"); return; } // show empty if none
-      for (String r : rows) listModel.addElement(r); // add each row to the model
-    } catch (Exception e) {
-      listModel.addElement("(error: " + e.getMessage() + ")"); // display any errors
-    }
+    WishlistMap lines = new WishlistMap(); // filled by the worker, then handed to the EDT
+    java.util.List<String> rows = new java.util.ArrayList<>(); // display text per line
+    ctx.commands().submit(p -> {
+      ctx.warehouse().copyWishlist(clientId, lines); // read the lines without building strings
+      for (int i = 0; i < lines.size(); i++) {
+        Product pr = ctx.warehouse().product(lines.product(i)); // product for the display name
+        rows.add(Ids.productId(lines.product(i)) + " | " + (pr == null ? "(unknown)" : pr.getName()) + " | qty=" + lines.quantity(i));
+      }
+      return lines;
+    }, done -> {
+      shown = done; // rows now match these lines
+      listModel.clear(); // clear existing entries in the list model
+      if (rows.isEmpty()) listModel.addElement("(empty)"); // show empty if none
+      for (String r : rows) listModel.addElement(r);
+    }, ex -> {
+      shown = new WishlistMap(); // nothing selectable
+      listModel.clear();
+      listModel.addElement("(error: " + ex.getMessage() + ")"); // display any errors
+    }, null);
   }
 }
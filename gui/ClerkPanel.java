@@ -1,12 +1,14 @@
 import gui.utils.Dialogs;
 import javax.swing.*;
-import javax.swing.table.DefaultTableModel;
 import java.awt.*;
 
 public class ClerkPanel extends JPanel implements WarehouseState {
     private final WarehouseContext ctx;
     private JTable clientTable;
-    private DefaultTableModel clientModel;
+    private ClientTableModel clientModel;
+    private static final int DEBTOR_PAGE = 500;
+    private int debtorOffset; // rows of the debtor listing loaded so far
+    private final Runnable refreshTable = CommandExecutor.coalescing(() -> { clientModel.rowsAdded(); clientModel.rowsChanged(); });
 
     public ClerkPanel(WarehouseContext ctx) {
         this.ctx = ctx;
@@ -19,14 +21,17 @@ public class ClerkPanel extends JPanel implements WarehouseState {
 
         // === CLIENTS TAB ===
         JPanel clientPanel = new JPanel(new BorderLayout());
-        clientModel = new DefaultTableModel(new String[]{"ID", "Name", "Address", "Balance"}, 0);
+        clientModel = new ClientTableModel(ctx.warehouse());
         clientTable = new JTable(clientModel);
+        clientModel.installHeaderSorting(clientTable);
+        ctx.warehouse().events().subscribe(clientModel.repaintRows(false), EventType.BALANCE_CHANGED);
         clientPanel.add(new JScrollPane(clientTable), BorderLayout.CENTER);
 
         JPanel cBtns = new JPanel();
         cBtns.add(btn("Add Client", this::addClient));
         cBtns.add(btn("Show All", this::showAllClients));
         cBtns.add(btn("Show With Balance", this::showClientsWithBalance));
+        cBtns.add(btn("More Debtors", this::loadMoreDebtors));
         cBtns.add(btn("Record Payment", this::recordPayment));
         cBtns.add(btn("Become Client", this::becomeClient));
         clientPanel.add(cBtns, BorderLayout.SOUTH);
@@ -55,56 +60,59 @@ public class ClerkPanel extends JPanel implements WarehouseState {
         String addr = Dialogs.input("Address:", "Add Client");
         if (addr == null || addr.trim().isEmpty()) return;
 
-        String id = ctx.warehouse().addClient(name.trim(), addr.trim());
-        Dialogs.info("Client created: " + id);
-        showAllClients();
+        ctx.commands().submit(p -> ctx.warehouse().addClient(name.trim(), addr.trim()), id -> {
+            Dialogs.info("Client created: " + id);
+            refreshTable.run();
+        });
     }
 
     private void showAllClients() {
-        clientModel.setRowCount(0);
-        for (Client c : ctx.warehouse().getAllClients()) {
-            clientModel.addRow(new Object[]{
-                c.getId(),
-                c.getName(),
-                c.getAddress(),
-                String.format("%.2f", c.getBalance())
-            });
-        }
+        debtorOffset = -1; // "More Debtors" starts a fresh listing
+        clientModel.showAll();
     }
 
+    // Debtors are read from the balance index one page at a time, largest balance first
     private void showClientsWithBalance() {
-        clientModel.setRowCount(0);
-        for (Client c : ctx.warehouse().getAllClients()) {
-            if (c.getBalance() > 0.01) {
-                clientModel.addRow(new Object[]{
-                    c.getId(), c.getName(), c.getAddress(),
-                    String.format("%.2f", c.getBalance())
-                });
-            }
-        }
+        debtorOffset = 0;
+        ctx.commands().submit(p -> debtorPage(0), page -> {
+            debtorOffset = page.length;
+            clientModel.showOnly(page);
+        });
+    }
+
+    private void loadMoreDebtors() {
+        if (debtorOffset < 0) { showClientsWithBalance(); return; }
+        int from = debtorOffset;
+        ctx.commands().submit(p -> debtorPage(from), page -> {
+            if (debtorOffset != from) return; // the listing was restarted meanwhile
+            debtorOffset += page.length;
+            clientModel.append(page);
+        });
+    }
+
+    // runs on a worker thread
+    private int[] debtorPage(int offset) {
+        java.util.List<Client> page = ctx.warehouse().getClientsWithBalance(0.0, offset, DEBTOR_PAGE);
+        int[] idx = new int[page.size()];
+        for (int i = 0; i < idx.length; i++) idx[i] = page.get(i).getIndex();
+        return idx;
     }
 
     private void recordPayment() {
         String id = Dialogs.input("Client ID:", "Record Payment");
         if (id == null) return;
-        double amt = Dialogs.inputDouble("Amount:", "Record Payment");
-        if (amt <= 0) return;
-        try {
-            ctx.warehouse().recordPayment(id.trim().toUpperCase(), amt);
-            Dialogs.info("Payment recorded.");
-            showAllClients();
-        } catch (Exception ex) {
-            Dialogs.error(ex.getMessage());
-        }
+        Long cents = Dialogs.input("Amount:", "Record Payment", Money::parse, "Enter an amount (e.g., 12.50).");
+        if (cents == null || cents <= 0) return;
+        String cid = id.trim().toUpperCase();
+        ctx.commands().submit(p -> { ctx.warehouse().recordPaymentCents(cid, cents); return cid; },
+                done -> Dialogs.info("Payment recorded."));
     }
 
     private void becomeClient() {
         String id = Dialogs.input("Client ID:", "Become Client");
         if (id == null) return;
-        String cid = id.trim().toUpperCase(); // normalize input and keep final for lambda
-        boolean exists = ctx.warehouse().getAllClients().stream()
-                .anyMatch(c -> c.getId().equalsIgnoreCase(cid));
-        if (exists) {
+        String cid = ctx.warehouse().resolveClientId(id); // canonical id, or null if unknown
+        if (cid != null) {
             ctx.setCurrentClient(cid);
             ctx.setPreviousState(WarehouseContext.CLERK_STATE);
             ctx.setState(WarehouseContext.CLIENT_STATE);
@@ -114,7 +122,7 @@ public class ClerkPanel extends JPanel implements WarehouseState {
     }
 
     @Override public void run() {
-        showAllClients();
+        refreshTable.run();
         ctx.changePanel(this, "Clerk");
     }
 
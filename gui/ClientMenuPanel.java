@@ -33,12 +33,9 @@ public class ClientMenuPanel extends JPanel implements WarehouseState {
     }
 
     private void placeOrder() {
-        try {
-            ctx.warehouse().placeOrder(ctx.getCurrentClient());
-            Dialogs.info("Order placed! Check balance in Clerk view.");
-        } catch (Exception ex) {
-            Dialogs.error(ex.getMessage());
-        }
+        String cid = ctx.getCurrentClient();
+        ctx.commands().submit(p -> { ctx.warehouse().placeOrder(cid); return cid; },
+                done -> Dialogs.info("Order placed! Check balance in Clerk view."));
     }
 
     @Override public void run() { ctx.changePanel(this, "Client Menu"); }
@@ -0,0 +1,34 @@
+import java.util.Comparator;
+
+// Live view of the client registry for ClerkPanel
+public class ClientTableModel extends RegistryTableModel<Client> {
+    private final Warehouse warehouse;
+
+    public ClientTableModel(Warehouse warehouse) {
+        super("ID", "Name", "Address", "Balance");
+        this.warehouse = warehouse;
+    }
+
+    @Override protected Client lookup(int index) { return warehouse.client(index); }
+    @Override protected int upperBound() { return warehouse.clientUpperBound(); }
+
+    @Override
+    protected Object value(Client c, int column) {
+        switch (column) {
+            case 0: return c.getId();
+            case 1: return c.getName();
+            case 2: return c.getAddress();
+            default: return Money.format(c.getBalanceCents());
+        }
+    }
+
+    @Override
+    protected Comparator<Client> comparator(int column) {
+        switch (column) {
+            case 0: return Comparator.comparingInt(Client::getIndex);
+            case 1: return Comparator.comparing(Client::getName, String.CASE_INSENSITIVE_ORDER);
+            case 2: return Comparator.comparing(Client::getAddress, String.CASE_INSENSITIVE_ORDER);
+            default: return Comparator.comparingLong(Client::getBalanceCents);
+        }
+    }
+}
@@ -0,0 +1,87 @@
+import gui.utils.Dialogs;
+import javax.swing.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+
+// Runs Warehouse operations on a small bounded worker pool so the EDT never blocks on locks or
+// journal flushes. Results, errors and progress are handed back to the EDT with invokeLater.
+public class CommandExecutor {
+
+    public interface Progress { void update(long done, long total); }
+    public interface Task<T> { T run(Progress progress) throws Exception; }
+
+    private static final Progress NO_PROGRESS = (done, total) -> { };
+
+    private final ThreadPoolExecutor pool;
+
+    public CommandExecutor(int threads, int queueCapacity) {
+        AtomicInteger n = new AtomicInteger();
+        pool = new ThreadPoolExecutor(threads, threads, 30, TimeUnit.SECONDS,
+                new ArrayBlockingQueue<>(queueCapacity), r -> {
+                    Thread t = new Thread(r, "warehouse-command-" + n.incrementAndGet());
+                    t.setDaemon(true);
+                    return t;
+                });
+        pool.allowCoreThreadTimeOut(true);
+    }
+
+    // Errors are shown in an error dialog
+    public <T> CompletableFuture<T> submit(Task<T> task, Consumer<T> onDone) {
+        return submit(task, onDone, ex -> Dialogs.error(ex.getMessage()), null);
+    }
+
+    // onDone/onError and uiProgress run on the EDT. Progress updates are coalesced: while one is
+    // waiting to be painted, newer values replace it instead of queueing more events.
+    public <T> CompletableFuture<T> submit(Task<T> task, Consumer<T> onDone, Consumer<Throwable> onError, Progress uiProgress) {
+        CompletableFuture<T> result = new CompletableFuture<>();
+        Progress progress = uiProgress == null ? NO_PROGRESS : coalescing(uiProgress);
+        try {
+            pool.execute(() -> {
+                try {
+                    T value = task.run(progress);
+                    result.complete(value);
+                    if (onDone != null) SwingUtilities.invokeLater(() -> onDone.accept(value));
+                } catch (Throwable ex) {
+                    result.completeExceptionally(ex);
+                    if (onError != null) SwingUtilities.invokeLater(() -> onError.accept(ex));
+                }
+            });
+        } catch (RejectedExecutionException ex) {
+            RejectedExecutionException busy = new RejectedExecutionException("Too many pending operations, try again.");
+            result.completeExceptionally(busy);
+            if (onError != null) SwingUtilities.invokeLater(() -> onError.accept(busy));
+        }
+        return result;
+    }
+
+    // Returns a Runnable that may be called from any thread any number of times; the action runs
+    // on the EDT once per burst of calls instead of once per call
+    public static Runnable coalescing(Runnable uiAction) {
+        AtomicBoolean pending = new AtomicBoolean();
+        return () -> {
+            if (pending.compareAndSet(false, true)) {
+                SwingUtilities.invokeLater(() -> {
+                    pending.set(false);
+                    uiAction.run();
+                });
+            }
+        };
+    }
+
+    private static Progress coalescing(Progress uiProgress) {
+        AtomicLong done = new AtomicLong(), total = new AtomicLong();
+        Runnable post = coalescing(() -> uiProgress.update(done.get(), total.get()));
+        return (d, t) -> {
+            total.set(t);
+            done.set(d);
+            post.run();
+        };
+    }
+
+    public int pending() { return pool.getQueue().size() + pool.getActiveCount(); }
+
+    public void shutdown() { pool.shutdown(); }
+}
@@ -6,6 +6,15 @@ import java.awt.*;
 public class ManagerPanel extends JPanel implements WarehouseState {
     private final WarehouseContext ctx;
     private JTable table;
+    private ProductTableModel model;
+    private final JTextField filterField = new JTextField(16);
+    private final JProgressBar progress = new JProgressBar();
+    // any number of background completions repaint the table once
+    private final Runnable refreshTable = CommandExecutor.coalescing(() -> { model.rowsAdded(); model.rowsChanged(); });
+    private static final int MANIFEST_CHUNK = 5000; // lines per batch, i.e. per progress step
+    private static final int FILTER_PAGE = 5000;    // best-ranked matches loaded per page of a name filter
+    private String filterQuery;                     // name filter being shown, null while there is none
+    private int filterShown;                        // matches of filterQuery loaded so far
 
     public ManagerPanel(WarehouseContext ctx) {
         this.ctx = ctx;
@@ -14,16 +23,30 @@ public class ManagerPanel extends JPanel implements WarehouseState {
 
     private void initUI() {
         setLayout(new BorderLayout());
-        table = new JTable();
+        model = new ProductTableModel(ctx.warehouse());
+        table = new JTable(model);
+        model.installHeaderSorting(table);
+        // stock levels repaint from warehouse events, whoever changed them
+        ctx.warehouse().events().subscribe(model.repaintRows(true), EventType.STOCK_CHANGED);
         add(new JScrollPane(table), BorderLayout.CENTER);
 
         JPanel btns = new JPanel();
         btns.add(btn("Add Product", this::addProduct));
         btns.add(btn("Receive Shipment", this::receiveShipment));
-        btns.add(btn("Show All", this::refresh));
+        btns.add(btn("Load Manifest", this::loadManifest));
+        btns.add(btn("Show All", this::showAll));
+        btns.add(btn("More Matches", this::loadMoreMatches));
+        progress.setStringPainted(true);
+        progress.setVisible(false);
+        btns.add(progress);
         add(btns, BorderLayout.SOUTH);
 
-        add(btnPanel("Become Clerk", () -> ctx.setState(WarehouseContext.CLERK_STATE)), BorderLayout.NORTH);
+        JPanel top = btnPanel("Become Clerk", () -> ctx.setState(WarehouseContext.CLERK_STATE));
+        top.add(new JLabel("Filter name:"));
+        top.add(filterField);
+        filterField.addActionListener(e -> applyFilter());
+        ProductAutocomplete.attach(ctx, filterField, p -> { filterQuery = null; model.showOnly(new int[]{ p.getIndex() }); });
+        add(top, BorderLayout.NORTH);
     }
 
     private JButton btn(String t, Runnable a) { JButton b = new JButton(t); b.addActionListener(e -> a.run()); return b; }
@@ -37,11 +60,12 @@ public class ManagerPanel extends JPanel implements WarehouseState {
         if (name == null) return;
         int qty = Dialogs.inputInt("Initial stock:", "Add Product");
         if (qty < 0) return;
-        double price = Dialogs.inputDouble("Unit price:", "Add Product");
-        if (price < 0) return;
-        String id = ctx.warehouse().addProduct(name, qty, price);
-        Dialogs.info("Product created: " + id);
-        refresh();
+        Long cents = Dialogs.input("Unit price:", "Add Product", Money::parse, "Enter a price (e.g., 12.50).");
+        if (cents == null || cents < 0) return;
+        ctx.commands().submit(p -> ctx.warehouse().addProductCents(name, qty, cents), id -> {
+            Dialogs.info("Product created: " + id);
+            refreshTable.run();
+        });
     }
 
     private void receiveShipment() {
@@ -49,27 +73,75 @@ public class ManagerPanel extends JPanel implements WarehouseState {
         if (pid == null) return;
         int qty = Dialogs.inputInt("Quantity received:", "Receive Shipment");
         if (qty <= 0) return;
-        try {
-            ctx.warehouse().receiveShipment(pid.trim().toUpperCase(), qty);
-            Dialogs.info("Shipment processed.");
-            refresh();
-        } catch (Exception ex) { Dialogs.error(ex.getMessage()); }
+        String id = pid.trim().toUpperCase();
+        ctx.commands().submit(p -> { ctx.warehouse().receiveShipment(id, qty); return id; },
+                done -> Dialogs.info("Shipment processed."));
     }
 
-    private void refresh() {
-        java.util.List<Product> list = new java.util.ArrayList<>(ctx.warehouse().getAllProducts());
-        String[][] data = new String[list.size()][4];
-        String[] cols = {"ID", "Name", "Stock", "Price"};
-        for (int i = 0; i < list.size(); i++) {
-            Product p = list.get(i);
-            data[i][0] = p.getId();
-            data[i][1] = p.getName();
-            data[i][2] = String.valueOf(p.getStock());
-            data[i][3] = String.format("%.2f", p.getPrice());
-        }
-        table.setModel(new javax.swing.table.DefaultTableModel(data, cols));
+    private void loadManifest() {
+        JFileChooser chooser = new JFileChooser();
+        chooser.setDialogTitle("Shipment manifest (productId,quantity per line)");
+        if (chooser.showOpenDialog(this) != JFileChooser.APPROVE_OPTION) return;
+        java.nio.file.Path file = chooser.getSelectedFile().toPath();
+        progress.setValue(0);
+        progress.setVisible(true);
+        revalidate();
+        ctx.commands().submit(p -> {
+            ShipmentManifest m = ShipmentManifest.read(file);
+            return ctx.warehouse().receiveShipments(m, MANIFEST_CHUNK, done -> p.update(done, m.size()));
+        }, stats -> {
+            progress.setVisible(false);
+            Dialogs.info("Manifest processed: " + stats);
+        }, ex -> {
+            progress.setVisible(false);
+            Dialogs.error(ex.getMessage());
+        }, (done, total) -> {
+            progress.setMaximum((int) total);
+            progress.setValue((int) done);
+        });
     }
 
-    @Override public void run() { refresh(); ctx.changePanel(this, "Manager"); }
+    private void showAll() {
+        filterField.setText("");
+        filterQuery = null;
+        model.showAll();
+    }
+
+    // Word-prefix match on the name through the search index, best first and one page at a time;
+    // an empty filter shows everything
+    private void applyFilter() {
+        String f = filterField.getText().trim();
+        filterQuery = null;
+        if (f.isEmpty()) { model.showAll(); return; }
+        ctx.commands().submit(p -> matches(f, FILTER_PAGE), found -> {
+            filterQuery = f;
+            filterShown = found.length;
+            model.showOnly(found);
+        });
+    }
+
+    // Asks the index for one more page of the best matches; it ranks them from the top again, so
+    // the rows already shown are simply replaced by the longer list
+    private void loadMoreMatches() {
+        String f = filterQuery;
+        if (f == null) { applyFilter(); return; }
+        if (filterShown % FILTER_PAGE != 0) return; // the last page came back short: that was all
+        int limit = filterShown + FILTER_PAGE;
+        ctx.commands().submit(p -> matches(f, limit), found -> {
+            if (!f.equals(filterQuery) || found.length <= filterShown) return; // restarted, or nothing new
+            filterShown = found.length;
+            model.showOnly(found);
+        });
+    }
+
+    // runs on a worker thread
+    private int[] matches(String query, int limit) {
+        java.util.List<Product> found = ctx.warehouse().searchProducts(query, limit);
+        int[] indexes = new int[found.size()];
+        for (int i = 0; i < indexes.length; i++) indexes[i] = found.get(i).getIndex();
+        return indexes;
+    }
+
+    @Override public void run() { refreshTable.run(); ctx.changePanel(this, "Manager"); }
     @Override public String getName() { return "Manager"; }
 }
\ No newline at end of file
@@ -27,10 +27,8 @@ public class OpeningPanel extends JPanel implements WarehouseState {
     private void loginClient() {
         String id = Dialogs.input("Enter Client ID (e.g., C1): ", "Client Login");
         if (id == null) return;
-        String cid = id.trim().toUpperCase(); // normalize and store in final local
-        boolean ok = ctx.warehouse().getAllClients().stream()
-                .anyMatch(c -> c.getId().equalsIgnoreCase(cid)); // use final var inside lambda
-        if (ok) {
+        String cid = ctx.warehouse().resolveClientId(id); // canonical id, or null if unknown
+        if (cid != null) {
             ctx.setCurrentClient(cid);
             ctx.setPreviousState(WarehouseContext.OPENING_STATE);
             ctx.setState(WarehouseContext.CLIENT_STATE);
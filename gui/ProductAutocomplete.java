@@ -0,0 +1,97 @@
+import javax.swing.*;
+import javax.swing.event.DocumentEvent;
+import javax.swing.event.DocumentListener;
+import java.awt.event.KeyAdapter;
+import java.awt.event.KeyEvent;
+import java.util.List;
+import java.util.function.Consumer;
+
+// Drop-down of product name matches under a text field. Typing is debounced, the search runs on
+// the command pool when there is one, and answers to older keystrokes are dropped. Picking a
+// suggestion puts the product ID in the field unless the caller handles the pick itself.
+public class ProductAutocomplete {
+    private static final int DELAY_MS = 120;
+    private static final int SUGGESTIONS = 10;
+
+    private final WarehouseContext ctx;
+    private final JTextField field;
+    private final JPopupMenu popup = new JPopupMenu();
+    private final Timer timer;
+    private final Consumer<Product> onPick;
+    private int generation;   // bumped per keystroke; a result for an older one is stale
+    private boolean picking;  // the field is being set from a suggestion, not typed into
+
+    private ProductAutocomplete(WarehouseContext ctx, JTextField field, Consumer<Product> onPick) {
+        this.ctx = ctx;
+        this.field = field;
+        this.onPick = onPick;
+        popup.setFocusable(false);
+        timer = new Timer(DELAY_MS, e -> search());
+        timer.setRepeats(false);
+        field.getDocument().addDocumentListener(new DocumentListener() {
+            @Override public void insertUpdate(DocumentEvent e) { changed(); }
+            @Override public void removeUpdate(DocumentEvent e) { changed(); }
+            @Override public void changedUpdate(DocumentEvent e) { }
+        });
+        field.addKeyListener(new KeyAdapter() {
+            @Override public void keyPressed(KeyEvent e) {
+                if (e.getKeyCode() == KeyEvent.VK_ESCAPE) hide();
+            }
+        });
+    }
+
+    public static ProductAutocomplete attach(WarehouseContext ctx, JTextField field) {
+        return new ProductAutocomplete(ctx, field, null);
+    }
+
+    public static ProductAutocomplete attach(WarehouseContext ctx, JTextField field, Consumer<Product> onPick) {
+        return new ProductAutocomplete(ctx, field, onPick);
+    }
+
+    private void changed() {
+        if (picking) return;
+        generation++;
+        timer.restart();
+    }
+
+    private void search() {
+        String query = field.getText().trim();
+        int gen = ++generation;
+        if (query.isEmpty()) { hide(); return; }
+        if (ctx.commands() == null) { show(gen, ctx.warehouse().searchProducts(query, SUGGESTIONS)); return; }
+        ctx.commands().submit(p -> ctx.warehouse().searchProducts(query, SUGGESTIONS),
+                found -> show(gen, found), ex -> hide(), null);
+    }
+
+    private void show(int gen, List<Product> found) {
+        if (gen != generation || !field.isShowing()) return;
+        popup.setVisible(false);
+        popup.removeAll();
+        if (found.isEmpty()) return;
+        for (Product p : found) {
+            JMenuItem item = new JMenuItem(p.getId() + "  " + p.getName() + "  (stock " + p.getStock() + ")");
+            item.addActionListener(e -> pick(p));
+            popup.add(item);
+        }
+        popup.pack();
+        popup.show(field, 0, field.getHeight());
+    }
+
+    private void pick(Product p) {
+        generation++;
+        hide();
+        if (onPick != null) { onPick.accept(p); return; }
+        picking = true;
+        try {
+            field.setText(p.getId());
+        } finally {
+            picking = false;
+        }
+        field.requestFocusInWindow();
+    }
+
+    private void hide() {
+        timer.stop();
+        popup.setVisible(false);
+    }
+}
@@ -0,0 +1,34 @@
+import java.util.Comparator;
+
+// Live view of the product catalog for ManagerPanel
+public class ProductTableModel extends RegistryTableModel<Product> {
+    private final Warehouse warehouse;
+
+    public ProductTableModel(Warehouse warehouse) {
+        super("ID", "Name", "Stock", "Price");
+        this.warehouse = warehouse;
+    }
+
+    @Override protected Product lookup(int index) { return warehouse.product(index); }
+    @Override protected int upperBound() { return warehouse.productUpperBound(); }
+
+    @Override
+    protected Object value(Product p, int column) {
+        switch (column) {
+            case 0: return p.getId();
+            case 1: return p.getName();
+            case 2: return p.getStock();
+            default: return Money.format(p.getPriceCents());
+        }
+    }
+
+    @Override
+    protected Comparator<Product> comparator(int column) {
+        switch (column) {
+            case 0: return Comparator.comparingInt(Product::getIndex);
+            case 1: return Comparator.comparing(Product::getName, String.CASE_INSENSITIVE_ORDER);
+            case 2: return Comparator.comparingInt(Product::getStock);
+            default: return Comparator.comparingLong(Product::getPriceCents);
+        }
+    }
+}
@@ -0,0 +1,177 @@
+import javax.swing.JTable;
+import javax.swing.SwingUtilities;
+import javax.swing.table.AbstractTableModel;
+import java.awt.event.MouseAdapter;
+import java.awt.event.MouseEvent;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.function.Predicate;
+
+// Table model over a dense registry (entities numbered 1..n). Cells are read and formatted only
+// when the table asks for them, i.e. for the visible rows. Sorting and filtering build an int[] of
+// entity indexes; the entities themselves are never copied. Call from the EDT only.
+public abstract class RegistryTableModel<T> extends AbstractTableModel {
+    private final String[] columns;
+
+    private int upper = 1;      // one past the highest index shown by the identity view
+    private int[] view;         // row -> entity index; null means row r shows index r + 1
+    private int[] rowOf;        // entity index -> row + 1 for the current view (0 = not shown)
+    private int viewSize;
+    private int[] base;         // explicit set of entities to show, or null for the whole registry
+    private int baseSize;
+
+    private Predicate<T> filter;
+    private Comparator<T> order;
+
+    protected RegistryTableModel(String... columns) { this.columns = columns; }
+
+    protected abstract T lookup(int index);
+    protected abstract int upperBound();
+    protected abstract Object value(T row, int column);
+    protected abstract Comparator<T> comparator(int column);
+
+    @Override public int getColumnCount() { return columns.length; }
+    @Override public String getColumnName(int c) { return columns[c]; }
+    @Override public int getRowCount() { return view == null ? upper - 1 : viewSize; }
+
+    @Override
+    public Object getValueAt(int row, int column) {
+        T t = lookup(indexAt(row));
+        return t == null ? "" : value(t, column); // slot claimed but not yet published
+    }
+
+    public int indexAt(int row) { return view == null ? row + 1 : view[row]; }
+    public T rowAt(int row) { return lookup(indexAt(row)); }
+
+    // Shows every entity in index order
+    public void showAll() {
+        filter = null; order = null; view = null; rowOf = null; base = null;
+        upper = Math.max(1, upperBound());
+        fireTableDataChanged();
+    }
+
+    // Shows exactly these entities, in this order (e.g. a page from another index)
+    public void showOnly(int[] indexes) {
+        filter = null; order = null;
+        base = indexes.clone(); baseSize = indexes.length;
+        rebuildView();
+    }
+
+    // Adds entities to an explicit set; sorting and filtering still apply
+    public void append(int[] indexes) {
+        if (base == null) { showOnly(indexes); return; }
+        if (baseSize + indexes.length > base.length) base = Arrays.copyOf(base, Math.max(base.length * 2, baseSize + indexes.length));
+        System.arraycopy(indexes, 0, base, baseSize, indexes.length);
+        baseSize += indexes.length;
+        if (filter == null && order == null && indexes.length > 0) {
+            int first = viewSize;
+            view = base; viewSize = baseSize;
+            rebuildRowOf();
+            fireTableRowsInserted(first, viewSize - 1);
+        } else {
+            rebuildView();
+        }
+    }
+
+    public void setFilter(Predicate<T> f) { filter = f; rebuildView(); }
+    public void sortBy(int column, boolean ascending) {
+        Comparator<T> c = comparator(column);
+        order = ascending ? c : c.reversed();
+        rebuildView();
+    }
+
+    // One entity changed: repaint its row only, if it is shown
+    public void rowChanged(int index) {
+        int row = rowFor(index);
+        if (row >= 0) fireTableRowsUpdated(row, row);
+    }
+
+    // New entities were added: the identity view grows in place, sorted or filtered views are rebuilt
+    public void rowsAdded() {
+        if (view == null) {
+            int old = upper;
+            upper = Math.max(1, upperBound());
+            if (upper > old) fireTableRowsInserted(old - 1, upper - 2);
+        } else if (base == null) {
+            rebuildView();
+        }
+    }
+
+    // Values changed in place for many rows (e.g. a batch): repaint without resetting the view
+    public void rowsChanged() {
+        if (getRowCount() > 0) fireTableRowsUpdated(0, getRowCount() - 1);
+    }
+
+    public void rowsChanged(int[] indexes) {
+        if (indexes.length > 64) { rowsChanged(); return; } // cheaper than one event per row
+        for (int index : indexes) rowChanged(index);
+    }
+
+    // Warehouse listener that repaints the rows named by each delivered batch, on the EDT
+    public WarehouseEvents.Listener repaintRows(boolean byProduct) {
+        return batch -> {
+            int[] idx = new int[batch.size()];
+            for (int i = 0; i < idx.length; i++) idx[i] = byProduct ? batch.product(i) : batch.client(i);
+            SwingUtilities.invokeLater(() -> rowsChanged(idx));
+        };
+    }
+
+    // Clicking a column header sorts by it; clicking again flips the direction
+    public void installHeaderSorting(JTable table) {
+        table.getTableHeader().addMouseListener(new MouseAdapter() {
+            private int column = -1;
+            private boolean ascending;
+            @Override public void mouseClicked(MouseEvent e) {
+                int c = table.columnAtPoint(e.getPoint());
+                if (c < 0) return;
+                c = table.convertColumnIndexToModel(c);
+                ascending = c != column || !ascending;
+                column = c;
+                sortBy(c, ascending);
+            }
+        });
+    }
+
+    private int rowFor(int index) {
+        if (view == null) return index > 0 && index < upper ? index - 1 : -1;
+        return index > 0 && index < rowOf.length ? rowOf[index] - 1 : -1;
+    }
+
+    private void rebuildView() {
+        if (base == null && filter == null && order == null) { showAll(); return; }
+        int n = base == null ? upperBound() - 1 : baseSize;
+        int[] v = new int[Math.max(0, n)];
+        int size = 0;
+        for (int k = 0; k < n; k++) {
+            int i = base == null ? k + 1 : base[k];
+            T t = lookup(i);
+            if (t != null && (filter == null || filter.test(t))) v[size++] = i;
+        }
+        if (order != null) sort(v, size);
+        view = v; viewSize = size;
+        rebuildRowOf();
+        fireTableDataChanged();
+    }
+
+    private void rebuildRowOf() {
+        int max = 0;
+        for (int i = 0; i < viewSize; i++) max = Math.max(max, view[i]);
+        rowOf = new int[max + 1];
+        for (int i = 0; i < viewSize; i++) rowOf[view[i]] = i + 1;
+    }
+
+    // Stable merge sort of entity indexes; entities are looked up, never boxed into a list
+    private void sort(int[] a, int n) {
+        int[] tmp = new int[n];
+        for (int width = 1; width < n; width <<= 1) {
+            for (int lo = 0; lo < n - width; lo += width << 1) {
+                int mid = lo + width, hi = Math.min(lo + (width << 1), n);
+                System.arraycopy(a, lo, tmp, lo, hi - lo);
+                int i = lo, j = mid, k = lo;
+                while (i < mid && j < hi) a[k++] = order.compare(lookup(tmp[j]), lookup(tmp[i])) < 0 ? tmp[j++] : tmp[i++];
+                while (i < mid) a[k++] = tmp[i++];
+                while (j < hi) a[k++] = tmp[j++];
+            }
+        }
+    }
+}
@@ -9,6 +9,8 @@ public class WishlistPanel extends JPanel implements WarehouseState {
     private final String clientId;
     private JTable table;
     private DefaultTableModel model;
+    private final Runnable refreshLater = CommandExecutor.coalescing(this::refresh);
+    private WarehouseEvents.Subscription changes;
 
     public WishlistPanel(WarehouseContext ctx) {
         this.ctx = ctx;
@@ -28,7 +30,9 @@ public class WishlistPanel extends JPanel implements WarehouseState {
         btns.add(btn("Refresh", this::refresh));
         add(btns, BorderLayout.SOUTH);
 
-        add(btnPanel("← Back", () -> ctx.setState(WarehouseContext.CLIENT_STATE)), BorderLayout.NORTH);
+        add(btnPanel("← Back", this::back), BorderLayout.NORTH);
+        // reload whenever this client's wishlist changes, from here or from another session
+        changes = ctx.warehouse().events().subscribeClient(clientId, b -> refreshLater.run(), EventType.WISHLIST_CHANGED);
         refresh();
     }
 
@@ -40,20 +44,22 @@ public class WishlistPanel extends JPanel implements WarehouseState {
         p.add(btn(t, a)); return p;
     }
 
+    // reads the wishlist on a worker thread and fills the table on the EDT
     private void refresh() {
-        model.setRowCount(0);
-        Client c = ctx.warehouse().getAllClients().stream()
-                .filter(cl -> cl.getId().equals(clientId))
-                .findFirst().orElse(null);
-        if (c == null) return;
-
-        for (WishlistItem wi : c.getWishlist()) {
-            Product p = ctx.warehouse().getAllProducts().stream()
-                    .filter(pr -> pr.getId().equals(wi.getProductId()))
-                    .findFirst().orElse(null);
-            String name = p != null ? p.getName() : "(unknown)";
-            model.addRow(new Object[]{wi.getProductId(), name, wi.getQuantity()});
-        }
+        ctx.commands().submit(p -> {
+            java.util.List<Object[]> rows = new java.util.ArrayList<>();
+            if (!ctx.warehouse().clientExists(clientId)) return rows;
+            WishlistMap lines = new WishlistMap();
+            ctx.warehouse().copyWishlist(clientId, lines);
+            for (int i = 0; i < lines.size(); i++) {
+                Product pr = ctx.warehouse().product(lines.product(i));
+                rows.add(new Object[]{Ids.productId(lines.product(i)), pr == null ? "(unknown)" : pr.getName(), lines.quantity(i)});
+            }
+            return rows;
+        }, rows -> {
+            model.setRowCount(0);
+            for (Object[] r : rows) model.addRow(r);
+        });
     }
 
     private void addItem() {
@@ -61,18 +67,22 @@ public class WishlistPanel extends JPanel implements WarehouseState {
         if (pid == null) return;
         int qty = Dialogs.inputInt("Quantity:", "Add to Wishlist");
         if (qty <= 0) return;
-        try {
-            ctx.warehouse().addOrUpdateWishlistItem(clientId, pid.trim().toUpperCase(), qty);
-            refresh();
-        } catch (Exception ex) { Dialogs.error(ex.getMessage()); }
+        String id = pid.trim().toUpperCase();
+        ctx.commands().submit(p -> { ctx.warehouse().addOrUpdateWishlistItem(clientId, id, qty); return id; },
+                null);
     }
 
     private void deleteSelected() {
         int row = table.getSelectedRow();
         if (row == -1) { Dialogs.info("Select a row."); return; }
         String pid = (String) model.getValueAt(row, 0);
-        ctx.warehouse().addOrUpdateWishlistItem(clientId, pid, 0);
-        refresh();
+        ctx.commands().submit(p -> { ctx.warehouse().addOrUpdateWishlistItem(clientId, pid, 0); return pid; },
+                null);
+    }
+
+    private void back() {
+        changes.close();
+        ctx.setState(WarehouseContext.CLIENT_STATE);
     }
 
     @Override public void run() { ctx.changePanel(this, "Wishlist – " + clientId); }
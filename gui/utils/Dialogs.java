@@ -1,6 +1,7 @@
 package gui.utils;
 
 import javax.swing.*;
+import java.util.function.Function;
 
 public class Dialogs {
     public static String input(String msg, String title) {
@@ -22,6 +23,15 @@ public class Dialogs {
             catch (NumberFormatException e) { JOptionPane.showMessageDialog(null, "Enter a valid number."); }
         }
     }
+    // Asks until parse accepts the text (it throws IllegalArgumentException otherwise); null if cancelled
+    public static <T> T input(String msg, String title, Function<String, T> parse, String hint) {
+        while (true) {
+            String s = input(msg, title);
+            if (s == null) return null;
+            try { return parse.apply(s.trim()); }
+            catch (IllegalArgumentException e) { JOptionPane.showMessageDialog(null, hint); }
+        }
+    }
     public static void info(String msg) { JOptionPane.showMessageDialog(null, msg, "Info", JOptionPane.INFORMATION_MESSAGE); }
     public static void error(String msg) { JOptionPane.showMessageDialog(null, msg, "Error", JOptionPane.ERROR_MESSAGE); }
 }
\ No newline at end of file